@@ -51,5 +51,13 @@ public final class Constants {
 	 * Property key which defines the password to be used to open the {@link KeyStore}
 	 */
 	public static final String KEYSTORE_PASSWORD_PROPERTY_KEY = "keystore-password";
+	/**
+	 * Suffix of property keys whose values are stored encrypted.
+	 */
+	public static final String ENCRYPTED_SUFFIX = "-encrypted";
+	/**
+	 * Suffix of property keys whose values should be encrypted when set.
+	 */
+	public static final String UNENCRYPTED_SUFFIX = "-unencrypted";
 
 }
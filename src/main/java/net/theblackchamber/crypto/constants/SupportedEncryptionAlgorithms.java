@@ -23,20 +23,61 @@
  */
 package net.theblackchamber.crypto.constants;
 
+import net.theblackchamber.crypto.exceptions.UnsupportedAlgorithmException;
+
 public enum SupportedEncryptionAlgorithms {
-	DES("PBEWithSHAAnd3KeyTripleDES"),
-	AES128("PBEWITHSHA256AND128BITAES-CBC-BC"),
-	AES192("PBEWITHSHA256AND192BITAES-CBC-BC"),
-	AES256("PBEWITHSHA256AND256BITAES-CBC-BC");
+	DES("PBEWithSHAAnd3KeyTripleDES", 1),
+	AES128("PBEWITHSHA256AND128BITAES-CBC-BC", 2),
+	AES192("PBEWITHSHA256AND192BITAES-CBC-BC", 3),
+	AES256("PBEWITHSHA256AND256BITAES-CBC-BC", 4),
+	CHACHA20_POLY1305("ChaCha20-Poly1305", 5),
+	AES_SIV("AES-SIV", 6);
 
 	private String algorithm;
 
-	private SupportedEncryptionAlgorithms(String algorithm) {
+	private int id;
+
+	private SupportedEncryptionAlgorithms(String algorithm, int id) {
 		this.algorithm = algorithm;
+		this.id = id;
 	}
 
 	public String getAlgorithm() {
 		return algorithm;
 	}
 
+	/**
+	 * Get the identifier used for the algorithm in ciphertext headers. Never
+	 * change the identifier of an existing algorithm.
+	 * 
+	 * @return
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Get enum based on ciphertext header identifier.
+	 * 
+	 * @param id
+	 * @return
+	 * @throws UnsupportedAlgorithmException
+	 */
+	public static SupportedEncryptionAlgorithms getById(int id)
+			throws UnsupportedAlgorithmException {
+
+		for (SupportedEncryptionAlgorithms supportedAlgorithm : SupportedEncryptionAlgorithms
+				.values()) {
+
+			if (supportedAlgorithm.getId() == id) {
+				return supportedAlgorithm;
+			}
+
+		}
+
+		throw new UnsupportedAlgorithmException("Algorithm id [" + id
+				+ "] is unsupported.");
+
+	}
+
 }
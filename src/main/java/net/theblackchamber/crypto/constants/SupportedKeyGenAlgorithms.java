@@ -27,7 +27,7 @@ import net.theblackchamber.crypto.exceptions.UnsupportedAlgorithmException;
 
 public enum SupportedKeyGenAlgorithms {
 
-	AES("AES"),DES("DESede");
+	AES("AES"),DES("DESede"),CHACHA20("ChaCha20");
 	
 	private String name;
 	
@@ -0,0 +1,170 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.implementations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.theblackchamber.crypto.exceptions.RuntimeCryptoException;
+
+import org.jasypt.encryption.StringEncryptor;
+import org.jasypt.properties.PropertyValueEncryptionUtils;
+import org.springframework.core.env.PropertiesPropertySource;
+
+/**
+ * Spring {@link org.springframework.core.env.PropertySource} over a set of
+ * properties whose values may be jasypt encrypted (<code>ENC(...)</code>).
+ * Unlike the jasypt <code>EncryptablePropertiesPropertySource</code> each
+ * value is only decrypted once, the clear text is cached for the life of the
+ * source so repeated reads do not go back through the encryptor.<br>
+ * Optionally every encrypted value can be decrypted up front, in parallel,
+ * when the source is created. The supplied {@link StringEncryptor} must then
+ * be thread safe, for example a jasypt
+ * {@link org.jasypt.encryption.pbe.PooledPBEStringEncryptor}.
+ * 
+ * @author sminogue
+ * 
+ */
+public class CachingEncryptablePropertySource extends PropertiesPropertySource {
+
+	private final StringEncryptor encryptor;
+
+	private final ConcurrentMap<String, String> decryptedValues = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * Constructor. Values are decrypted on first read.
+	 * 
+	 * @param name
+	 *            Name of the property source.
+	 * @param properties
+	 *            Properties, possibly containing encrypted values.
+	 * @param encryptor
+	 *            Encryptor used to decrypt values.
+	 */
+	public CachingEncryptablePropertySource(String name, Properties properties, StringEncryptor encryptor) {
+		super(name, properties);
+		if (encryptor == null) {
+			throw new IllegalArgumentException("Encryptor must not be null");
+		}
+		this.encryptor = encryptor;
+	}
+
+	/**
+	 * Constructor. When threads is greater than zero all encrypted values are
+	 * decrypted immediately using that many threads.
+	 * 
+	 * @param name
+	 *            Name of the property source.
+	 * @param properties
+	 *            Properties, possibly containing encrypted values.
+	 * @param encryptor
+	 *            Thread safe encryptor used to decrypt values.
+	 * @param threads
+	 *            Number of threads used to decrypt up front, or zero to
+	 *            decrypt on first read.
+	 * @throws RuntimeCryptoException
+	 *             If a value could not be decrypted.
+	 */
+	public CachingEncryptablePropertySource(String name, Properties properties, StringEncryptor encryptor,
+			int threads) {
+		this(name, properties, encryptor);
+		if (threads > 0) {
+			decryptAll(threads);
+		}
+	}
+
+	@Override
+	public Object getProperty(String name) {
+		Object value = super.getProperty(name);
+		if (!(value instanceof String) || !PropertyValueEncryptionUtils.isEncryptedValue((String) value)) {
+			return value;
+		}
+		String decrypted = decryptedValues.get(name);
+		if (decrypted == null) {
+			decrypted = PropertyValueEncryptionUtils.decrypt((String) value, encryptor);
+			decryptedValues.putIfAbsent(name, decrypted);
+		}
+		return decrypted;
+	}
+
+	/**
+	 * @return Number of values decrypted so far.
+	 */
+	public int getDecryptedCount() {
+		return decryptedValues.size();
+	}
+
+	/**
+	 * Decrypt every encrypted value into the cache.
+	 * 
+	 * @param threads
+	 */
+	private void decryptAll(int threads) {
+
+		final List<String> names = new ArrayList<String>();
+		for (Map.Entry<String, Object> entry : getSource().entrySet()) {
+			Object value = entry.getValue();
+			if (value instanceof String && PropertyValueEncryptionUtils.isEncryptedValue((String) value)) {
+				names.add(entry.getKey());
+			}
+		}
+		if (names.isEmpty()) {
+			return;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, names.size()));
+		try {
+			List<Future<Object>> futures = new ArrayList<Future<Object>>(names.size());
+			for (final String name : names) {
+				futures.add(executor.submit(new Callable<Object>() {
+					@Override
+					public Object call() {
+						return getProperty(name);
+					}
+				}));
+			}
+			for (Future<Object> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeCryptoException("Interrupted while decrypting property source " + getName(), e);
+		} catch (ExecutionException e) {
+			throw new RuntimeCryptoException("Unable to decrypt property source " + getName(), e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+	}
+
+}
@@ -3,7 +3,8 @@ package net.theblackchamber.crypto.implementations;
 import java.io.IOException;
 import java.util.Properties;
 
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import net.theblackchamber.crypto.providers.CryptoProviders;
+
 import org.jasypt.encryption.pbe.StandardPBEStringEncryptor;
 import org.jasypt.encryption.pbe.config.EnvironmentStringPBEConfig;
 import org.jasypt.spring31.properties.EncryptablePropertiesPropertySource;
@@ -22,7 +23,7 @@ public class EncryptedPropertySourceFactory implements PropertySourceFactory {
 		
 		StandardPBEStringEncryptor encryptor = new StandardPBEStringEncryptor();
 		encryptor.setConfig(config);
-		encryptor.setProvider(new BouncyCastleProvider());
+		encryptor.setProvider(CryptoProviders.getBouncyCastleProvider());
 		encryptor.setAlgorithm("PBEWITHSHA256AND128BITAES-CBC-BC");
 		
 		Properties props = new Properties();
@@ -0,0 +1,145 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.implementations;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import net.theblackchamber.crypto.providers.CryptoProviders;
+
+import org.jasypt.encryption.StringEncryptor;
+import org.jasypt.encryption.pbe.PooledPBEStringEncryptor;
+import org.jasypt.encryption.pbe.config.EnvironmentStringPBEConfig;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.support.EncodedResource;
+import org.springframework.core.io.support.PropertySourceFactory;
+
+/**
+ * Alternative to {@link EncryptedPropertySourceFactory} for contexts with
+ * many or frequently read encrypted properties. All property sources created
+ * by the no argument constructor share one
+ * {@link PooledPBEStringEncryptor} (same password environment variable and
+ * algorithm as {@link EncryptedPropertySourceFactory}) with one pooled
+ * encryptor per processor, rather than each building and synchronizing on
+ * its own. Sources are {@link CachingEncryptablePropertySource}s so each
+ * value is only decrypted once.<br>
+ * Usage: <code>
+ * &#64;PropertySource(value = "classpath:app.properties", factory = PooledEncryptedPropertySourceFactory.class)
+ * </code><br>
+ * To decrypt everything in parallel when the context is refreshed, subclass
+ * and call {@link #PooledEncryptedPropertySourceFactory(StringEncryptor, int)}
+ * with {@link #getSharedEncryptor()} and a thread count.
+ * 
+ * @author sminogue
+ * 
+ */
+public class PooledEncryptedPropertySourceFactory implements PropertySourceFactory {
+
+	/**
+	 * Environment variable holding the decryption password.
+	 */
+	public static final String PASSWORD_ENV_NAME = "JHEN_DECRYPT_ENV_PASSWORD";
+
+	/**
+	 * Algorithm used by the shared encryptor.
+	 */
+	public static final String ALGORITHM = "PBEWITHSHA256AND128BITAES-CBC-BC";
+
+	private final StringEncryptor encryptor;
+	private final int threads;
+
+	/**
+	 * Constructor. Uses the shared encryptor and decrypts values on first
+	 * read.
+	 */
+	public PooledEncryptedPropertySourceFactory() {
+		this(getSharedEncryptor(), 0);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param encryptor
+	 *            Thread safe encryptor shared by all created sources.
+	 * @param threads
+	 *            Number of threads used to decrypt each source when it is
+	 *            created, or zero to decrypt on first read.
+	 */
+	public PooledEncryptedPropertySourceFactory(StringEncryptor encryptor, int threads) {
+		if (encryptor == null) {
+			throw new IllegalArgumentException("Encryptor must not be null");
+		}
+		this.encryptor = encryptor;
+		this.threads = threads;
+	}
+
+	/**
+	 * @return The encryptor shared by every factory created with the no
+	 *         argument constructor. Created on first use.
+	 */
+	public static StringEncryptor getSharedEncryptor() {
+		return SharedEncryptorHolder.ENCRYPTOR;
+	}
+
+	@Override
+	public PropertySource<?> createPropertySource(String name, EncodedResource resource) throws IOException {
+
+		Properties props = new Properties();
+		InputStream in = resource.getInputStream();
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+
+		String sourceName = name;
+		if (sourceName == null) {
+			sourceName = resource.getResource().getDescription();
+		}
+
+		return new CachingEncryptablePropertySource(sourceName, props, encryptor, threads);
+	}
+
+	/**
+	 * Lazily initialized holder for the shared encryptor.
+	 */
+	private static class SharedEncryptorHolder {
+
+		static final PooledPBEStringEncryptor ENCRYPTOR;
+
+		static {
+			EnvironmentStringPBEConfig config = new EnvironmentStringPBEConfig();
+			config.setPasswordEnvName(PASSWORD_ENV_NAME);
+			config.setProvider(CryptoProviders.getBouncyCastleProvider());
+			config.setAlgorithm(ALGORITHM);
+			config.setPoolSize(Runtime.getRuntime().availableProcessors());
+
+			ENCRYPTOR = new PooledPBEStringEncryptor();
+			ENCRYPTOR.setConfig(config);
+		}
+
+	}
+
+}
@@ -0,0 +1,364 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.implementations;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static net.theblackchamber.crypto.constants.Constants.KEY_PATH_PROPERTY_KEY;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import net.theblackchamber.crypto.exceptions.RuntimeCryptoException;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Wrapper around {@link SecureProperties} which watches the properties file
+ * and the keystore it uses and reloads them when either changes on disk.<br>
+ * Reloading (parsing the file, loading the keystore and initializing the
+ * encryption provider) is done on a background thread into a brand new
+ * {@link SecureProperties} which then replaces the current one in a single
+ * step. Readers always see either the old or the new state in full and never
+ * wait for a reload. If a reload fails, for example because the keystore
+ * can not be opened, the current state is kept and the error is available from
+ * {@link #getLastReloadError()}.<br>
+ * A half written properties file usually parses without error, so a change is
+ * only reloaded once the files have raised no further events and kept the
+ * same size and modification time for a short settle window. A writer which
+ * may pause for longer than that part way through should write a temporary
+ * file and rename it over the properties file instead.<br>
+ * Usage: <code>
+ * ReloadingSecureProperties sProperties = new ReloadingSecureProperties(propertiesFile, keyfile.getPath(), "aes-key", "TEST");
+ * String decryptedProperty = sProperties.getProperty("test-encrypted");
+ * ...
+ * sProperties.close();
+ * </code>
+ * 
+ * @author sminogue
+ * 
+ */
+public class ReloadingSecureProperties implements Closeable {
+
+	/**
+	 * Time the files must stay unchanged before reloading, so a burst of
+	 * events from one edit only causes one reload and a file being written is
+	 * not loaded half way through.
+	 */
+	private static final long SETTLE_MILLIS = 100;
+
+	private final File propertiesFile;
+	private final String keyPath;
+	private final String keyEntry;
+	private final String keyPass;
+
+	private final WatchService watchService;
+	private final Thread watcher;
+
+	private WatchKey propertiesWatchKey;
+	private WatchKey keystoreWatchKey;
+
+	private final Object reloadLock = new Object();
+
+	private volatile SecureProperties properties;
+	private volatile File keystoreFile;
+	private volatile Throwable lastReloadError;
+	private volatile long reloadCount;
+
+	/**
+	 * Constructor which loads the properties and starts watching for changes.
+	 * 
+	 * @param propertiesFile
+	 *            Properties file to load.
+	 * @param keyPath
+	 *            If null an attempt will be made to attempt to use the key path
+	 *            property from the underlying property file.
+	 * @param keyEntry
+	 *            If null an attempt will be made to attempt to use the key
+	 *            entry property from the underlying property file.
+	 * @param keyPass
+	 *            If null an attempt will be made to attempt to use the key pass
+	 *            property from the underlying property file.
+	 * @throws FileNotFoundException
+	 *             Properties file not found on disk.
+	 * @throws IOException
+	 *             Error loading the properties or keystore, or starting to
+	 *             watch them.
+	 */
+	public ReloadingSecureProperties(File propertiesFile, String keyPath,
+			String keyEntry, String keyPass) throws FileNotFoundException,
+			IOException {
+
+		if (propertiesFile == null || !propertiesFile.isFile()) {
+			throw new FileNotFoundException(
+					"Properties file not specified or does not exist.");
+		}
+
+		this.propertiesFile = propertiesFile.getAbsoluteFile();
+		this.keyPath = keyPath;
+		this.keyEntry = keyEntry;
+		this.keyPass = keyPass;
+
+		properties = load();
+
+		watchService = FileSystems.getDefault().newWatchService();
+		try {
+			propertiesWatchKey = register(this.propertiesFile);
+			registerKeystore();
+		} catch (IOException e) {
+			watchService.close();
+			throw e;
+		}
+
+		watcher = new Thread(new Runnable() {
+			public void run() {
+				watch();
+			}
+		}, "SecureProperties-reload-" + this.propertiesFile.getName());
+		watcher.setDaemon(true);
+		watcher.start();
+
+	}
+
+	/**
+	 * Gets the current properties. The returned instance is replaced, not
+	 * changed, by a reload so it should be treated as read only.
+	 * 
+	 * @return
+	 */
+	public SecureProperties getProperties() {
+		return properties;
+	}
+
+	/**
+	 * @see SecureProperties#getProperty(String)
+	 */
+	public String getProperty(String key) {
+		return properties.getProperty(key);
+	}
+
+	/**
+	 * @see SecureProperties#getProperty(String, String)
+	 */
+	public String getProperty(String key, String defaultValue) {
+		return properties.getProperty(key, defaultValue);
+	}
+
+	/**
+	 * @see SecureProperties#stringPropertyNames()
+	 */
+	public Set<String> stringPropertyNames() {
+		return properties.stringPropertyNames();
+	}
+
+	/**
+	 * Gets the error from the most recent reload.
+	 * 
+	 * @return Null if the most recent reload succeeded.
+	 */
+	public Throwable getLastReloadError() {
+		return lastReloadError;
+	}
+
+	/**
+	 * Gets the number of successful reloads since construction.
+	 * 
+	 * @return
+	 */
+	public long getReloadCount() {
+		return reloadCount;
+	}
+
+	/**
+	 * Reload the properties file and keystore now, replacing the current
+	 * properties if successful. Normally called by the watcher thread.
+	 * 
+	 * @throws IOException
+	 *             Error loading the properties or keystore. The current
+	 *             properties are kept.
+	 */
+	public void reload() throws IOException {
+		synchronized (reloadLock) {
+			try {
+				SecureProperties reloaded = load();
+				properties = reloaded;
+				reloadCount++;
+				lastReloadError = null;
+				registerKeystore();
+			} catch (IOException e) {
+				lastReloadError = e;
+				throw e;
+			} catch (RuntimeException e) {
+				lastReloadError = e;
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Stop watching for changes. The current properties remain readable.
+	 */
+	public void close() throws IOException {
+		watchService.close();
+	}
+
+	/**
+	 * Load a fresh {@link SecureProperties} from disk.
+	 */
+	private SecureProperties load() throws IOException {
+		InputStream inputStream = new FileInputStream(propertiesFile);
+		try {
+			SecureProperties loaded = new SecureProperties(inputStream,
+					keyPath, keyEntry, keyPass);
+			if (loaded.getEncryptionProvider() == null) {
+				throw new RuntimeCryptoException(
+						"No encryption provider configured");
+			}
+			return loaded;
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException("Failed to load properties: "
+					+ e.getMessage(), e);
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	/**
+	 * Watch the keystore currently in use, which may have changed if the
+	 * key-path property was edited.
+	 */
+	private void registerKeystore() throws IOException {
+		String path = StringUtils.isEmpty(keyPath) ? properties
+				.getProperty(KEY_PATH_PROPERTY_KEY) : keyPath;
+		File keystore = new File(path).getAbsoluteFile();
+		if (!keystore.equals(keystoreFile)) {
+			WatchKey previous = keystoreWatchKey;
+			keystoreWatchKey = register(keystore);
+			keystoreFile = keystore;
+			// Registering a directory again returns the same key, so only
+			// cancel the old one if no watched file is left in its directory.
+			if (previous != null && previous != keystoreWatchKey
+					&& previous != propertiesWatchKey) {
+				previous.cancel();
+			}
+		}
+	}
+
+	private WatchKey register(File file) throws IOException {
+		return file.getParentFile().toPath()
+				.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+	}
+
+	/**
+	 * Watcher thread loop. Runs until the watch service is closed.
+	 */
+	private void watch() {
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+				boolean changed = isWatchedChange(key);
+
+				// Wait until a whole settle window passes without events and
+				// without the files changing size or modification time.
+				long[] state = changed ? fileState() : null;
+				while (changed) {
+					key = watchService.poll(SETTLE_MILLIS,
+							TimeUnit.MILLISECONDS);
+					if (key != null) {
+						isWatchedChange(key);
+						state = fileState();
+						continue;
+					}
+					long[] current = fileState();
+					if (Arrays.equals(state, current)) {
+						break;
+					}
+					state = current;
+				}
+
+				if (changed) {
+					try {
+						reload();
+					} catch (Throwable t) {
+						// Kept in lastReloadError, the current state remains.
+					}
+				}
+			}
+		} catch (ClosedWatchServiceException e) {
+			// Closed, stop watching.
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Size and modification time of the properties file and keystore.
+	 */
+	private long[] fileState() {
+		File keystore = keystoreFile;
+		return new long[] { propertiesFile.length(),
+				propertiesFile.lastModified(),
+				keystore == null ? 0 : keystore.length(),
+				keystore == null ? 0 : keystore.lastModified() };
+	}
+
+	/**
+	 * Determine if a watch key has events for the properties file or
+	 * keystore, and reset it for further events.
+	 */
+	private boolean isWatchedChange(WatchKey key) {
+		boolean changed = false;
+		Path dir = (Path) key.watchable();
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == OVERFLOW) {
+				changed = true;
+				continue;
+			}
+			File file = dir.resolve((Path) event.context()).toFile()
+					.getAbsoluteFile();
+			if (file.equals(propertiesFile) || file.equals(keystoreFile)) {
+				changed = true;
+			}
+		}
+		key.reset();
+		return changed;
+	}
+
+}
@@ -23,9 +23,11 @@
  */
 package net.theblackchamber.crypto.implementations;
 
+import static net.theblackchamber.crypto.constants.Constants.ENCRYPTED_SUFFIX;
 import static net.theblackchamber.crypto.constants.Constants.ENTRY_NAME_PROPERTY_KEY;
 import static net.theblackchamber.crypto.constants.Constants.KEYSTORE_PASSWORD_PROPERTY_KEY;
 import static net.theblackchamber.crypto.constants.Constants.KEY_PATH_PROPERTY_KEY;
+import static net.theblackchamber.crypto.constants.Constants.UNENCRYPTED_SUFFIX;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -70,8 +72,6 @@ import org.apache.commons.lang3.StringUtils;
 public class SecureProperties extends Properties {
 
 	private static final long serialVersionUID = 6795084558089471182L;
-	private static final String ENCRYPTED_SUFFIX = "-encrypted";
-	private static final String UNENCRYPTED_SUFFIX = "-unencrypted";
 	private Key key = null;
 	private EncryptionProvider encryptionProvider = null;
 
@@ -103,6 +103,22 @@ public class SecureProperties extends Properties {
 		super();
 	}
 
+	/**
+	 * Constructor which uses an already loaded key and initialized encryption
+	 * provider rather than loading the keystore. This allows many instances to
+	 * share a single provider.
+	 *
+	 * @param key
+	 *            Key which the encryption provider was initialized with.
+	 * @param encryptionProvider
+	 *            Provider to use to encrypt and decrypt properties.
+	 */
+	public SecureProperties(Key key, EncryptionProvider encryptionProvider) {
+		super();
+		this.key = key;
+		this.encryptionProvider = encryptionProvider;
+	}
+
 	/**
 	 * Constructor which specifies file path to load properties from and the
 	 * keystore details. <b>Note that if an exception occurred in
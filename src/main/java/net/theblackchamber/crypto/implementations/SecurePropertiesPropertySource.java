@@ -0,0 +1,136 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.implementations;
+
+import static net.theblackchamber.crypto.constants.Constants.ENCRYPTED_SUFFIX;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.theblackchamber.crypto.exceptions.MissingParameterException;
+import net.theblackchamber.crypto.exceptions.RuntimeCryptoException;
+import net.theblackchamber.crypto.providers.EncryptionProvider;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.core.env.EnumerablePropertySource;
+
+/**
+ * Spring {@link org.springframework.core.env.PropertySource} backed by a
+ * {@link SecureProperties}. Values whose key ends in "-encrypted" are
+ * decrypted with the keystore key of the {@link SecureProperties} exactly as
+ * {@link SecureProperties#getProperty(String)} would, but each value is only
+ * decrypted once and then served from a cache.<br>
+ * The properties are copied when the source is created so reads never lock
+ * the underlying Hashtable. Changes made to the {@link SecureProperties}
+ * afterwards are not seen by the source.
+ * 
+ * @author sminogue
+ * 
+ */
+public class SecurePropertiesPropertySource extends EnumerablePropertySource<SecureProperties> {
+
+	private final Map<String, String> values;
+	private final String[] names;
+	private final EncryptionProvider encryptionProvider;
+
+	private final ConcurrentMap<String, String> decryptedValues = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param name
+	 *            Name of the property source.
+	 * @param properties
+	 *            Loaded SecureProperties. Must have an encryption provider if
+	 *            it contains encrypted values.
+	 */
+	public SecurePropertiesPropertySource(String name, SecureProperties properties) {
+		super(name, properties);
+		this.encryptionProvider = properties.getEncryptionProvider();
+
+		Map<String, String> copy = new HashMap<String, String>();
+		synchronized (properties) {
+			for (String key : properties.stringPropertyNames()) {
+				Object value = properties.get(key);
+				if (value instanceof String) {
+					copy.put(key, (String) value);
+				}
+			}
+		}
+		this.values = copy;
+		this.names = copy.keySet().toArray(new String[copy.size()]);
+	}
+
+	/**
+	 * @see org.springframework.core.env.PropertySource#getProperty(java.lang.String)
+	 *      If the name ends in "-encrypted" the decrypted value is returned.
+	 * @throws RuntimeCryptoException
+	 *             If the value is encrypted and no encryption provider is
+	 *             configured.
+	 */
+	@Override
+	public Object getProperty(String name) {
+		String value = values.get(name);
+		if (value == null || !StringUtils.endsWithIgnoreCase(name, ENCRYPTED_SUFFIX)) {
+			return value;
+		}
+		String decrypted = decryptedValues.get(name);
+		if (decrypted == null) {
+			decrypted = decrypt(value);
+			decryptedValues.putIfAbsent(name, decrypted);
+		}
+		return decrypted;
+	}
+
+	@Override
+	public boolean containsProperty(String name) {
+		return values.containsKey(name);
+	}
+
+	@Override
+	public String[] getPropertyNames() {
+		return names.clone();
+	}
+
+	/**
+	 * @return Number of values decrypted so far.
+	 */
+	public int getDecryptedCount() {
+		return decryptedValues.size();
+	}
+
+	private String decrypt(String value) {
+		if (encryptionProvider == null) {
+			throw new RuntimeCryptoException("No encryption provider configured");
+		}
+		try {
+			return encryptionProvider.decrypt(value);
+		} catch (MissingParameterException e) {
+			throw new RuntimeCryptoException("No value to decrypt specified.", e);
+		}
+	}
+
+}
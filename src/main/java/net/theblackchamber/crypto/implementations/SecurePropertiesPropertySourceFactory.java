@@ -0,0 +1,143 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.implementations;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.Key;
+import java.util.Properties;
+
+import net.theblackchamber.crypto.exceptions.RuntimeCryptoException;
+import net.theblackchamber.crypto.providers.EncryptionProvider;
+import net.theblackchamber.crypto.providers.EncryptionProviderFactory;
+import net.theblackchamber.crypto.util.KeystoreUtils;
+
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.support.EncodedResource;
+import org.springframework.core.io.support.PropertySourceFactory;
+
+/**
+ * Spring {@link PropertySourceFactory} which loads properties files using the
+ * SecureProperties conventions ("-encrypted" values, keystore key) and
+ * creates {@link SecurePropertiesPropertySource}s.<br>
+ * Created with the no argument constructor (as Spring does for
+ * <code>&#64;PropertySource(factory = ...)</code>) the keystore details are
+ * read from each properties file (key-path, entry-name and
+ * keystore-password). A subclass can instead pass the keystore details to
+ * {@link #SecurePropertiesPropertySourceFactory(String, String, String)}; the
+ * key and encryption provider are then loaded once and shared by every
+ * source the factory creates.<br>
+ * Usage: <code>
+ * &#64;PropertySource(value = "classpath:app.properties", factory = SecurePropertiesPropertySourceFactory.class)
+ * </code>
+ * 
+ * @author sminogue
+ * 
+ */
+public class SecurePropertiesPropertySourceFactory implements PropertySourceFactory {
+
+	private final String keyPath;
+	private final String keyEntry;
+	private final String keyPass;
+
+	private volatile Key key;
+	private volatile EncryptionProvider encryptionProvider;
+
+	/**
+	 * Constructor. Keystore details are read from each properties file.
+	 */
+	public SecurePropertiesPropertySourceFactory() {
+		this(null, null, null);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param keyPath
+	 *            Path to the keystore. If null the keystore details are read
+	 *            from each properties file.
+	 * @param keyEntry
+	 *            Entry name for the key in the keystore.
+	 * @param keyPass
+	 *            Password to open the keystore.
+	 */
+	public SecurePropertiesPropertySourceFactory(String keyPath, String keyEntry, String keyPass) {
+		this.keyPath = keyPath;
+		this.keyEntry = keyEntry;
+		this.keyPass = keyPass;
+	}
+
+	@Override
+	public PropertySource<?> createPropertySource(String name, EncodedResource resource) throws IOException {
+
+		String sourceName = name;
+		if (sourceName == null) {
+			sourceName = resource.getResource().getDescription();
+		}
+
+		InputStream in = resource.getInputStream();
+		try {
+			SecureProperties properties;
+			if (keyPath == null) {
+				properties = new SecureProperties(in);
+			} else {
+				Properties props = new Properties();
+				props.load(in);
+				initializeEncryptionProvider();
+				properties = new SecureProperties(key, encryptionProvider);
+				properties.putAll(props);
+			}
+			return new SecurePropertiesPropertySource(sourceName, properties);
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException("Unable to load " + sourceName + ": " + e.getMessage(), e);
+		} finally {
+			in.close();
+		}
+
+	}
+
+	/**
+	 * Load the shared key and encryption provider if not already loaded.
+	 * 
+	 * @throws RuntimeCryptoException
+	 *             Wraps encryption key loading errors.
+	 */
+	private synchronized void initializeEncryptionProvider() {
+		if (encryptionProvider != null) {
+			return;
+		}
+		try {
+			Key loadedKey = KeystoreUtils.getSecretKey(new File(keyPath), keyEntry, keyPass);
+			EncryptionProvider provider = EncryptionProviderFactory.getProvider(loadedKey);
+			key = loadedKey;
+			encryptionProvider = provider;
+		} catch (Exception e) {
+			throw new RuntimeCryptoException("Failed when attempting to load keystore: " + e.getMessage(), e);
+		}
+	}
+
+}
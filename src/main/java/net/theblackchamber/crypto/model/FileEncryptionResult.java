@@ -0,0 +1,82 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.model;
+
+import java.io.File;
+
+/**
+ * Class used to report the outcome of encrypting a single file as part of a
+ * bulk operation.
+ * 
+ * @author sminogue
+ * 
+ */
+public class FileEncryptionResult {
+
+	private final File file;
+	private final Throwable error;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param file
+	 *            File which was processed.
+	 * @param error
+	 *            Error which occurred while processing the file. Null if the
+	 *            file was processed successfully.
+	 */
+	public FileEncryptionResult(final File file, final Throwable error) {
+		super();
+		this.file = file;
+		this.error = error;
+	}
+
+	/**
+	 * Gets the file which was processed.
+	 * 
+	 * @return
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Gets the error which occurred while processing the file.
+	 * 
+	 * @return Null if the file was processed successfully.
+	 */
+	public Throwable getError() {
+		return error;
+	}
+
+	/**
+	 * Indicates if the file was processed successfully.
+	 * 
+	 * @return
+	 */
+	public boolean isSuccess() {
+		return error == null;
+	}
+
+}
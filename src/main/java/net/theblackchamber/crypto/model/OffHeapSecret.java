@@ -0,0 +1,239 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.model;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.security.Key;
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import javax.security.auth.Destroyable;
+
+/**
+ * Holder for key material or clear text which keeps it outside the Java
+ * heap, in a direct {@link ByteBuffer}, so that it is not copied around by
+ * the garbage collector and can be wiped when no longer needed.<br>
+ * The arrays passed to the constructors are wiped once copied. Accessors
+ * which return arrays return copies which the caller should wipe after use,
+ * and {@link #destroy()} overwrites the secret with zeros. Any use after
+ * destroy throws an IllegalStateException.<br>
+ * Text is stored as UTF-8.<br>
+ * The library holds the key of every {@link
+ * net.theblackchamber.crypto.providers.EncryptionProvider} and the
+ * {@link net.theblackchamber.crypto.providers.JasyptDecryptor} password this
+ * way. It does not cover copies the JCA needs on the heap: the key schedules
+ * inside jasypt encryptors and initialized ciphers, the key specs the
+ * ChaCha20, AES-SIV and blind index providers initialize their ciphers from,
+ * or decrypted values, which the caching property sources hold as Strings.
+ * 
+ * @author sminogue
+ * 
+ */
+public class OffHeapSecret implements Destroyable, Closeable {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final ByteBuffer buffer;
+
+	private boolean destroyed;
+
+	/**
+	 * Copy bytes off the heap. The array is wiped.
+	 * 
+	 * @param secret
+	 */
+	public OffHeapSecret(byte[] secret) {
+
+		if (secret == null) {
+			throw new IllegalArgumentException("secret is required");
+		}
+
+		buffer = ByteBuffer.allocateDirect(secret.length);
+		buffer.put(secret);
+		buffer.flip();
+		Arrays.fill(secret, (byte) 0);
+
+	}
+
+	/**
+	 * Copy text off the heap as UTF-8. The array is wiped.
+	 * 
+	 * @param secret
+	 */
+	public OffHeapSecret(char[] secret) {
+
+		if (secret == null) {
+			throw new IllegalArgumentException("secret is required");
+		}
+
+		CharsetEncoder encoder = UTF8.newEncoder();
+		ByteBuffer encoded = ByteBuffer.allocateDirect((int) Math.ceil(secret.length * encoder.maxBytesPerChar()));
+		try {
+			CoderResult result = encoder.encode(CharBuffer.wrap(secret), encoded, true);
+			if (result.isError()) {
+				throw new IllegalArgumentException("secret is not valid text");
+			}
+			encoder.flush(encoded);
+			encoded.flip();
+
+			buffer = ByteBuffer.allocateDirect(encoded.remaining());
+			buffer.put(encoded);
+			buffer.flip();
+		} finally {
+			wipe(encoded);
+			Arrays.fill(secret, '\0');
+		}
+
+	}
+
+	/**
+	 * Copy the encoded form of a key off the heap.
+	 * 
+	 * @param key
+	 * @return The secret.
+	 */
+	public static OffHeapSecret fromKey(Key key) {
+		byte[] encoded = key == null ? null : key.getEncoded();
+		if (encoded == null) {
+			throw new IllegalArgumentException("key is required");
+		}
+		return new OffHeapSecret(encoded);
+	}
+
+	/**
+	 * @return Length of the secret in bytes.
+	 */
+	public synchronized int length() {
+		checkNotDestroyed();
+		return buffer.limit();
+	}
+
+	/**
+	 * @return Read only view of the secret. It is not a copy, so it sees
+	 *         zeros once the secret is destroyed.
+	 */
+	public synchronized ByteBuffer asReadOnlyBuffer() {
+		checkNotDestroyed();
+		return buffer.asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return Copy of the secret on the heap, which should be wiped after
+	 *         use.
+	 */
+	public synchronized byte[] getBytes() {
+		checkNotDestroyed();
+		byte[] bytes = new byte[buffer.limit()];
+		buffer.duplicate().get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * @return Copy of the secret decoded from UTF-8, which should be wiped
+	 *         after use.
+	 */
+	public synchronized char[] getChars() {
+
+		checkNotDestroyed();
+
+		CharsetDecoder decoder = UTF8.newDecoder();
+		CharBuffer decoded = CharBuffer.allocate(buffer.limit());
+		try {
+			CoderResult result = decoder.decode(buffer.duplicate(), decoded, true);
+			if (result.isError()) {
+				result.throwException();
+			}
+			decoder.flush(decoded);
+			return Arrays.copyOf(decoded.array(), decoded.position());
+		} catch (CharacterCodingException e) {
+			throw new IllegalStateException("secret is not UTF-8 text", e);
+		} finally {
+			Arrays.fill(decoded.array(), '\0');
+		}
+
+	}
+
+	/**
+	 * Create a key from the secret. The JCA needs key material on the heap,
+	 * so the key holds a copy.
+	 * 
+	 * @param algorithm
+	 * @return The key.
+	 */
+	public synchronized SecretKey toSecretKey(String algorithm) {
+		byte[] bytes = getBytes();
+		try {
+			return new SecretKeySpec(bytes, algorithm);
+		} finally {
+			Arrays.fill(bytes, (byte) 0);
+		}
+	}
+
+	/**
+	 * Overwrite the secret with zeros.
+	 */
+	@Override
+	public synchronized void destroy() {
+		if (!destroyed) {
+			wipe(buffer);
+			destroyed = true;
+		}
+	}
+
+	@Override
+	public synchronized boolean isDestroyed() {
+		return destroyed;
+	}
+
+	/**
+	 * Same as {@link #destroy()}.
+	 */
+	@Override
+	public void close() {
+		destroy();
+	}
+
+	private void checkNotDestroyed() {
+		if (destroyed) {
+			throw new IllegalStateException("Secret has been destroyed");
+		}
+	}
+
+	private static void wipe(ByteBuffer buffer) {
+		ByteBuffer whole = buffer.duplicate();
+		whole.clear();
+		for (int i = 0; i < whole.capacity(); i++) {
+			whole.put(i, (byte) 0);
+		}
+	}
+
+}
@@ -0,0 +1,214 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.theblackchamber.crypto.exceptions.MissingParameterException;
+import net.theblackchamber.crypto.exceptions.RuntimeCryptoException;
+import net.theblackchamber.crypto.exceptions.UnsupportedKeySizeException;
+import net.theblackchamber.crypto.util.Codecs;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Creates blind index tokens, which allow values encrypted by an
+ * {@link EncryptionProvider} to be searched without decrypting them.<br>
+ * A token is an HMAC-SHA256 of the value, so equal values give equal tokens
+ * but the token cannot be reversed or computed without the key. Store the
+ * token next to the randomized ciphertext, index it, and look rows up by the
+ * token of the search value.<br>
+ * The key must be a separate keystore entry from the encryption key, so that
+ * the two can be rotated and protected independently.<br>
+ * Tokens can be truncated. Shorter tokens leak less about which values are
+ * equal, since unrelated values share tokens, but a lookup then also returns
+ * rows which only share the token and must be confirmed by decrypting them.
+ * Strings are normalized (NFC) before hashing so that equivalent Unicode
+ * forms give the same token. Tokens are HEX encoded.
+ * 
+ * @author sminogue
+ * 
+ */
+public class BlindIndexProvider {
+
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+
+	/**
+	 * Length of an untruncated token in bytes.
+	 */
+	public static final int MAX_TOKEN_LENGTH = 32;
+
+	/**
+	 * Shortest truncation allowed, in bytes.
+	 */
+	public static final int MIN_TOKEN_LENGTH = 4;
+
+	private final SecretKeySpec macKey;
+
+	private final int tokenLength;
+
+	private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+		@Override
+		protected Mac initialValue() {
+			try {
+				Mac mac = Mac.getInstance(MAC_ALGORITHM, CryptoProviders.getProvider("Mac", MAC_ALGORITHM));
+				mac.init(macKey);
+				return mac;
+			} catch (GeneralSecurityException e) {
+				throw new RuntimeCryptoException(e.getMessage(), e);
+			}
+		}
+	};
+
+	/**
+	 * Create a provider which produces untruncated 32 byte tokens.
+	 * 
+	 * @param key
+	 *            Index key, at least 128 bits.
+	 * @throws UnsupportedKeySizeException
+	 *             If the key is shorter than 128 bits.
+	 */
+	public BlindIndexProvider(final Key key) throws UnsupportedKeySizeException {
+		this(key, MAX_TOKEN_LENGTH);
+	}
+
+	/**
+	 * @param key
+	 *            Index key, at least 128 bits.
+	 * @param tokenLength
+	 *            Length of the tokens in bytes, from 4 to 32.
+	 * @throws UnsupportedKeySizeException
+	 *             If the key is shorter than 128 bits.
+	 */
+	public BlindIndexProvider(final Key key, int tokenLength) throws UnsupportedKeySizeException {
+
+		if (key == null || key.getEncoded() == null) {
+			throw new IllegalArgumentException("key is required");
+		}
+		if (key.getEncoded().length < 16) {
+			throw new UnsupportedKeySizeException("Found unsupported key size [" + (key.getEncoded().length * 8)
+					+ "]. Blind index keys must be at least 128 bits");
+		}
+		if (tokenLength < MIN_TOKEN_LENGTH || tokenLength > MAX_TOKEN_LENGTH) {
+			throw new IllegalArgumentException("tokenLength must be between " + MIN_TOKEN_LENGTH + " and "
+					+ MAX_TOKEN_LENGTH);
+		}
+
+		this.macKey = new SecretKeySpec(key.getEncoded(), MAC_ALGORITHM);
+		this.tokenLength = tokenLength;
+
+	}
+
+	/**
+	 * @return Length of the tokens in bytes.
+	 */
+	public int getTokenLength() {
+		return tokenLength;
+	}
+
+	/**
+	 * Create the token for a string.
+	 * 
+	 * @param value
+	 * @return HEX encoded token.
+	 * @throws MissingParameterException
+	 */
+	public String token(String value) throws MissingParameterException {
+
+		if (StringUtils.isEmpty(value)) {
+			throw new MissingParameterException("Missing parameter: value");
+		}
+
+		return Codecs.toHex(token(macs.get(), toBytes(value)));
+
+	}
+
+	/**
+	 * Create the token for bytes.
+	 * 
+	 * @param value
+	 * @return Token.
+	 * @throws MissingParameterException
+	 */
+	public byte[] token(byte[] value) throws MissingParameterException {
+
+		if (value == null || value.length == 0) {
+			throw new MissingParameterException("Missing parameter: value");
+		}
+
+		return token(macs.get(), value);
+
+	}
+
+	/**
+	 * Create the tokens for many strings at once, for example when building
+	 * the index for existing rows. Empty or null values give a null token.
+	 * 
+	 * @param values
+	 * @return HEX encoded tokens, in the same order as the values.
+	 */
+	public List<String> tokens(List<String> values) {
+
+		if (values == null) {
+			throw new IllegalArgumentException("values is required");
+		}
+
+		Mac mac = macs.get();
+		List<String> tokens = new ArrayList<String>(values.size());
+		for (String value : values) {
+			tokens.add(StringUtils.isEmpty(value) ? null : Codecs.toHex(token(mac, toBytes(value))));
+		}
+		return tokens;
+
+	}
+
+	private byte[] token(Mac mac, byte[] value) {
+
+		byte[] hash = mac.doFinal(value);
+		if (tokenLength == hash.length) {
+			return hash;
+		}
+		byte[] token = new byte[tokenLength];
+		System.arraycopy(hash, 0, token, 0, tokenLength);
+		return token;
+
+	}
+
+	private static byte[] toBytes(String value) {
+		try {
+			return Normalizer.normalize(value, Normalizer.Form.NFC).getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeCryptoException(e.getMessage(), e);
+		}
+	}
+
+}
@@ -0,0 +1,236 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import net.theblackchamber.crypto.constants.SupportedEncryptionAlgorithms;
+import net.theblackchamber.crypto.exceptions.MissingParameterException;
+import net.theblackchamber.crypto.exceptions.UnsupportedAlgorithmException;
+import net.theblackchamber.crypto.util.Codecs;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Versioned header placed in front of ciphertext identifying the key and
+ * algorithm which produced it, so that the right key can be selected for
+ * decryption without trial and error.<br>
+ * Layout: 2 magic bytes, 1 byte format version, 1 byte algorithm id (see
+ * {@link SupportedEncryptionAlgorithms#getId()}), 1 byte key id length and the
+ * UTF-8 key id. String ciphertext carries the header hex encoded in front of
+ * the hex encoded ciphertext.
+ * 
+ * @author sminogue
+ * 
+ */
+public final class CiphertextHeader {
+
+	/**
+	 * Current header format version.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Maximum length in bytes of an UTF-8 encoded key id.
+	 */
+	public static final int MAX_KEY_ID_LENGTH = 255;
+
+	private static final byte[] MAGIC = { (byte) 0xCE, (byte) 0x4B };
+
+	private static final int FIXED_LENGTH = MAGIC.length + 3;
+
+	private static final Charset KEY_ID_CHARSET = Charset.forName("UTF-8");
+
+	private final int version;
+	private final SupportedEncryptionAlgorithms algorithm;
+	private final String keyId;
+	private final byte[] encoded;
+
+	/**
+	 * Constructor for a header in the current format version.
+	 * 
+	 * @param algorithm
+	 *            Algorithm which produced the ciphertext.
+	 * @param keyId
+	 *            Identifier of the key which produced the ciphertext.
+	 * @throws MissingParameterException
+	 *             If the key id is blank or too long.
+	 */
+	public CiphertextHeader(SupportedEncryptionAlgorithms algorithm,
+			String keyId) throws MissingParameterException {
+		this(VERSION, algorithm, keyId);
+	}
+
+	private CiphertextHeader(int version,
+			SupportedEncryptionAlgorithms algorithm, String keyId)
+			throws MissingParameterException {
+
+		if (algorithm == null) {
+			throw new MissingParameterException("Missing parameter: algorithm");
+		}
+		if (StringUtils.isEmpty(keyId)) {
+			throw new MissingParameterException("Missing parameter: keyId");
+		}
+
+		byte[] keyIdBytes = keyId.getBytes(KEY_ID_CHARSET);
+		if (keyIdBytes.length > MAX_KEY_ID_LENGTH) {
+			throw new MissingParameterException("Key id [" + keyId
+					+ "] is longer than " + MAX_KEY_ID_LENGTH + " bytes.");
+		}
+
+		this.version = version;
+		this.algorithm = algorithm;
+		this.keyId = keyId;
+
+		encoded = new byte[FIXED_LENGTH + keyIdBytes.length];
+		System.arraycopy(MAGIC, 0, encoded, 0, MAGIC.length);
+		encoded[MAGIC.length] = (byte) version;
+		encoded[MAGIC.length + 1] = (byte) algorithm.getId();
+		encoded[MAGIC.length + 2] = (byte) keyIdBytes.length;
+		System.arraycopy(keyIdBytes, 0, encoded, FIXED_LENGTH,
+				keyIdBytes.length);
+
+	}
+
+	/**
+	 * Gets the header format version.
+	 * 
+	 * @return
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Gets the algorithm which produced the ciphertext.
+	 * 
+	 * @return
+	 */
+	public SupportedEncryptionAlgorithms getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * Gets the identifier of the key which produced the ciphertext.
+	 * 
+	 * @return
+	 */
+	public String getKeyId() {
+		return keyId;
+	}
+
+	/**
+	 * Gets the length in bytes of the encoded header. String ciphertext uses
+	 * twice this many characters.
+	 * 
+	 * @return
+	 */
+	public int getLength() {
+		return encoded.length;
+	}
+
+	/**
+	 * Gets the encoded header.
+	 * 
+	 * @return
+	 */
+	public byte[] toBytes() {
+		return encoded.clone();
+	}
+
+	/**
+	 * Gets the hex encoded header.
+	 * 
+	 * @return
+	 */
+	public String toHex() {
+		return Codecs.toHex(encoded);
+	}
+
+	/**
+	 * Read the header from the start of binary ciphertext.
+	 * 
+	 * @param cipherBytes
+	 * @return The header or null if the ciphertext does not start with a
+	 *         header this version understands.
+	 */
+	public static CiphertextHeader parse(byte[] cipherBytes) {
+
+		if (cipherBytes == null || cipherBytes.length < FIXED_LENGTH
+				|| cipherBytes[0] != MAGIC[0] || cipherBytes[1] != MAGIC[1]) {
+			return null;
+		}
+
+		int version = cipherBytes[MAGIC.length] & 0xFF;
+		int algorithmId = cipherBytes[MAGIC.length + 1] & 0xFF;
+		int keyIdLength = cipherBytes[MAGIC.length + 2] & 0xFF;
+		if (version != VERSION || keyIdLength == 0
+				|| cipherBytes.length < FIXED_LENGTH + keyIdLength) {
+			return null;
+		}
+
+		try {
+			return new CiphertextHeader(version,
+					SupportedEncryptionAlgorithms.getById(algorithmId),
+					new String(Arrays.copyOfRange(cipherBytes, FIXED_LENGTH,
+							FIXED_LENGTH + keyIdLength), KEY_ID_CHARSET));
+		} catch (UnsupportedAlgorithmException e) {
+			return null;
+		} catch (MissingParameterException e) {
+			return null;
+		}
+
+	}
+
+	/**
+	 * Read the header from the start of hex encoded ciphertext.
+	 * 
+	 * @param cipherText
+	 * @return The header or null if the ciphertext does not start with a
+	 *         header this version understands.
+	 */
+	public static CiphertextHeader parse(String cipherText) {
+
+		if (cipherText == null || cipherText.length() < FIXED_LENGTH * 2) {
+			return null;
+		}
+
+		try {
+			byte[] fixed = Codecs.fromHex(cipherText.substring(0, FIXED_LENGTH * 2));
+			int keyIdLength = fixed[MAGIC.length + 2] & 0xFF;
+			int headerLength = (FIXED_LENGTH + keyIdLength) * 2;
+			if (fixed[0] != MAGIC[0] || fixed[1] != MAGIC[1]
+					|| cipherText.length() < headerLength) {
+				return null;
+			}
+			return parse(Codecs.fromHex(cipherText.substring(0, headerLength)));
+		} catch (RuntimeException e) {
+			// Not hex, so not a header.
+			return null;
+		}
+
+	}
+
+}
@@ -0,0 +1,264 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers;
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidParameterException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+
+import org.apache.commons.lang3.StringUtils;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * Central registry of the JCA providers used by the library.<br>
+ * Creating a {@link BouncyCastleProvider} registers hundreds of algorithms
+ * and is expensive, so one instance is created the first time it is needed
+ * and shared by every provider, digester and utility. It is not added to the
+ * JVM wide provider list.<br>
+ * For a service which the JDK's built in providers implement (for example
+ * SHA-256 digests or AES key generation) the JDK provider is used instead,
+ * and BouncyCastle is only loaded for what only it implements, such as the
+ * PBE ciphers and Whirlpool. Lookups are cached under the algorithm's
+ * standard name, so an alias such as SHA256 shares the provider of SHA-256.<br>
+ * The choice can instead be made by measurement with a
+ * {@link ProviderSelector}, which binds the fastest provider that passes its
+ * self test.
+ * 
+ * @author sminogue
+ * 
+ */
+public final class CryptoProviders {
+
+	private static final ConcurrentMap<String, Provider> PROVIDERS = new ConcurrentHashMap<String, Provider>();
+
+	/**
+	 * Standard algorithm name for each name or alias looked up.
+	 */
+	private static final ConcurrentMap<String, String> NAMES = new ConcurrentHashMap<String, String>();
+
+	private CryptoProviders() {
+	}
+
+	/**
+	 * @return The shared BouncyCastle provider, created on first use.
+	 */
+	public static Provider getBouncyCastleProvider() {
+		return BouncyCastleHolder.PROVIDER;
+	}
+
+	/**
+	 * Find the provider to use for an algorithm, preferring the JDK's
+	 * installed providers and falling back to the shared BouncyCastle
+	 * provider.
+	 * 
+	 * @param type
+	 *            JCA service type, for example MessageDigest or KeyGenerator.
+	 * @param algorithm
+	 *            Algorithm name or alias.
+	 * @return The provider.
+	 * @throws NoSuchAlgorithmException
+	 *             If no provider implements the algorithm.
+	 */
+	public static Provider getProvider(String type, String algorithm) throws NoSuchAlgorithmException {
+
+		String cacheKey = cacheKey(type, algorithm);
+		Provider provider = PROVIDERS.get(cacheKey);
+		if (provider != null) {
+			return provider;
+		}
+
+		for (Provider installed : Security.getProviders()) {
+			if (installed.getService(type, algorithm) != null) {
+				provider = installed;
+				break;
+			}
+		}
+		if (provider == null) {
+			Provider bouncyCastle = getBouncyCastleProvider();
+			if (bouncyCastle.getService(type, algorithm) == null) {
+				throw new NoSuchAlgorithmException(type + " " + algorithm + " is not available");
+			}
+			provider = bouncyCastle;
+		}
+
+		PROVIDERS.putIfAbsent(cacheKey, provider);
+		return provider;
+
+	}
+
+	/**
+	 * Bind the provider to use for an algorithm or cipher transformation,
+	 * replacing the one found by {@link #getProvider(String, String)}.
+	 * 
+	 * @param type
+	 * @param algorithm
+	 *            Algorithm name, or full transformation for a Cipher.
+	 * @param provider
+	 */
+	static void bind(String type, String algorithm, Provider provider) {
+		PROVIDERS.put(cacheKey(type, algorithm), provider);
+	}
+
+	/**
+	 * Resolve an algorithm name or alias, for example SHA256, to its standard
+	 * name, SHA-256, as registered by the first provider which implements it.
+	 * Names which no provider registers, such as most cipher
+	 * transformations, are returned unchanged.
+	 * 
+	 * @param type
+	 *            JCA service type, for example MessageDigest or KeyGenerator.
+	 * @param algorithm
+	 *            Algorithm name or alias.
+	 * @return The standard name.
+	 */
+	public static String getAlgorithmName(String type, String algorithm) {
+
+		String alias = type + "." + algorithm;
+		String name = NAMES.get(alias);
+		if (name != null) {
+			return name;
+		}
+
+		name = algorithm;
+		Provider.Service service = null;
+		for (Provider installed : Security.getProviders()) {
+			service = installed.getService(type, algorithm);
+			if (service != null) {
+				break;
+			}
+		}
+		if (service == null) {
+			service = getBouncyCastleProvider().getService(type, algorithm);
+		}
+		if (service != null) {
+			name = service.getAlgorithm();
+		}
+
+		NAMES.putIfAbsent(alias, name);
+		return name;
+
+	}
+
+	private static String cacheKey(String type, String algorithm) {
+		return type + "." + getAlgorithmName(type, algorithm).toUpperCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * Forget every cached lookup and every provider bound by a
+	 * {@link ProviderSelector}, so the next lookups prefer the JDK's
+	 * providers again.
+	 */
+	public static void reset() {
+		PROVIDERS.clear();
+		NAMES.clear();
+	}
+
+	/**
+	 * @param algorithm
+	 * @return A new MessageDigest from the preferred provider.
+	 * @throws NoSuchAlgorithmException
+	 *             If no provider implements the algorithm.
+	 */
+	public static MessageDigest getMessageDigest(String algorithm) throws NoSuchAlgorithmException {
+		// The bound provider may not know the alias, every provider knows the
+		// standard name.
+		Provider provider = getProvider("MessageDigest", algorithm);
+		return MessageDigest.getInstance(getAlgorithmName("MessageDigest", algorithm), provider);
+	}
+
+	/**
+	 * Create a Cipher for a transformation (algorithm/mode/padding) from the
+	 * preferred provider for its algorithm, falling back to BouncyCastle if
+	 * that provider does not support the mode or padding.
+	 * 
+	 * @param transformation
+	 * @return A new Cipher.
+	 * @throws GeneralSecurityException
+	 *             If no provider implements the transformation.
+	 */
+	public static Cipher getCipher(String transformation) throws GeneralSecurityException {
+
+		Provider provider = PROVIDERS.get(cacheKey("Cipher", transformation));
+		if (provider == null) {
+			provider = getProvider("Cipher", StringUtils.substringBefore(transformation, "/"));
+		}
+		try {
+			return Cipher.getInstance(transformation, provider);
+		} catch (GeneralSecurityException e) {
+			if (provider == getBouncyCastleProvider()) {
+				throw e;
+			}
+			return Cipher.getInstance(transformation, getBouncyCastleProvider());
+		}
+
+	}
+
+	/**
+	 * Create an initialized KeyGenerator from the preferred provider. If that
+	 * provider does not accept the key size (the JDK only generates 112 or
+	 * 168 bit DESede keys, for example) BouncyCastle is used instead.
+	 * 
+	 * @param algorithm
+	 * @param keySize
+	 * @param random
+	 * @return Initialized KeyGenerator.
+	 * @throws NoSuchAlgorithmException
+	 *             If no provider implements the algorithm.
+	 */
+	public static KeyGenerator getKeyGenerator(String algorithm, int keySize, SecureRandom random)
+			throws NoSuchAlgorithmException {
+
+		Provider provider = getProvider("KeyGenerator", algorithm);
+		KeyGenerator keygen = KeyGenerator.getInstance(algorithm, provider);
+		try {
+			keygen.init(keySize, random);
+		} catch (InvalidParameterException e) {
+			if (provider == getBouncyCastleProvider()) {
+				throw e;
+			}
+			keygen = KeyGenerator.getInstance(algorithm, getBouncyCastleProvider());
+			keygen.init(keySize, random);
+		}
+		return keygen;
+
+	}
+
+	/**
+	 * Lazily initialized holder for the shared BouncyCastle provider.
+	 */
+	private static class BouncyCastleHolder {
+		static final Provider PROVIDER = new BouncyCastleProvider();
+	}
+
+}
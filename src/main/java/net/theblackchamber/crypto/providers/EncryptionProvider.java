@@ -24,17 +24,24 @@
  */
 package net.theblackchamber.crypto.providers;
 
+import java.nio.charset.Charset;
 import java.security.Key;
+import java.util.Arrays;
 
 import javax.crypto.SecretKey;
 
 import org.apache.commons.lang3.StringUtils;
 import org.jasypt.encryption.pbe.PooledPBEByteEncryptor;
 import org.jasypt.encryption.pbe.PooledPBEStringEncryptor;
+import org.jasypt.encryption.pbe.config.SimplePBEConfig;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
 
+import net.theblackchamber.crypto.constants.SupportedEncryptionAlgorithms;
 import net.theblackchamber.crypto.exceptions.MissingParameterException;
 import net.theblackchamber.crypto.exceptions.UnsupportedAlgorithmException;
 import net.theblackchamber.crypto.exceptions.UnsupportedKeySizeException;
+import net.theblackchamber.crypto.model.OffHeapSecret;
+import net.theblackchamber.crypto.util.Codecs;
 
 /**
  * Abstract class which will be the base for all Encryption providers. This is
@@ -46,37 +53,80 @@ import net.theblackchamber.crypto.exceptions.UnsupportedKeySizeException;
  */
 public abstract class EncryptionProvider {
 
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
 	protected int ENCRYPTOR_POOL_SIZE = 4;
 
+	/**
+	 * String encryptor for the key, producing the same HEX output as
+	 * {@link #encrypt(String)}. The providers no longer use it, it is kept
+	 * configured for subclasses which do. jasypt builds its pool on first
+	 * use, so it costs nothing unless used.
+	 * 
+	 * @deprecated Strings are encrypted through {@link #byteEncryptor}; use
+	 *             {@link #encrypt(String)} and {@link #decrypt(String)}.
+	 */
+	@Deprecated
 	protected PooledPBEStringEncryptor stringEncryptor;
 
 	protected PooledPBEByteEncryptor byteEncryptor;
 
 	/**
-	 * Encryption {@link Key} to be used for encryption and decryption options.
+	 * Encoded form of the encryption {@link Key}, kept off the heap. The
+	 * encryptors are configured from it once, afterwards it is only read by
+	 * {@link #getKey()}.
 	 */
-	private Key key;
+	private OffHeapSecret key;
 
 	/**
-	 * Method which will return the {@link Key} being used by the instance of
+	 * Algorithm of the encryption {@link Key}.
+	 */
+	private String keyAlgorithm;
+
+	/**
+	 * Algorithm used by the instance of this provider.
+	 */
+	protected SupportedEncryptionAlgorithms algorithm;
+
+	/**
+	 * Method which will return the algorithm being used by the instance of
 	 * this provider.
 	 * 
 	 * @return
 	 */
+	public SupportedEncryptionAlgorithms getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * Method which will return the {@link Key} being used by the instance of
+	 * this provider. The provider keeps the key off the heap, so each call
+	 * returns a new copy on the heap.
+	 * 
+	 * @return
+	 */
 	protected Key getKey() {
-		return key;
+		return key == null ? null : key.toSecretKey(keyAlgorithm);
 	}
 
 	/**
 	 * Method which will set the {@link Key} to be used by the instance of this
-	 * provider.
+	 * provider. Its encoded form is copied off the heap, the caller's
+	 * {@link Key} is not kept.
 	 * 
 	 * @param key
 	 *            Instance of {@link Key} to be used for encryption and
 	 *            decryption.
 	 */
 	protected void setKey(final Key key) {
-		this.key = key;
+		OffHeapSecret previous = this.key;
+		this.key = OffHeapSecret.fromKey(key);
+		this.keyAlgorithm = key.getAlgorithm();
+		if (previous != null) {
+			previous.destroy();
+		}
 	}
 
 	/**
@@ -93,7 +143,13 @@ public abstract class EncryptionProvider {
 			throw new MissingParameterException("Missing parameter: cipherText");
 		}
 
-		return stringEncryptor.decrypt(cipherText);
+		byte[] cipherBytes;
+		try {
+			cipherBytes = Codecs.fromHex(cipherText);
+		} catch (IllegalArgumentException e) {
+			throw new EncryptionOperationNotPossibleException();
+		}
+		return new String(byteEncryptor.decrypt(cipherBytes), UTF8);
 	}
 	
 	/**
@@ -110,7 +166,9 @@ public abstract class EncryptionProvider {
 			throw new MissingParameterException("Missing parameter: clearText");
 		}
 
-		return stringEncryptor.encrypt(clearText);
+		// Same output as the jasypt string encryptor (UTF-8 encrypted and
+		// upper case HEX), without its per character HEX conversion.
+		return Codecs.toHex(byteEncryptor.encrypt(clearText.getBytes(UTF8)));
 	}
 	
 	/**
@@ -148,6 +206,112 @@ public abstract class EncryptionProvider {
 
 	}
 
+	/**
+	 * Method which will create the byte encryptor for the key using the
+	 * specified algorithm. Strings are encrypted through it as UTF-8 and HEX
+	 * encoded with {@link Codecs}, giving the same output as the jasypt string
+	 * encryptor. The deprecated {@link #stringEncryptor} is configured too.
+	 * Each encryptor gets its own configuration since jasypt clears the
+	 * password from a configuration once an encryptor using it has been
+	 * initialized.
+	 * 
+	 * @param algorithm
+	 *            Algorithm to be used for encryption and decryption.
+	 */
+	protected void initializeEncryptors(SupportedEncryptionAlgorithms algorithm) {
+
+		this.algorithm = algorithm;
+
+		stringEncryptor = new PooledPBEStringEncryptor();
+		stringEncryptor.setPoolSize(ENCRYPTOR_POOL_SIZE);
+		stringEncryptor.setConfig(createConfig());
+		stringEncryptor.setStringOutputType("hexadecimal");
+
+		byteEncryptor = new PooledPBEByteEncryptor();
+		byteEncryptor.setPoolSize(ENCRYPTOR_POOL_SIZE);
+		byteEncryptor.setConfig(createConfig());
+
+	}
+
+	/**
+	 * Method which will create an encryptor configuration for the key and
+	 * algorithm of this provider.
+	 * 
+	 * @return
+	 */
+	private SimplePBEConfig createConfig() {
+
+		SimplePBEConfig config = new SimplePBEConfig();
+		config.setAlgorithm(algorithm.getAlgorithm());
+		config.setKeyObtentionIterations(10);
+		char[] password = password(key.getBytes());
+		try {
+			config.setPasswordCharArray(password);
+		} finally {
+			Arrays.fill(password, '\0');
+		}
+		config.setProvider(CryptoProviders.getBouncyCastleProvider());
+		config.setSaltGenerator(RandomSource.getSaltGenerator());
+		return config;
+
+	}
+
+	/**
+	 * Method which will return the encryptor password, the key in lower case
+	 * HEX. It is built as a char[] rather than a String so that it can be
+	 * wiped, the configuration keeps its own copy and wipes that once the
+	 * encryptor is initialized.
+	 * 
+	 * @param key
+	 * @return
+	 */
+	static char[] password(Key key) {
+		return password(key.getEncoded());
+	}
+
+	/**
+	 * Method which will return the encryptor password for an encoded key.
+	 * The encoded key is wiped.
+	 * 
+	 * @param encoded
+	 * @return
+	 */
+	private static char[] password(byte[] encoded) {
+
+		char[] password = new char[encoded.length * 2];
+		for (int i = 0; i < encoded.length; i++) {
+			password[i * 2] = HEX_DIGITS[(encoded[i] >> 4) & 0x0f];
+			password[i * 2 + 1] = HEX_DIGITS[encoded[i] & 0x0f];
+		}
+		Arrays.fill(encoded, (byte) 0);
+		return password;
+
+	}
+
+	/**
+	 * Method which will check whether a value of the given length could have
+	 * been produced by a provider using the algorithm. The jasypt PBE
+	 * algorithms write a salt of one block followed by whole blocks, the
+	 * other algorithms are not checked.
+	 * 
+	 * @param algorithm
+	 * @param length
+	 *            Length of the value in bytes.
+	 * @return
+	 */
+	static boolean hasValidLength(SupportedEncryptionAlgorithms algorithm, int length) {
+		switch (algorithm) {
+		case DES:
+			return length >= 16 && length % 8 == 0;
+		case AES128:
+		case AES192:
+		case AES256:
+			return length >= 32 && length % 16 == 0;
+		default:
+			return true;
+		}
+	}
+
 	/**
 	 * Method which will validate that the key passed to the provider is
 	 * appropriate. Meaning it is correct length of the algorithm, that its for
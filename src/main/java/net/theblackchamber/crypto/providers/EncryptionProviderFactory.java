@@ -33,6 +33,8 @@ import net.theblackchamber.crypto.constants.SupportedKeyGenAlgorithms;
 import net.theblackchamber.crypto.exceptions.UnsupportedAlgorithmException;
 import net.theblackchamber.crypto.exceptions.UnsupportedKeySizeException;
 import net.theblackchamber.crypto.providers.symmetric.AESEncryptionProvider;
+import net.theblackchamber.crypto.providers.symmetric.AESSIVEncryptionProvider;
+import net.theblackchamber.crypto.providers.symmetric.ChaCha20EncryptionProvider;
 import net.theblackchamber.crypto.providers.symmetric.DESEdeEncryptionProvider;
 
 /**
@@ -67,10 +69,29 @@ public class EncryptionProviderFactory {
 		case DES:
 			return new DESEdeEncryptionProvider(key);
 			
+		case CHACHA20:
+			return new ChaCha20EncryptionProvider(key);
+			
 		default:
 			throw new UnsupportedAlgorithmException("Algorithm [" + keyAlgorithm + "] is not supported.");
 		}
 
 	}
 
+	/**
+	 * Method which will return a new deterministic {@link EncryptionProvider}
+	 * for the key, which always encrypts the same clear text to the same
+	 * ciphertext so that encrypted values can be indexed and compared. Only
+	 * 256 bit and larger AES keys are supported.
+	 * 
+	 * @param key
+	 * @return
+	 * @throws UnsupportedAlgorithmException
+	 * @throws UnsupportedKeySizeException
+	 */
+	public static AESSIVEncryptionProvider getDeterministicProvider(final Key key)
+			throws UnsupportedAlgorithmException, UnsupportedKeySizeException {
+		return new AESSIVEncryptionProvider(key);
+	}
+
 }
@@ -0,0 +1,474 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.theblackchamber.crypto.exceptions.MissingParameterException;
+import net.theblackchamber.crypto.exceptions.UnsupportedAlgorithmException;
+import net.theblackchamber.crypto.exceptions.UnsupportedKeySizeException;
+import net.theblackchamber.crypto.util.Codecs;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+
+/**
+ * Implementation of {@link EncryptionProvider} using envelope encryption.
+ * Every value gets its own random 256 bit AES data key. The data is
+ * encrypted with that key (AES/GCM) and the data key is wrapped (encrypted)
+ * by a key encryption provider, normally one of the keystore key providers,
+ * and stored in a header in front of the data.<br>
+ * Rotating the keystore key then only means re-wrapping the small data key
+ * in each header, see {@link #rewrap(byte[], EncryptionProvider)}, the data
+ * itself is never re-encrypted. Wrapping with a
+ * {@link KeyringEncryptionProvider} records which key wrapped each data key.
+ * <br>
+ * Unwrapped data keys can be cached (a bounded, least recently used cache)
+ * so hot values skip the key unwrap. Values without an envelope header, as
+ * produced by the key encryption provider itself, are decrypted by it
+ * directly. Such a value can start with bytes which look like a header, so a
+ * value which looks like an envelope but fails to decrypt as one is also
+ * tried with the key encryption provider.<br>
+ * Layout: magic (2 bytes), version (1 byte), wrapped key length (2 bytes),
+ * wrapped key, IV (12 bytes), AES/GCM ciphertext and tag. Strings are HEX
+ * encoded.<br>
+ * Usage: <code>
+ * EncryptionProvider provider = new EnvelopeEncryptionProvider(EncryptionProviderFactory.getProvider(key), 1000);
+ * String cipherText = provider.encrypt("clear text");
+ * </code>
+ * 
+ * @author sminogue
+ * 
+ */
+public class EnvelopeEncryptionProvider extends EncryptionProvider {
+
+	private static final byte[] MAGIC = { (byte) 0xCE, (byte) 0x45 };
+
+	private static final int VERSION = 1;
+
+	private static final int PREFIX_LENGTH = MAGIC.length + 3;
+
+	private static final int DATA_KEY_LENGTH = 32;
+
+	private static final int IV_LENGTH = 12;
+
+	private static final int TAG_LENGTH_BITS = 128;
+
+	private static final String DATA_CIPHER = "AES/GCM/NoPadding";
+
+	private final EncryptionProvider keyEncryptionProvider;
+
+	private final Map<String, SecretKey> dataKeys;
+
+	private final ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>() {
+		@Override
+		protected Cipher initialValue() {
+			try {
+				return CryptoProviders.getCipher(DATA_CIPHER);
+			} catch (GeneralSecurityException e) {
+				throw new EncryptionOperationNotPossibleException(e);
+			}
+		}
+	};
+
+	/**
+	 * Constructor to create a new envelope provider.
+	 * 
+	 * @param keyEncryptionProvider
+	 *            Provider which wraps and unwraps the data keys.
+	 * @param dataKeyCacheSize
+	 *            Maximum number of unwrapped data keys to cache, or zero to
+	 *            not cache.
+	 * @throws MissingParameterException
+	 *             If no key encryption provider is given.
+	 * @throws UnsupportedKeySizeException
+	 * @throws UnsupportedAlgorithmException
+	 */
+	public EnvelopeEncryptionProvider(
+			final EncryptionProvider keyEncryptionProvider,
+			final int dataKeyCacheSize) throws MissingParameterException,
+			UnsupportedKeySizeException, UnsupportedAlgorithmException {
+		super(getKey(keyEncryptionProvider));
+
+		this.keyEncryptionProvider = keyEncryptionProvider;
+		this.algorithm = keyEncryptionProvider.getAlgorithm();
+
+		if (dataKeyCacheSize > 0) {
+			dataKeys = new LinkedHashMap<String, SecretKey>(16, 0.75f, true) {
+				private static final long serialVersionUID = -2287150381834317316L;
+
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<String, SecretKey> eldest) {
+					return size() > dataKeyCacheSize;
+				}
+			};
+		} else {
+			dataKeys = null;
+		}
+
+	}
+
+	/**
+	 * Gets the provider which wraps and unwraps the data keys.
+	 * 
+	 * @return
+	 */
+	public EncryptionProvider getKeyEncryptionProvider() {
+		return keyEncryptionProvider;
+	}
+
+	/**
+	 * @see net.theblackchamber.crypto.providers.EncryptionProvider#encrypt(java.lang.String)
+	 */
+	@Override
+	public String encrypt(String clearText) throws MissingParameterException {
+
+		if (StringUtils.isBlank(clearText)) {
+			throw new MissingParameterException("Missing parameter: clearText");
+		}
+
+		return Codecs.toHex(encrypt(toBytes(clearText)));
+
+	}
+
+	/**
+	 * @see net.theblackchamber.crypto.providers.EncryptionProvider#decrypt(java.lang.String)
+	 */
+	@Override
+	public String decrypt(String cipherText) throws MissingParameterException {
+
+		if (StringUtils.isBlank(cipherText)) {
+			throw new MissingParameterException("Missing parameter: cipherText");
+		}
+
+		byte[] cipherBytes;
+		try {
+			cipherBytes = Codecs.fromHex(cipherText);
+		} catch (RuntimeException e) {
+			return keyEncryptionProvider.decrypt(cipherText);
+		}
+		if (!isEnvelope(cipherBytes)) {
+			return keyEncryptionProvider.decrypt(cipherText);
+		}
+
+		byte[] clearBytes;
+		try {
+			clearBytes = decryptEnvelope(cipherBytes);
+		} catch (EncryptionOperationNotPossibleException e) {
+			if (!hasValidLength(keyEncryptionProvider.getAlgorithm(), cipherBytes.length)) {
+				throw e;
+			}
+			try {
+				return keyEncryptionProvider.decrypt(cipherText);
+			} catch (EncryptionOperationNotPossibleException e2) {
+				throw e;
+			}
+		}
+
+		try {
+			return new String(clearBytes, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new EncryptionOperationNotPossibleException(e);
+		}
+
+	}
+
+	/**
+	 * @see net.theblackchamber.crypto.providers.EncryptionProvider#encrypt(byte[])
+	 */
+	@Override
+	public byte[] encrypt(byte[] clearBytes) throws MissingParameterException {
+
+		if (clearBytes == null || clearBytes.length == 0) {
+			throw new MissingParameterException("Missing parameter: clearBytes");
+		}
+
+		byte[] dataKey = new byte[DATA_KEY_LENGTH];
+		RandomSource.nextBytes(dataKey);
+		byte[] wrappedKey = keyEncryptionProvider.encrypt(dataKey);
+		if (wrappedKey.length > 0xFFFF) {
+			throw new EncryptionOperationNotPossibleException();
+		}
+
+		byte[] iv = new byte[IV_LENGTH];
+		RandomSource.nextBytes(iv);
+
+		byte[] cipherBytes = gcm(Cipher.ENCRYPT_MODE,
+				new SecretKeySpec(dataKey, "AES"), iv, clearBytes, 0,
+				clearBytes.length);
+		Arrays.fill(dataKey, (byte) 0);
+
+		byte[] result = new byte[PREFIX_LENGTH + wrappedKey.length + IV_LENGTH
+				+ cipherBytes.length];
+		writePrefix(result, wrappedKey.length);
+		System.arraycopy(wrappedKey, 0, result, PREFIX_LENGTH,
+				wrappedKey.length);
+		System.arraycopy(iv, 0, result, PREFIX_LENGTH + wrappedKey.length,
+				IV_LENGTH);
+		System.arraycopy(cipherBytes, 0, result, PREFIX_LENGTH
+				+ wrappedKey.length + IV_LENGTH, cipherBytes.length);
+		return result;
+
+	}
+
+	/**
+	 * @see net.theblackchamber.crypto.providers.EncryptionProvider#decrypt(byte[])
+	 */
+	@Override
+	public byte[] decrypt(byte[] cipherBytes) throws MissingParameterException {
+
+		if (cipherBytes == null || cipherBytes.length == 0) {
+			throw new MissingParameterException("Missing parameter: cipherBytes");
+		}
+		if (!isEnvelope(cipherBytes)) {
+			return keyEncryptionProvider.decrypt(cipherBytes);
+		}
+
+		try {
+			return decryptEnvelope(cipherBytes);
+		} catch (EncryptionOperationNotPossibleException e) {
+			if (!hasValidLength(keyEncryptionProvider.getAlgorithm(), cipherBytes.length)) {
+				throw e;
+			}
+			try {
+				return keyEncryptionProvider.decrypt(cipherBytes);
+			} catch (EncryptionOperationNotPossibleException e2) {
+				throw e;
+			}
+		}
+
+	}
+
+	/**
+	 * Decrypt a value with an envelope header.
+	 */
+	private byte[] decryptEnvelope(byte[] cipherBytes) throws MissingParameterException {
+
+		int wrappedLength = wrappedKeyLength(cipherBytes);
+		byte[] wrappedKey = Arrays.copyOfRange(cipherBytes, PREFIX_LENGTH,
+				PREFIX_LENGTH + wrappedLength);
+		int ivOffset = PREFIX_LENGTH + wrappedLength;
+		byte[] iv = Arrays.copyOfRange(cipherBytes, ivOffset, ivOffset
+				+ IV_LENGTH);
+
+		return gcm(Cipher.DECRYPT_MODE, unwrap(wrappedKey), iv, cipherBytes,
+				ivOffset + IV_LENGTH, cipherBytes.length - ivOffset
+						- IV_LENGTH);
+
+	}
+
+	/**
+	 * Re-wrap the data key of a value with a new key encryption provider, for
+	 * example after rotating the keystore key. The encrypted data is copied
+	 * unchanged.
+	 * 
+	 * @param cipherBytes
+	 *            Value encrypted by this provider.
+	 * @param newKeyEncryptionProvider
+	 *            Provider to wrap the data key with.
+	 * @return Value which can be decrypted by an envelope provider using the
+	 *         new key encryption provider.
+	 * @throws MissingParameterException
+	 * @throws EncryptionOperationNotPossibleException
+	 *             If the value is not an envelope or its data key could not be
+	 *             unwrapped.
+	 */
+	public byte[] rewrap(byte[] cipherBytes,
+			EncryptionProvider newKeyEncryptionProvider)
+			throws MissingParameterException {
+
+		if (cipherBytes == null || cipherBytes.length == 0) {
+			throw new MissingParameterException("Missing parameter: cipherBytes");
+		}
+		if (newKeyEncryptionProvider == null) {
+			throw new MissingParameterException(
+					"Missing parameter: newKeyEncryptionProvider");
+		}
+		if (!isEnvelope(cipherBytes)) {
+			throw new EncryptionOperationNotPossibleException();
+		}
+
+		int wrappedLength = wrappedKeyLength(cipherBytes);
+		byte[] dataKey = keyEncryptionProvider.decrypt(Arrays.copyOfRange(
+				cipherBytes, PREFIX_LENGTH, PREFIX_LENGTH + wrappedLength));
+		byte[] wrappedKey = newKeyEncryptionProvider.encrypt(dataKey);
+		Arrays.fill(dataKey, (byte) 0);
+		if (wrappedKey.length > 0xFFFF) {
+			throw new EncryptionOperationNotPossibleException();
+		}
+
+		int payloadOffset = PREFIX_LENGTH + wrappedLength;
+		int payloadLength = cipherBytes.length - payloadOffset;
+		byte[] result = new byte[PREFIX_LENGTH + wrappedKey.length
+				+ payloadLength];
+		writePrefix(result, wrappedKey.length);
+		System.arraycopy(wrappedKey, 0, result, PREFIX_LENGTH,
+				wrappedKey.length);
+		System.arraycopy(cipherBytes, payloadOffset, result, PREFIX_LENGTH
+				+ wrappedKey.length, payloadLength);
+		return result;
+
+	}
+
+	/**
+	 * HEX string version of {@link #rewrap(byte[], EncryptionProvider)}.
+	 * 
+	 * @param cipherText
+	 * @param newKeyEncryptionProvider
+	 * @return
+	 * @throws MissingParameterException
+	 */
+	public String rewrap(String cipherText,
+			EncryptionProvider newKeyEncryptionProvider)
+			throws MissingParameterException {
+
+		if (StringUtils.isBlank(cipherText)) {
+			throw new MissingParameterException("Missing parameter: cipherText");
+		}
+
+		byte[] cipherBytes;
+		try {
+			cipherBytes = Codecs.fromHex(cipherText);
+		} catch (RuntimeException e) {
+			throw new EncryptionOperationNotPossibleException(e);
+		}
+		return Codecs.toHex(rewrap(cipherBytes,
+				newKeyEncryptionProvider));
+
+	}
+
+	/**
+	 * Checks whether a value was produced by an envelope provider.
+	 * 
+	 * @param cipherBytes
+	 * @return
+	 */
+	public static boolean isEnvelope(byte[] cipherBytes) {
+		if (cipherBytes == null || cipherBytes.length < PREFIX_LENGTH
+				|| cipherBytes[0] != MAGIC[0] || cipherBytes[1] != MAGIC[1]
+				|| cipherBytes[2] != VERSION) {
+			return false;
+		}
+		int wrappedLength = wrappedKeyLength(cipherBytes);
+		return wrappedLength > 0
+				&& cipherBytes.length >= PREFIX_LENGTH + wrappedLength
+						+ IV_LENGTH + TAG_LENGTH_BITS / 8;
+	}
+
+	/**
+	 * @see net.theblackchamber.crypto.providers.EncryptionProvider#validateKey(java.security.Key)
+	 */
+	@Override
+	protected void validateKey(Key key) throws UnsupportedKeySizeException,
+			UnsupportedAlgorithmException {
+		// The key is fully validated by the key encryption provider.
+	}
+
+	/**
+	 * Unwrap a data key, using the cache if enabled.
+	 */
+	private SecretKey unwrap(byte[] wrappedKey) throws MissingParameterException {
+
+		String cacheKey = null;
+		if (dataKeys != null) {
+			cacheKey = Codecs.toHex(wrappedKey);
+			synchronized (dataKeys) {
+				SecretKey cached = dataKeys.get(cacheKey);
+				if (cached != null) {
+					return cached;
+				}
+			}
+		}
+
+		byte[] dataKey = keyEncryptionProvider.decrypt(wrappedKey);
+		if (dataKey.length != DATA_KEY_LENGTH) {
+			throw new EncryptionOperationNotPossibleException();
+		}
+		SecretKey key = new SecretKeySpec(dataKey, "AES");
+		Arrays.fill(dataKey, (byte) 0);
+
+		if (dataKeys != null) {
+			synchronized (dataKeys) {
+				dataKeys.put(cacheKey, key);
+			}
+		}
+		return key;
+
+	}
+
+	private byte[] gcm(int mode, SecretKey key, byte[] iv, byte[] input,
+			int offset, int length) {
+		try {
+			Cipher cipher = ciphers.get();
+			cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+			return cipher.doFinal(input, offset, length);
+		} catch (GeneralSecurityException e) {
+			throw new EncryptionOperationNotPossibleException();
+		}
+	}
+
+	private static void writePrefix(byte[] result, int wrappedLength) {
+		result[0] = MAGIC[0];
+		result[1] = MAGIC[1];
+		result[2] = (byte) VERSION;
+		result[3] = (byte) (wrappedLength >>> 8);
+		result[4] = (byte) wrappedLength;
+	}
+
+	private static int wrappedKeyLength(byte[] cipherBytes) {
+		return ((cipherBytes[3] & 0xFF) << 8) | (cipherBytes[4] & 0xFF);
+	}
+
+	private static byte[] toBytes(String clearText) {
+		try {
+			return clearText.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new EncryptionOperationNotPossibleException(e);
+		}
+	}
+
+	/**
+	 * Find the key before the provider is constructed.
+	 */
+	private static Key getKey(EncryptionProvider keyEncryptionProvider)
+			throws MissingParameterException {
+		if (keyEncryptionProvider == null) {
+			throw new MissingParameterException(
+					"Missing parameter: keyEncryptionProvider");
+		}
+		return keyEncryptionProvider.getKey();
+	}
+
+}
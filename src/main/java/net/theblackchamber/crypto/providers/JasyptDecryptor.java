@@ -0,0 +1,312 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.theblackchamber.crypto.constants.SupportedEncryptionAlgorithms;
+import net.theblackchamber.crypto.exceptions.MissingParameterException;
+import net.theblackchamber.crypto.model.OffHeapSecret;
+import net.theblackchamber.crypto.util.Codecs;
+
+import org.apache.commons.lang3.StringUtils;
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.PBEParametersGenerator;
+import org.bouncycastle.crypto.digests.SHA1Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.generators.PKCS12ParametersGenerator;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+
+/**
+ * Decryptor for values encrypted by an {@link EncryptionProvider} (jasypt's
+ * salt + ciphertext format, HEX encoded for strings) which does not go
+ * through jasypt.<br>
+ * The PKCS12 key derivation the BouncyCastle PBE algorithms use is done
+ * directly and the data is then decrypted with a per thread JCE AES or
+ * DESede CBC {@link Cipher}. Values are usually read many times, so
+ * derived keys can be cached per salt (a bounded, least recently used
+ * cache) which skips the key derivation for repeat reads. Existing data
+ * does not need to be re-encrypted.<br>
+ * The PBE password derived from the key is kept in an {@link OffHeapSecret}
+ * and only copied onto the heap, then wiped, while a key is derived.<br>
+ * Usage: <code>
+ * JasyptDecryptor decryptor = new JasyptDecryptor(EncryptionProviderFactory.getProvider(key), 1000);
+ * String clearText = decryptor.decrypt(cipherText);
+ * </code>
+ * 
+ * @author sminogue
+ * 
+ */
+public class JasyptDecryptor {
+
+	/**
+	 * Key obtention iterations used by {@link EncryptionProvider}.
+	 */
+	private static final int ITERATIONS = 10;
+
+	private final SupportedEncryptionAlgorithms algorithm;
+	private final OffHeapSecret password;
+	private final String cipherAlgorithm;
+	private final String keyAlgorithm;
+	private final int keySizeBits;
+	private final int blockSize;
+	private final Map<String, DerivedKey> derivedKeys;
+
+	private final ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>() {
+		@Override
+		protected Cipher initialValue() {
+			try {
+				return CryptoProviders.getCipher(cipherAlgorithm);
+			} catch (GeneralSecurityException e) {
+				throw new EncryptionOperationNotPossibleException(e);
+			}
+		}
+	};
+
+	/**
+	 * Constructor which decrypts values encrypted by the given provider.
+	 * 
+	 * @param provider
+	 *            Provider whose key and algorithm are used.
+	 * @param cacheSize
+	 *            Maximum number of derived keys to cache, or zero to not
+	 *            cache.
+	 */
+	public JasyptDecryptor(EncryptionProvider provider, int cacheSize) {
+		this(provider.getKey(), provider.getAlgorithm(), cacheSize);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param key
+	 *            Key the values were encrypted with.
+	 * @param algorithm
+	 *            Algorithm the values were encrypted with.
+	 * @param cacheSize
+	 *            Maximum number of derived keys to cache, or zero to not
+	 *            cache.
+	 */
+	public JasyptDecryptor(Key key, SupportedEncryptionAlgorithms algorithm, final int cacheSize) {
+
+		if (key == null || algorithm == null) {
+			throw new IllegalArgumentException("Key and algorithm must not be null");
+		}
+		if (cacheSize < 0) {
+			throw new IllegalArgumentException("Cache size must not be negative");
+		}
+
+		this.algorithm = algorithm;
+		char[] chars = EncryptionProvider.password(key);
+		try {
+			// Wiped by the constructor.
+			this.password = new OffHeapSecret(PBEParametersGenerator.PKCS12PasswordToBytes(chars));
+		} finally {
+			Arrays.fill(chars, '\0');
+		}
+
+		switch (algorithm) {
+		case DES:
+			cipherAlgorithm = "DESede/CBC/PKCS5Padding";
+			keyAlgorithm = "DESede";
+			keySizeBits = 192;
+			blockSize = 8;
+			break;
+		case AES128:
+			cipherAlgorithm = "AES/CBC/PKCS5Padding";
+			keyAlgorithm = "AES";
+			keySizeBits = 128;
+			blockSize = 16;
+			break;
+		case AES192:
+			cipherAlgorithm = "AES/CBC/PKCS5Padding";
+			keyAlgorithm = "AES";
+			keySizeBits = 192;
+			blockSize = 16;
+			break;
+		case AES256:
+			cipherAlgorithm = "AES/CBC/PKCS5Padding";
+			keyAlgorithm = "AES";
+			keySizeBits = 256;
+			blockSize = 16;
+			break;
+		default:
+			throw new IllegalArgumentException("Algorithm [" + algorithm
+					+ "] is not a jasypt PBE algorithm");
+		}
+
+		if (cacheSize > 0) {
+			derivedKeys = new LinkedHashMap<String, DerivedKey>(16, 0.75f, true) {
+				private static final long serialVersionUID = 2749186430123485570L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, DerivedKey> eldest) {
+					return size() > cacheSize;
+				}
+			};
+		} else {
+			derivedKeys = null;
+		}
+
+	}
+
+	/**
+	 * @return Algorithm values are decrypted with.
+	 */
+	public SupportedEncryptionAlgorithms getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * Method which will decrypt a HEX encoded string, as returned by
+	 * {@link EncryptionProvider#encrypt(String)}.
+	 * 
+	 * @param cipherText
+	 * @return Decrypted text.
+	 * @throws MissingParameterException
+	 * @throws EncryptionOperationNotPossibleException
+	 *             If the value could not be decrypted.
+	 */
+	public String decrypt(String cipherText) throws MissingParameterException {
+
+		if (StringUtils.isBlank(cipherText)) {
+			throw new MissingParameterException("Missing parameter: cipherText");
+		}
+
+		byte[] cipherBytes;
+		try {
+			cipherBytes = Codecs.fromHex(cipherText);
+		} catch (RuntimeException e) {
+			throw new EncryptionOperationNotPossibleException(e);
+		}
+		try {
+			return new String(decrypt(cipherBytes), "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new EncryptionOperationNotPossibleException(e);
+		}
+
+	}
+
+	/**
+	 * Method which will decrypt an array of bytes, as returned by
+	 * {@link EncryptionProvider#encrypt(byte[])}.
+	 * 
+	 * @param cipherBytes
+	 * @return Decrypted bytes.
+	 * @throws MissingParameterException
+	 * @throws EncryptionOperationNotPossibleException
+	 *             If the value could not be decrypted.
+	 */
+	public byte[] decrypt(byte[] cipherBytes) throws MissingParameterException {
+
+		if (cipherBytes == null || cipherBytes.length == 0) {
+			throw new MissingParameterException("Missing parameter: cipherBytes");
+		}
+		if (cipherBytes.length <= blockSize) {
+			throw new EncryptionOperationNotPossibleException();
+		}
+
+		DerivedKey derivedKey = getDerivedKey(Arrays.copyOf(cipherBytes, blockSize));
+		try {
+			Cipher cipher = ciphers.get();
+			cipher.init(Cipher.DECRYPT_MODE, derivedKey.key, derivedKey.iv);
+			return cipher.doFinal(cipherBytes, blockSize, cipherBytes.length - blockSize);
+		} catch (GeneralSecurityException e) {
+			// Same exception (and no detail) as jasypt.
+			throw new EncryptionOperationNotPossibleException();
+		}
+
+	}
+
+	/**
+	 * Derive (or fetch from the cache) the key and IV for a salt.
+	 */
+	private DerivedKey getDerivedKey(byte[] salt) {
+
+		String cacheKey = null;
+		if (derivedKeys != null) {
+			cacheKey = Codecs.toHex(salt);
+			synchronized (derivedKeys) {
+				DerivedKey cached = derivedKeys.get(cacheKey);
+				if (cached != null) {
+					return cached;
+				}
+			}
+		}
+
+		Digest digest = (algorithm == SupportedEncryptionAlgorithms.DES) ? new SHA1Digest() : new SHA256Digest();
+		PKCS12ParametersGenerator generator = new PKCS12ParametersGenerator(digest);
+		byte[] passwordBytes = password.getBytes();
+		ParametersWithIV parameters;
+		try {
+			generator.init(passwordBytes, salt, ITERATIONS);
+			parameters = (ParametersWithIV) generator.generateDerivedParameters(keySizeBits, blockSize * 8);
+		} finally {
+			Arrays.fill(passwordBytes, (byte) 0);
+		}
+		byte[] keyBytes = ((KeyParameter) parameters.getParameters()).getKey();
+		DerivedKey derivedKey;
+		try {
+			derivedKey = new DerivedKey(new SecretKeySpec(keyBytes, keyAlgorithm), new IvParameterSpec(
+					parameters.getIV()));
+		} finally {
+			Arrays.fill(keyBytes, (byte) 0);
+		}
+
+		if (derivedKeys != null) {
+			synchronized (derivedKeys) {
+				derivedKeys.put(cacheKey, derivedKey);
+			}
+		}
+		return derivedKey;
+
+	}
+
+	/**
+	 * Key and IV derived from the password and a salt.
+	 */
+	private static class DerivedKey {
+
+		final SecretKeySpec key;
+		final IvParameterSpec iv;
+
+		DerivedKey(SecretKeySpec key, IvParameterSpec iv) {
+			this.key = key;
+			this.iv = iv;
+		}
+
+	}
+
+}
@@ -0,0 +1,300 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers;
+
+import java.security.Key;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import net.theblackchamber.crypto.constants.SupportedKeyGenAlgorithms;
+import net.theblackchamber.crypto.exceptions.MissingParameterException;
+import net.theblackchamber.crypto.exceptions.RuntimeCryptoException;
+import net.theblackchamber.crypto.exceptions.UnsupportedAlgorithmException;
+import net.theblackchamber.crypto.exceptions.UnsupportedKeySizeException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+
+/**
+ * Implementation of {@link EncryptionProvider} which holds several keys, each
+ * identified by a key id (usually its keystore entry name). Values are always
+ * encrypted with the primary key and prefixed with a {@link CiphertextHeader}
+ * naming that key, so decryption goes straight to the key which produced the
+ * ciphertext. This allows data encrypted under old and new keys to be read
+ * side by side while a key is being rotated.<br>
+ * Ciphertext without a header, as produced by the single key providers, is
+ * decrypted with the primary key. It can start with bytes which look like a
+ * header, so a value which fails to decrypt using its header is also tried
+ * with the primary key.<br>
+ * Usage: <code>
+ * Map&lt;String, SecretKey&gt; keys = new HashMap&lt;String, SecretKey&gt;();
+ * keys.put("aes-key", KeystoreUtils.getSecretKey(keyfile, "aes-key", "TEST"));
+ * keys.put("aes-key-2", KeystoreUtils.getSecretKey(keyfile, "aes-key-2", "TEST"));
+ * EncryptionProvider provider = new KeyringEncryptionProvider("aes-key-2", keys);
+ * </code>
+ * 
+ * @author sminogue
+ * 
+ */
+public class KeyringEncryptionProvider extends EncryptionProvider {
+
+	private final String primaryKeyId;
+
+	private final EncryptionProvider primaryProvider;
+
+	private final CiphertextHeader primaryHeader;
+
+	private final Map<String, EncryptionProvider> providers;
+
+	/**
+	 * Constructor to create a new keyring provider.
+	 * 
+	 * @param primaryKeyId
+	 *            Id of the key used to encrypt new values.
+	 * @param keys
+	 *            Keys available for decryption mapped by key id. Must contain
+	 *            the primary key.
+	 * @throws MissingParameterException
+	 *             If the primary key is not in the keys or a key id is blank
+	 *             or too long.
+	 * @throws UnsupportedKeySizeException
+	 * @throws UnsupportedAlgorithmException
+	 */
+	public KeyringEncryptionProvider(final String primaryKeyId,
+			final Map<String, ? extends Key> keys)
+			throws MissingParameterException, UnsupportedKeySizeException,
+			UnsupportedAlgorithmException {
+		super(getPrimaryKey(primaryKeyId, keys));
+
+		Map<String, EncryptionProvider> keyProviders = new HashMap<String, EncryptionProvider>();
+		for (Map.Entry<String, ? extends Key> entry : keys.entrySet()) {
+			EncryptionProvider provider = EncryptionProviderFactory
+					.getProvider(entry.getValue());
+			// Validates the key id can be placed in a header.
+			new CiphertextHeader(provider.getAlgorithm(), entry.getKey());
+			keyProviders.put(entry.getKey(), provider);
+		}
+
+		this.primaryKeyId = primaryKeyId;
+		this.providers = Collections.unmodifiableMap(keyProviders);
+		this.primaryProvider = providers.get(primaryKeyId);
+		this.algorithm = primaryProvider.getAlgorithm();
+		this.primaryHeader = new CiphertextHeader(algorithm, primaryKeyId);
+
+	}
+
+	/**
+	 * Gets the id of the key used to encrypt new values.
+	 * 
+	 * @return
+	 */
+	public String getPrimaryKeyId() {
+		return primaryKeyId;
+	}
+
+	/**
+	 * Gets the ids of all keys in the keyring.
+	 * 
+	 * @return
+	 */
+	public Set<String> getKeyIds() {
+		return providers.keySet();
+	}
+
+	/**
+	 * Gets the id of the key which produced a string ciphertext.
+	 * 
+	 * @param cipherText
+	 * @return Key id or null if the ciphertext has no header.
+	 */
+	public static String getKeyId(String cipherText) {
+		CiphertextHeader header = CiphertextHeader.parse(cipherText);
+		return header == null ? null : header.getKeyId();
+	}
+
+	/**
+	 * @see net.theblackchamber.crypto.providers.EncryptionProvider#encrypt(java.lang.String)
+	 */
+	@Override
+	public String encrypt(String clearText) throws MissingParameterException {
+		return primaryHeader.toHex() + primaryProvider.encrypt(clearText);
+	}
+
+	/**
+	 * @see net.theblackchamber.crypto.providers.EncryptionProvider#decrypt(java.lang.String)
+	 * @throws RuntimeCryptoException
+	 *             If the key named in the header is not in the keyring.
+	 */
+	@Override
+	public String decrypt(String cipherText) throws MissingParameterException {
+
+		if (StringUtils.isBlank(cipherText)) {
+			throw new MissingParameterException("Missing parameter: cipherText");
+		}
+
+		CiphertextHeader header = CiphertextHeader.parse(cipherText);
+		if (header == null) {
+			return primaryProvider.decrypt(cipherText);
+		}
+
+		try {
+			return getProvider(header).decrypt(
+					cipherText.substring(header.getLength() * 2));
+		} catch (RuntimeCryptoException e) {
+			return decryptWithoutHeader(cipherText, e);
+		} catch (EncryptionOperationNotPossibleException e) {
+			return decryptWithoutHeader(cipherText, e);
+		}
+
+	}
+
+	/**
+	 * @see net.theblackchamber.crypto.providers.EncryptionProvider#encrypt(byte[])
+	 */
+	@Override
+	public byte[] encrypt(byte[] clearBytes) throws MissingParameterException {
+
+		byte[] cipherBytes = primaryProvider.encrypt(clearBytes);
+
+		byte[] headerBytes = primaryHeader.toBytes();
+		byte[] result = new byte[headerBytes.length + cipherBytes.length];
+		System.arraycopy(headerBytes, 0, result, 0, headerBytes.length);
+		System.arraycopy(cipherBytes, 0, result, headerBytes.length,
+				cipherBytes.length);
+		return result;
+
+	}
+
+	/**
+	 * @see net.theblackchamber.crypto.providers.EncryptionProvider#decrypt(byte[])
+	 * @throws RuntimeCryptoException
+	 *             If the key named in the header is not in the keyring.
+	 */
+	@Override
+	public byte[] decrypt(byte[] cipherBytes) throws MissingParameterException {
+
+		if (cipherBytes == null || cipherBytes.length == 0) {
+			throw new MissingParameterException("Missing parameter: cipherBytes");
+		}
+
+		CiphertextHeader header = CiphertextHeader.parse(cipherBytes);
+		if (header == null) {
+			return primaryProvider.decrypt(cipherBytes);
+		}
+
+		byte[] payload = new byte[cipherBytes.length - header.getLength()];
+		System.arraycopy(cipherBytes, header.getLength(), payload, 0,
+				payload.length);
+		try {
+			return getProvider(header).decrypt(payload);
+		} catch (RuntimeCryptoException e) {
+			return decryptWithoutHeader(cipherBytes, e);
+		} catch (EncryptionOperationNotPossibleException e) {
+			return decryptWithoutHeader(cipherBytes, e);
+		}
+
+	}
+
+	/**
+	 * A value without a header can start with bytes which look like one.
+	 * When a value can not be decrypted using its header, try it as a value
+	 * of the primary key without a header, otherwise report the original
+	 * error.
+	 */
+	private String decryptWithoutHeader(String cipherText,
+			RuntimeException error) throws MissingParameterException {
+		if (cipherText.length() % 2 != 0
+				|| !hasValidLength(primaryProvider.getAlgorithm(),
+						cipherText.length() / 2)) {
+			throw error;
+		}
+		try {
+			return primaryProvider.decrypt(cipherText);
+		} catch (EncryptionOperationNotPossibleException e) {
+			throw error;
+		}
+	}
+
+	private byte[] decryptWithoutHeader(byte[] cipherBytes,
+			RuntimeException error) throws MissingParameterException {
+		if (!hasValidLength(primaryProvider.getAlgorithm(), cipherBytes.length)) {
+			throw error;
+		}
+		try {
+			return primaryProvider.decrypt(cipherBytes);
+		} catch (EncryptionOperationNotPossibleException e) {
+			throw error;
+		}
+	}
+
+	/**
+	 * @see net.theblackchamber.crypto.providers.EncryptionProvider#validateKey(java.security.Key)
+	 */
+	@Override
+	protected void validateKey(Key key) throws UnsupportedKeySizeException,
+			UnsupportedAlgorithmException {
+		// Each key is fully validated by its own provider.
+		SupportedKeyGenAlgorithms.getAlgorithm(key.getAlgorithm());
+	}
+
+	/**
+	 * Look up the provider for the key named in a header.
+	 */
+	private EncryptionProvider getProvider(CiphertextHeader header) {
+
+		EncryptionProvider provider = providers.get(header.getKeyId());
+		if (provider == null) {
+			throw new RuntimeCryptoException("Key [" + header.getKeyId()
+					+ "] not found in keyring.");
+		}
+		if (provider.getAlgorithm() != header.getAlgorithm()) {
+			throw new RuntimeCryptoException("Key [" + header.getKeyId()
+					+ "] does not use algorithm [" + header.getAlgorithm()
+					+ "].");
+		}
+		return provider;
+
+	}
+
+	/**
+	 * Find the primary key before the provider is constructed.
+	 */
+	private static Key getPrimaryKey(String primaryKeyId,
+			Map<String, ? extends Key> keys) throws MissingParameterException {
+
+		if (StringUtils.isEmpty(primaryKeyId)) {
+			throw new MissingParameterException(
+					"Missing parameter: primaryKeyId");
+		}
+		if (keys == null || keys.get(primaryKeyId) == null) {
+			throw new MissingParameterException("Primary key ["
+					+ primaryKeyId + "] not found in keys.");
+		}
+		return keys.get(primaryKeyId);
+
+	}
+
+}
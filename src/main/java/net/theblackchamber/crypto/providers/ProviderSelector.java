@@ -0,0 +1,644 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers;
+
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.security.Security;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.theblackchamber.crypto.util.Codecs;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Chooses the JCA provider for an algorithm by measurement rather than by
+ * name.<br>
+ * Every installed provider, and the shared BouncyCastle provider, which
+ * implements the algorithm is self tested and then timed for a short probe.
+ * A candidate passes the self test if it reproduces a published known answer
+ * for the algorithm (and, for a cipher, decrypts it back). Algorithms with no
+ * built in known answer can be selected by passing one. The fastest
+ * candidate which passes is bound in {@link CryptoProviders}, so the
+ * library's ciphers and digests, including digest providers which already
+ * exist, use it from then on. The measurements are kept as a report of what
+ * was chosen and why.<br>
+ * The probe takes a few hundred milliseconds per algorithm, so it is meant to
+ * be run once at startup, for example:
+ * 
+ * <pre>
+ * List&lt;ProviderSelector.Selection&gt; selections = new ProviderSelector().selectDefaults();
+ * log.info(ProviderSelector.report(selections));
+ * </pre>
+ * 
+ * The jasypt PBE algorithms are only implemented by BouncyCastle, so there is
+ * nothing to choose between for them and they are not probed.
+ * 
+ * @author sminogue
+ * 
+ */
+public class ProviderSelector {
+
+	/**
+	 * Cipher transformations probed by {@link #selectDefaults()}.
+	 */
+	private static final String[] DEFAULT_CIPHERS = { "AES/CBC/PKCS5Padding", "AES/GCM/NoPadding",
+			"DESede/CBC/PKCS5Padding", "ChaCha20-Poly1305" };
+
+	/**
+	 * Digest algorithms probed by {@link #selectDefaults()}.
+	 */
+	private static final String[] DEFAULT_DIGESTS = { "SHA-256", "SHA-512" };
+
+	/**
+	 * Known answers of the default algorithms, keyed by upper case
+	 * transformation or standard digest name.
+	 */
+	private static final Map<String, KnownAnswer> KNOWN_ANSWERS = new HashMap<String, KnownAnswer>();
+
+	static {
+		// NIST SP 800-38A F.2.5, followed by the padding block.
+		KNOWN_ANSWERS.put("AES/CBC/PKCS5PADDING", new KnownAnswer(
+				Codecs.fromHex("603deb1015ca71be2b73aef0857d77811f352c073b6108d72d9810a30914dff4"),
+				Codecs.fromHex("000102030405060708090a0b0c0d0e0f"), null,
+				Codecs.fromHex("6bc1bee22e409f96e93d7e117393172aae2d8a571e03ac9c9eb76fac45af8e51"
+						+ "30c81c46a35ce411e5fbc1191a0a52eff69f2445df4f9b17ad2b417be66c3710"),
+				Codecs.fromHex("f58c4c04d6e5f1ba779eabfb5f7bfbd69cfc4e967edb808d679f777bc6702c7d"
+						+ "39f23369a9d9bacfa530e26304231461b2eb05e2c39be9fcda6c19078c6a9d1b"
+						+ "3f461796d6b0d6b2e0c2a72b4d80e644")));
+		// GCM specification test case 14.
+		KNOWN_ANSWERS.put("AES/GCM/NOPADDING", new KnownAnswer(new byte[32], new byte[12], null, new byte[16],
+				Codecs.fromHex("cea7403d4d606b6e074ec5d3baf39d18d0d1c8a799996bf0265b98b5d48ab919")));
+		// NIST SP 800-67 example key and plain text, in CBC mode with a zero
+		// IV. The first block is the example's ECB result.
+		KNOWN_ANSWERS.put("DESEDE/CBC/PKCS5PADDING", new KnownAnswer(
+				Codecs.fromHex("0123456789abcdef23456789abcdef01456789abcdef0123"), new byte[8], null,
+				Codecs.fromHex("54686520717566636b2062726f776e20666f78206a756d70"),
+				Codecs.fromHex("a826fd8ce53b855f854b649a0a3903c970d563820afe8b35c45f55a7a0480ad8")));
+		// RFC 8439 section 2.8.2.
+		KNOWN_ANSWERS.put("CHACHA20-POLY1305", new KnownAnswer(
+				Codecs.fromHex("808182838485868788898a8b8c8d8e8f909192939495969798999a9b9c9d9e9f"),
+				Codecs.fromHex("070000004041424344454647"), Codecs.fromHex("50515253c0c1c2c3c4c5c6c7"),
+				Codecs.fromHex("4c616469657320616e642047656e746c656d656e206f662074686520636c6173"
+						+ "73206f66202739393a204966204920636f756c64206f6666657220796f75206f"
+						+ "6e6c79206f6e652074697020666f7220746865206675747572652c2073756e73"
+						+ "637265656e20776f756c642062652069742e"),
+				Codecs.fromHex("d31a8d34648e60db7b86afbc53ef7ec2a4aded51296e08fea9e2b5a736ee62d6"
+						+ "3dbea45e8ca9671282fafb69da92728b1a71de0a9e060b2905d6a5b67ecd3b36"
+						+ "92ddbd7f2d778b8c9803aee328091b58fab324e4fad675945585808b4831d7bc"
+						+ "3ff4def08e4b7a9de576d26586cec64b61161ae10b594f09e26a7e902ecbd060"
+						+ "0691")));
+		// FIPS 180-2 "abc" examples.
+		KNOWN_ANSWERS.put("SHA-256", new KnownAnswer(Codecs.fromHex("616263"),
+				Codecs.fromHex("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad")));
+		KNOWN_ANSWERS.put("SHA-512", new KnownAnswer(Codecs.fromHex("616263"),
+				Codecs.fromHex("ddaf35a193617abacc417349ae20413112e6fa4e89a97ea20a9eeee64b55d39a"
+						+ "2192992a274fc1a836ba3c23a3feebbd454d4423643ce80e2a9ac94fa54ca49f")));
+	}
+
+	private static final int PROBE_BUFFER_SIZE = 64 * 1024;
+
+	private final long probeMillis;
+
+	/**
+	 * Create a selector which times each candidate for 100ms.
+	 */
+	public ProviderSelector() {
+		this(100);
+	}
+
+	/**
+	 * @param probeMillis
+	 *            How long to time each candidate for, after an equally long
+	 *            warm up.
+	 */
+	public ProviderSelector(long probeMillis) {
+		if (probeMillis < 1) {
+			throw new IllegalArgumentException("probeMillis must be positive");
+		}
+		this.probeMillis = probeMillis;
+	}
+
+	/**
+	 * Probe and bind the default cipher transformations and digests. Those
+	 * which no provider implements (ChaCha20-Poly1305 before Java 11, for
+	 * example) are reported but nothing is bound for them.
+	 * 
+	 * @return One selection per algorithm.
+	 */
+	public List<Selection> selectDefaults() {
+
+		List<Selection> selections = new ArrayList<Selection>();
+		for (String cipher : DEFAULT_CIPHERS) {
+			selections.add(selectCipher(cipher));
+		}
+		for (String digest : DEFAULT_DIGESTS) {
+			selections.add(selectDigest(digest));
+		}
+		return selections;
+
+	}
+
+	/**
+	 * Probe the providers of a cipher transformation and bind the fastest one
+	 * which passes the built in known answer test. If there is none for the
+	 * transformation every candidate is rejected.
+	 * 
+	 * @param transformation
+	 *            Transformation as passed to
+	 *            {@link CryptoProviders#getCipher(String)}.
+	 * @return The selection.
+	 */
+	public Selection selectCipher(String transformation) {
+		return selectCipher(transformation, KNOWN_ANSWERS.get(transformation.toUpperCase(Locale.ENGLISH)));
+	}
+
+	/**
+	 * Probe the providers of a cipher transformation and bind the fastest one
+	 * which passes a known answer test.
+	 * 
+	 * @param transformation
+	 *            Transformation as passed to
+	 *            {@link CryptoProviders#getCipher(String)}.
+	 * @param knownAnswer
+	 *            Key, IV, additional data, clear text and the cipher text
+	 *            the transformation must produce from them.
+	 * @return The selection.
+	 */
+	public Selection selectCipher(String transformation, KnownAnswer knownAnswer) {
+
+		if (knownAnswer != null && knownAnswer.key == null) {
+			throw new IllegalArgumentException("Known answer has no key, it is for a digest");
+		}
+
+		String algorithm = StringUtils.substringBefore(transformation, "/");
+		String keyAlgorithm = StringUtils.substringBefore(algorithm, "-");
+
+		List<Candidate> candidates = new ArrayList<Candidate>();
+		for (Provider provider : candidates("Cipher", algorithm)) {
+
+			if (knownAnswer == null) {
+				candidates.add(new Candidate(provider, false, 0, "no known answer to test against"));
+				continue;
+			}
+
+			Cipher cipher;
+			try {
+				cipher = Cipher.getInstance(transformation, provider);
+			} catch (GeneralSecurityException e) {
+				candidates.add(new Candidate(provider, false, 0, "does not support " + transformation));
+				continue;
+			}
+
+			try {
+
+				Key key = new SecretKeySpec(knownAnswer.key, keyAlgorithm);
+				byte[] iv = knownAnswer.iv;
+				cipher.init(Cipher.ENCRYPT_MODE, key, parameters(transformation, iv));
+				if (knownAnswer.aad.length > 0) {
+					cipher.updateAAD(knownAnswer.aad);
+				}
+				if (!Arrays.equals(knownAnswer.expected, cipher.doFinal(knownAnswer.clear))) {
+					candidates.add(new Candidate(provider, false, 0, "known answer test failed"));
+					continue;
+				}
+
+				Cipher decrypt = Cipher.getInstance(transformation, provider);
+				decrypt.init(Cipher.DECRYPT_MODE, key, parameters(transformation, iv));
+				if (knownAnswer.aad.length > 0) {
+					decrypt.updateAAD(knownAnswer.aad);
+				}
+				if (!Arrays.equals(knownAnswer.clear, decrypt.doFinal(knownAnswer.expected))) {
+					candidates.add(new Candidate(provider, false, 0, "known answer did not decrypt"));
+					continue;
+				}
+
+				candidates.add(new Candidate(provider, true, probeCipher(cipher, transformation, key, iv), null));
+
+			} catch (GeneralSecurityException e) {
+				candidates.add(new Candidate(provider, false, 0, "self test failed: " + e.getMessage()));
+			}
+
+		}
+
+		return select("Cipher", transformation, candidates);
+
+	}
+
+	/**
+	 * Probe the providers of a digest algorithm and bind the fastest one which
+	 * passes the built in known answer test. If there is none for the
+	 * algorithm every candidate is rejected.
+	 * 
+	 * @param algorithm
+	 *            Algorithm name or alias.
+	 * @return The selection.
+	 */
+	public Selection selectDigest(String algorithm) {
+		String name = CryptoProviders.getAlgorithmName("MessageDigest", algorithm);
+		return selectDigest(algorithm, KNOWN_ANSWERS.get(name.toUpperCase(Locale.ENGLISH)));
+	}
+
+	/**
+	 * Probe the providers of a digest algorithm and bind the fastest one which
+	 * passes a known answer test.
+	 * 
+	 * @param algorithm
+	 *            Algorithm name or alias.
+	 * @param knownAnswer
+	 *            Message and the hash the algorithm must produce for it.
+	 * @return The selection.
+	 */
+	public Selection selectDigest(String algorithm, KnownAnswer knownAnswer) {
+
+		// The standard name, as a provider need not know every alias.
+		String name = CryptoProviders.getAlgorithmName("MessageDigest", algorithm);
+
+		List<Candidate> candidates = new ArrayList<Candidate>();
+		for (Provider provider : candidates("MessageDigest", name)) {
+
+			if (knownAnswer == null) {
+				candidates.add(new Candidate(provider, false, 0, "no known answer to test against"));
+				continue;
+			}
+
+			try {
+
+				MessageDigest digest = MessageDigest.getInstance(name, provider);
+				if (!Arrays.equals(knownAnswer.expected, digest.digest(knownAnswer.clear))) {
+					candidates.add(new Candidate(provider, false, 0, "known answer test failed"));
+					continue;
+				}
+
+				candidates.add(new Candidate(provider, true, probeDigest(digest), null));
+
+			} catch (GeneralSecurityException e) {
+				candidates.add(new Candidate(provider, false, 0, "self test failed: " + e.getMessage()));
+			}
+
+		}
+
+		return select("MessageDigest", algorithm, candidates);
+
+	}
+
+	/**
+	 * Format selections as a report, one line per algorithm.
+	 * 
+	 * @param selections
+	 * @return The report.
+	 */
+	public static String report(List<Selection> selections) {
+
+		StringBuilder report = new StringBuilder();
+		for (Selection selection : selections) {
+			if (report.length() > 0) {
+				report.append(System.getProperty("line.separator"));
+			}
+			report.append(selection);
+		}
+		return report.toString();
+
+	}
+
+	/**
+	 * Pick the fastest passing candidate and bind it.
+	 */
+	private Selection select(String type, String algorithm, List<Candidate> candidates) {
+
+		Candidate fastest = null;
+		for (Candidate candidate : candidates) {
+			if (candidate.isPassed() && (fastest == null || candidate.getThroughput() > fastest.getThroughput())) {
+				fastest = candidate;
+			}
+		}
+
+		Provider provider = null;
+		if (fastest != null) {
+			provider = fastest.getProvider();
+			CryptoProviders.bind(type, algorithm, provider);
+		}
+		return new Selection(type, algorithm, provider, candidates);
+
+	}
+
+	/**
+	 * @return The installed providers which implement the algorithm, followed
+	 *         by the shared BouncyCastle provider if it is not installed.
+	 */
+	private static List<Provider> candidates(String type, String algorithm) {
+
+		List<Provider> providers = new ArrayList<Provider>();
+		Provider bouncyCastle = CryptoProviders.getBouncyCastleProvider();
+		boolean bouncyCastleInstalled = false;
+		for (Provider installed : Security.getProviders()) {
+			if (installed.getService(type, algorithm) != null) {
+				providers.add(installed);
+			}
+			bouncyCastleInstalled |= bouncyCastle.getName().equals(installed.getName());
+		}
+		if (!bouncyCastleInstalled && bouncyCastle.getService(type, algorithm) != null) {
+			providers.add(bouncyCastle);
+		}
+		return providers;
+
+	}
+
+	/**
+	 * Time encryption of a probe buffer, changing the IV each time as some
+	 * providers refuse to reuse one. Returns MB per second.
+	 */
+	private double probeCipher(Cipher cipher, String transformation, Key key, byte[] iv)
+			throws GeneralSecurityException {
+
+		byte[] buffer = pattern(PROBE_BUFFER_SIZE, 11);
+		byte[] output = new byte[cipher.getOutputSize(PROBE_BUFFER_SIZE)];
+		byte[] probeIv = iv.clone();
+		int counter = 0;
+
+		long bytes = 0;
+		long start = 0;
+		boolean measuring = false;
+		long deadline = System.nanoTime() + probeMillis * 1000000L;
+		while (true) {
+			long now = System.nanoTime();
+			if (now >= deadline) {
+				if (measuring) {
+					return bytes * 1000.0 / (now - start);
+				}
+				measuring = true;
+				start = now;
+				deadline = now + probeMillis * 1000000L;
+			}
+			counter++;
+			probeIv[0] = (byte) counter;
+			probeIv[1] = (byte) (counter >>> 8);
+			probeIv[2] = (byte) (counter >>> 16);
+			probeIv[3] = (byte) (counter >>> 24);
+			cipher.init(Cipher.ENCRYPT_MODE, key, parameters(transformation, probeIv));
+			cipher.doFinal(buffer, 0, buffer.length, output, 0);
+			if (measuring) {
+				bytes += buffer.length;
+			}
+		}
+
+	}
+
+	/**
+	 * Time hashing of a probe buffer. Returns MB per second.
+	 */
+	private double probeDigest(MessageDigest digest) {
+
+		byte[] buffer = pattern(PROBE_BUFFER_SIZE, 11);
+
+		long bytes = 0;
+		long start = 0;
+		boolean measuring = false;
+		long deadline = System.nanoTime() + probeMillis * 1000000L;
+		while (true) {
+			long now = System.nanoTime();
+			if (now >= deadline) {
+				if (measuring) {
+					return bytes * 1000.0 / (now - start);
+				}
+				measuring = true;
+				start = now;
+				deadline = now + probeMillis * 1000000L;
+			}
+			digest.update(buffer);
+			digest.digest();
+			if (measuring) {
+				bytes += buffer.length;
+			}
+		}
+
+	}
+
+	private static AlgorithmParameterSpec parameters(String transformation, byte[] iv) {
+		if (transformation.toUpperCase(Locale.ENGLISH).contains("/GCM/")) {
+			return new GCMParameterSpec(128, iv);
+		}
+		return new IvParameterSpec(iv);
+	}
+
+	/**
+	 * @return Deterministic test bytes, so every candidate sees the same input.
+	 */
+	private static byte[] pattern(int length, int seed) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (byte) (i * 31 + seed);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Inputs and expected output of a known answer test.
+	 */
+	public static class KnownAnswer {
+
+		private final byte[] key;
+		private final byte[] iv;
+		private final byte[] aad;
+		private final byte[] clear;
+		private final byte[] expected;
+
+		/**
+		 * Known answer for a cipher.
+		 * 
+		 * @param key
+		 * @param iv
+		 *            IV or nonce.
+		 * @param aad
+		 *            Additional authenticated data for an AEAD cipher, or null.
+		 * @param clear
+		 * @param expected
+		 *            Cipher text, including any padding or tag.
+		 */
+		public KnownAnswer(byte[] key, byte[] iv, byte[] aad, byte[] clear, byte[] expected) {
+			if (key == null || iv == null || clear == null || expected == null) {
+				throw new IllegalArgumentException("Key, IV, clear text and expected output are required");
+			}
+			this.key = key.clone();
+			this.iv = iv.clone();
+			this.aad = aad == null ? new byte[0] : aad.clone();
+			this.clear = clear.clone();
+			this.expected = expected.clone();
+		}
+
+		/**
+		 * Known answer for a digest.
+		 * 
+		 * @param message
+		 * @param expected
+		 *            Hash of the message.
+		 */
+		public KnownAnswer(byte[] message, byte[] expected) {
+			if (message == null || expected == null) {
+				throw new IllegalArgumentException("Message and expected output are required");
+			}
+			this.key = null;
+			this.iv = null;
+			this.aad = new byte[0];
+			this.clear = message.clone();
+			this.expected = expected.clone();
+		}
+
+	}
+
+	/**
+	 * Outcome of probing the providers of one algorithm.
+	 */
+	public static class Selection {
+
+		private final String type;
+		private final String algorithm;
+		private final Provider provider;
+		private final List<Candidate> candidates;
+
+		Selection(String type, String algorithm, Provider provider, List<Candidate> candidates) {
+			this.type = type;
+			this.algorithm = algorithm;
+			this.provider = provider;
+			this.candidates = Collections.unmodifiableList(candidates);
+		}
+
+		/**
+		 * @return JCA service type, Cipher or MessageDigest.
+		 */
+		public String getType() {
+			return type;
+		}
+
+		/**
+		 * @return Algorithm or cipher transformation.
+		 */
+		public String getAlgorithm() {
+			return algorithm;
+		}
+
+		/**
+		 * @return The provider which was bound, or null if no candidate
+		 *         passed.
+		 */
+		public Provider getProvider() {
+			return provider;
+		}
+
+		/**
+		 * @return Every provider which was considered.
+		 */
+		public List<Candidate> getCandidates() {
+			return candidates;
+		}
+
+		@Override
+		public String toString() {
+
+			StringBuilder line = new StringBuilder();
+			line.append(type).append(' ').append(algorithm).append(": ");
+			line.append(provider == null ? "not available" : provider.getName() + " selected");
+			if (!candidates.isEmpty()) {
+				line.append(" (");
+				for (int i = 0; i < candidates.size(); i++) {
+					if (i > 0) {
+						line.append("; ");
+					}
+					line.append(candidates.get(i));
+				}
+				line.append(')');
+			}
+			return line.toString();
+
+		}
+
+	}
+
+	/**
+	 * Result of probing one provider.
+	 */
+	public static class Candidate {
+
+		private final Provider provider;
+		private final boolean passed;
+		private final double throughput;
+		private final String reason;
+
+		Candidate(Provider provider, boolean passed, double throughput, String reason) {
+			this.provider = provider;
+			this.passed = passed;
+			this.throughput = throughput;
+			this.reason = reason;
+		}
+
+		public Provider getProvider() {
+			return provider;
+		}
+
+		/**
+		 * @return True if the provider passed the self test.
+		 */
+		public boolean isPassed() {
+			return passed;
+		}
+
+		/**
+		 * @return Measured throughput in MB per second, 0 if not measured.
+		 */
+		public double getThroughput() {
+			return throughput;
+		}
+
+		/**
+		 * @return Why the provider was rejected, null if it passed.
+		 */
+		public String getReason() {
+			return reason;
+		}
+
+		@Override
+		public String toString() {
+			if (passed) {
+				return String.format(Locale.ENGLISH, "%s %.1f MB/s", provider.getName(), throughput);
+			}
+			return provider.getName() + " rejected, " + reason;
+		}
+
+	}
+
+}
@@ -0,0 +1,278 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers;
+
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.prng.EntropySource;
+import org.bouncycastle.crypto.prng.EntropySourceProvider;
+import org.bouncycastle.crypto.prng.SP800SecureRandomBuilder;
+import org.jasypt.salt.SaltGenerator;
+
+/**
+ * Source of the random bytes used for salts, IVs, nonces and keys.<br>
+ * Each thread gets its own generator, so concurrent encryption does not
+ * contend on one shared SecureRandom. By default it is a SHA-256 Hash DRBG
+ * (NIST SP 800-90A) which is seeded, and reseeded, from the operating
+ * system's non-blocking source (NativePRNGNonBlocking where available), so
+ * a cold start never waits for entropy.<br>
+ * The generator can be replaced with {@link #setFactory(Factory)}, for
+ * example to use a hardware module. Optionally each thread can prefetch
+ * random bytes in batches, see {@link #setPrefetchSize(int)}, which makes
+ * the many small requests for salts and nonces cheaper.
+ * 
+ * @author sminogue
+ * 
+ */
+public final class RandomSource {
+
+	/**
+	 * Creates the generator for a thread.
+	 */
+	public interface Factory {
+
+		/**
+		 * @return A new generator, only used by the calling thread.
+		 */
+		SecureRandom newSecureRandom();
+
+	}
+
+	/**
+	 * Creates a SHA-256 Hash DRBG seeded from the non-blocking seed source.
+	 */
+	public static final Factory DEFAULT_FACTORY = new Factory() {
+		@Override
+		public SecureRandom newSecureRandom() {
+
+			byte[] nonce = new byte[16];
+			SeedHolder.SOURCE.nextBytes(nonce);
+
+			// Personalize with the thread so generators never share a state.
+			byte[] personalization = ByteBuffer.allocate(16).putLong(Thread.currentThread().getId())
+					.putLong(System.nanoTime()).array();
+
+			return new SP800SecureRandomBuilder(SEED_ENTROPY).setPersonalizationString(personalization)
+					.buildHash(new SHA256Digest(), nonce, false);
+
+		}
+	};
+
+	private static final EntropySourceProvider SEED_ENTROPY = new EntropySourceProvider() {
+		@Override
+		public EntropySource get(final int bitsRequired) {
+			return new EntropySource() {
+
+				@Override
+				public boolean isPredictionResistant() {
+					return false;
+				}
+
+				@Override
+				public byte[] getEntropy() {
+					byte[] entropy = new byte[(bitsRequired + 7) / 8];
+					SeedHolder.SOURCE.nextBytes(entropy);
+					return entropy;
+				}
+
+				@Override
+				public int entropySize() {
+					return bitsRequired;
+				}
+
+			};
+		}
+	};
+
+	private static final SaltGenerator SALT_GENERATOR = new SaltGenerator() {
+
+		@Override
+		public byte[] generateSalt(int lengthBytes) {
+			return nextBytes(lengthBytes);
+		}
+
+		@Override
+		public boolean includePlainSaltInEncryptionResults() {
+			return true;
+		}
+
+	};
+
+	private static final ThreadLocal<State> STATES = new ThreadLocal<State>();
+
+	/**
+	 * Incremented when the configuration changes, so threads replace their
+	 * generators.
+	 */
+	private static final AtomicInteger GENERATION = new AtomicInteger();
+
+	private static volatile Factory factory = DEFAULT_FACTORY;
+
+	private static volatile int prefetchSize = 0;
+
+	private RandomSource() {
+	}
+
+	/**
+	 * Get the calling thread's generator, for APIs which need a SecureRandom
+	 * such as KeyGenerator. It must not be handed to other threads.
+	 * 
+	 * @return The generator.
+	 */
+	public static SecureRandom getSecureRandom() {
+		return state().random;
+	}
+
+	/**
+	 * Fill an array with random bytes.
+	 * 
+	 * @param bytes
+	 */
+	public static void nextBytes(byte[] bytes) {
+		state().nextBytes(bytes);
+	}
+
+	/**
+	 * @param length
+	 * @return A new array of random bytes.
+	 */
+	public static byte[] nextBytes(int length) {
+		byte[] bytes = new byte[length];
+		state().nextBytes(bytes);
+		return bytes;
+	}
+
+	/**
+	 * @return A jasypt salt generator which uses this source.
+	 */
+	public static SaltGenerator getSaltGenerator() {
+		return SALT_GENERATOR;
+	}
+
+	/**
+	 * Replace the generator used by every thread. Threads create a new
+	 * generator on their next request.
+	 * 
+	 * @param newFactory
+	 */
+	public static void setFactory(Factory newFactory) {
+		if (newFactory == null) {
+			throw new IllegalArgumentException("factory is required");
+		}
+		factory = newFactory;
+		GENERATION.incrementAndGet();
+	}
+
+	/**
+	 * Set how many random bytes each thread generates at a time and serves
+	 * small requests from. 0, the default, disables prefetching.
+	 * 
+	 * @param size
+	 *            Size of each thread's batch in bytes.
+	 */
+	public static void setPrefetchSize(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("size must not be negative");
+		}
+		prefetchSize = size;
+		GENERATION.incrementAndGet();
+	}
+
+	/**
+	 * @return Size of each thread's prefetch batch in bytes, 0 if disabled.
+	 */
+	public static int getPrefetchSize() {
+		return prefetchSize;
+	}
+
+	private static State state() {
+		State state = STATES.get();
+		int generation = GENERATION.get();
+		if (state == null || state.generation != generation) {
+			state = new State(factory.newSecureRandom(), prefetchSize, generation);
+			STATES.set(state);
+		}
+		return state;
+	}
+
+	/**
+	 * A thread's generator and prefetched bytes.
+	 */
+	private static class State {
+
+		private final SecureRandom random;
+		private final byte[] batch;
+		private final int generation;
+		private int position;
+
+		State(SecureRandom random, int prefetchSize, int generation) {
+			this.random = random;
+			this.batch = prefetchSize > 0 ? new byte[prefetchSize] : null;
+			this.position = prefetchSize;
+			this.generation = generation;
+		}
+
+		void nextBytes(byte[] bytes) {
+
+			if (batch == null || bytes.length > batch.length) {
+				random.nextBytes(bytes);
+				return;
+			}
+
+			if (batch.length - position < bytes.length) {
+				random.nextBytes(batch);
+				position = 0;
+			}
+			System.arraycopy(batch, position, bytes, 0, bytes.length);
+			// Served bytes are not kept.
+			Arrays.fill(batch, position, position + bytes.length, (byte) 0);
+			position += bytes.length;
+
+		}
+
+	}
+
+	/**
+	 * Lazily initialized holder for the shared seed source.
+	 */
+	private static class SeedHolder {
+
+		static final SecureRandom SOURCE = createSource();
+
+		private static SecureRandom createSource() {
+			try {
+				return SecureRandom.getInstance("NativePRNGNonBlocking");
+			} catch (NoSuchAlgorithmException e) {
+				return new SecureRandom();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,314 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers;
+
+import java.io.File;
+import java.security.Key;
+import java.security.KeyStoreException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import net.theblackchamber.crypto.util.IndexedKeyStore;
+import net.theblackchamber.crypto.util.KeystoreUtils;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Hands out a ready {@link EncryptionProvider} for each tenant, where every
+ * tenant's data is encrypted with its own keystore entry.<br>
+ * Keys are loaded the first time a tenant is seen and the providers built
+ * for them are kept in a bounded least recently used cache, so switching
+ * tenant per request normally costs a cache lookup. When several threads ask
+ * for a tenant which is not cached, the key is loaded and the provider built
+ * once and shared by all of them.<br>
+ * Evicted tenants are simply loaded again when next needed. Call
+ * {@link #invalidate(String)} when a tenant's key is rotated. A load which
+ * was already running when a tenant was invalidated still returns to the
+ * threads which were waiting on it, but its provider is not cached and later
+ * requests load the key again.
+ * 
+ * @author sminogue
+ * 
+ */
+public class TenantKeyManager {
+
+	/**
+	 * Loads the key of a tenant.
+	 */
+	public interface KeyLoader {
+
+		/**
+		 * @param tenantId
+		 * @return The tenant's key, or null if the tenant has none.
+		 * @throws Exception
+		 *             If the key could not be loaded.
+		 */
+		Key load(String tenantId) throws Exception;
+
+	}
+
+	private final KeyLoader loader;
+	private final Map<String, EncryptionProvider> providers;
+	private final ConcurrentMap<String, FutureTask<EncryptionProvider>> loading = new ConcurrentHashMap<String, FutureTask<EncryptionProvider>>();
+
+	/**
+	 * Bumped by every invalidation. A load only caches its provider if no
+	 * invalidation happened while it ran.
+	 */
+	private long generation;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long loadFailures;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param loader
+	 *            Loads the key of a tenant which is not cached.
+	 * @param maxEntries
+	 *            Maximum number of cached providers.
+	 */
+	public TenantKeyManager(KeyLoader loader, final int maxEntries) {
+
+		if (loader == null) {
+			throw new IllegalArgumentException("Loader must not be null");
+		}
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("Cache size must be positive");
+		}
+
+		this.loader = loader;
+		this.providers = new LinkedHashMap<String, EncryptionProvider>(16, 0.75f, true) {
+			private static final long serialVersionUID = 2871653284310532475L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, EncryptionProvider> eldest) {
+				if (size() > maxEntries) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+
+	}
+
+	/**
+	 * Create a manager which reads each tenant's key from a JCEKS keystore,
+	 * using the tenant id as the entry name. Each load reads the whole
+	 * keystore, so large keystores should be converted to an
+	 * {@link IndexedKeyStore} and used with
+	 * {@link #forIndexedKeyStore(IndexedKeyStore, int)}.
+	 * 
+	 * @param keyStoreFile
+	 * @param keyStorePassword
+	 * @param maxEntries
+	 * @return The manager.
+	 */
+	public static TenantKeyManager forKeyStore(final File keyStoreFile, final String keyStorePassword,
+			int maxEntries) {
+		return new TenantKeyManager(new KeyLoader() {
+			@Override
+			public Key load(String tenantId) throws Exception {
+				return KeystoreUtils.getSecretKey(keyStoreFile, tenantId, keyStorePassword);
+			}
+		}, maxEntries);
+	}
+
+	/**
+	 * Create a manager which reads each tenant's key from an open
+	 * {@link IndexedKeyStore}, using the tenant id as the entry name.
+	 * 
+	 * @param keyStore
+	 * @param maxEntries
+	 * @return The manager.
+	 */
+	public static TenantKeyManager forIndexedKeyStore(final IndexedKeyStore keyStore, int maxEntries) {
+		return new TenantKeyManager(new KeyLoader() {
+			@Override
+			public Key load(String tenantId) throws Exception {
+				return keyStore.getSecretKey(tenantId);
+			}
+		}, maxEntries);
+	}
+
+	/**
+	 * Get the provider for a tenant, loading its key if it is not cached.
+	 * 
+	 * @param tenantId
+	 * @return The tenant's provider.
+	 * @throws KeyStoreException
+	 *             If the tenant has no key or it could not be loaded.
+	 */
+	public EncryptionProvider getProvider(final String tenantId) throws KeyStoreException {
+
+		if (StringUtils.isEmpty(tenantId)) {
+			throw new KeyStoreException("No tenant id provided.");
+		}
+
+		synchronized (this) {
+			EncryptionProvider provider = providers.get(tenantId);
+			if (provider != null) {
+				hits++;
+				return provider;
+			}
+		}
+
+		FutureTask<EncryptionProvider> task = new FutureTask<EncryptionProvider>(new Callable<EncryptionProvider>() {
+			@Override
+			public EncryptionProvider call() throws Exception {
+				return load(tenantId);
+			}
+		});
+		FutureTask<EncryptionProvider> running = loading.putIfAbsent(tenantId, task);
+		if (running == null) {
+			running = task;
+			try {
+				task.run();
+			} finally {
+				loading.remove(tenantId, task);
+			}
+		}
+
+		try {
+			return running.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof KeyStoreException) {
+				throw (KeyStoreException) e.getCause();
+			}
+			throw new KeyStoreException("Unable to load key for tenant [" + tenantId + "]", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new KeyStoreException("Interrupted loading key for tenant [" + tenantId + "]", e);
+		}
+
+	}
+
+	/**
+	 * Load a tenant's key and cache a provider for it. Runs once for all the
+	 * threads waiting on the tenant.
+	 */
+	private EncryptionProvider load(String tenantId) throws Exception {
+
+		long startGeneration;
+		synchronized (this) {
+			// Another load may have finished since the caller checked.
+			EncryptionProvider provider = providers.get(tenantId);
+			if (provider != null) {
+				hits++;
+				return provider;
+			}
+			misses++;
+			startGeneration = generation;
+		}
+
+		EncryptionProvider provider;
+		try {
+			Key key = loader.load(tenantId);
+			if (key == null) {
+				throw new KeyStoreException("No key for tenant [" + tenantId + "]");
+			}
+			provider = EncryptionProviderFactory.getProvider(key);
+		} catch (Exception e) {
+			synchronized (this) {
+				loadFailures++;
+			}
+			throw e;
+		}
+
+		synchronized (this) {
+			if (generation == startGeneration) {
+				providers.put(tenantId, provider);
+			}
+		}
+		return provider;
+
+	}
+
+	/**
+	 * Remove a tenant's provider, for example after its key was rotated.
+	 * 
+	 * @param tenantId
+	 */
+	public synchronized void invalidate(String tenantId) {
+		generation++;
+		providers.remove(tenantId);
+		// Later requests must not wait on a load which may have read the old
+		// key.
+		loading.remove(tenantId);
+	}
+
+	/**
+	 * Remove every cached provider.
+	 */
+	public synchronized void invalidateAll() {
+		generation++;
+		providers.clear();
+		loading.clear();
+	}
+
+	/**
+	 * @return Number of cached providers.
+	 */
+	public synchronized int size() {
+		return providers.size();
+	}
+
+	/**
+	 * @return Number of requests answered from the cache.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return Number of keys loaded, concurrent requests for the same tenant
+	 *         count once.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return Number of providers evicted to keep the cache within its size.
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return Number of loads which failed, including tenants with no key.
+	 */
+	public synchronized long getLoadFailures() {
+		return loadFailures;
+	}
+
+}
@@ -0,0 +1,305 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers.digest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import net.theblackchamber.crypto.exceptions.RuntimeCryptoException;
+import net.theblackchamber.crypto.providers.CryptoProviders;
+import net.theblackchamber.crypto.util.Codecs;
+
+import org.jasypt.digest.PooledStringDigester;
+import org.jasypt.digest.StandardStringDigester;
+import org.jasypt.digest.StringDigester;
+
+/**
+ * Base class for the digest providers. Provides plain (unsalted, single
+ * iteration) hashing of strings, bytes and streams, each returned as an
+ * upper case HEX string.<br>
+ * String digests go through a jasypt digester, either a single standard
+ * digester or, in pooled mode, a pool of digesters sized to the number of
+ * processors so concurrent callers do not wait on each other. Byte, buffer
+ * and stream digests hash the data incrementally with a per thread
+ * {@link MessageDigest} and never build Strings.<br>
+ * The JCA provider is looked up in {@link CryptoProviders} on each use, so
+ * one bound by a {@link net.theblackchamber.crypto.providers.ProviderSelector}
+ * applies to digest providers which already exist.
+ * 
+ * @author sminogue
+ * 
+ */
+public abstract class DigestProvider {
+
+	/**
+	 * Number of inputs below which a batch is not split any further.
+	 */
+	private static final int BATCH_THRESHOLD = 16;
+
+	private static final int STREAM_BUFFER_SIZE = 8192;
+
+	private final String algorithm;
+	private final boolean pooled;
+
+	/**
+	 * Provider the string digester was built for. Both are replaced when a
+	 * different provider is bound in {@link CryptoProviders}.
+	 */
+	private volatile Provider provider;
+	private volatile StringDigester digester;
+
+	private final ThreadLocal<MessageDigest> messageDigests = new ThreadLocal<MessageDigest>();
+
+	/**
+	 * Constructor
+	 * 
+	 * @param algorithm
+	 *            Digest algorithm name.
+	 * @param pooled
+	 *            If true strings are hashed using a pool of digesters sized
+	 *            to the number of processors.
+	 */
+	protected DigestProvider(String algorithm, boolean pooled) {
+
+		this.algorithm = algorithm;
+		this.pooled = pooled;
+
+		Provider current = currentProvider();
+		digester = createDigester(current);
+		provider = current;
+
+	}
+
+	/**
+	 * @return The provider currently bound for the algorithm.
+	 */
+	private Provider currentProvider() {
+		try {
+			return CryptoProviders.getProvider("MessageDigest", algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeCryptoException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Create a jasypt digester for the provider. The standard name is used as
+	 * the provider may not know the alias this digest was created with.
+	 */
+	private StringDigester createDigester(Provider provider) {
+
+		String name = CryptoProviders.getAlgorithmName("MessageDigest", algorithm);
+		if (pooled) {
+			PooledStringDigester pooledDigester = new PooledStringDigester();
+			pooledDigester.setPoolSize(Runtime.getRuntime().availableProcessors());
+			pooledDigester.setAlgorithm(name);
+			pooledDigester.setIterations(1);
+			pooledDigester.setSaltSizeBytes(0);
+			pooledDigester.setProvider(provider);
+			pooledDigester.setStringOutputType("hexadecimal");
+			return pooledDigester;
+		}
+		StandardStringDigester standardDigester = new StandardStringDigester();
+		standardDigester.setAlgorithm(name);
+		standardDigester.setIterations(1);
+		standardDigester.setSaltSizeBytes(0);
+		standardDigester.setProvider(provider);
+		standardDigester.setStringOutputType("hexadecimal");
+		return standardDigester;
+
+	}
+
+	/**
+	 * @return The string digester for the current provider, rebuilt if a
+	 *         different provider has been bound since it was created.
+	 */
+	private StringDigester digester() {
+
+		Provider current = currentProvider();
+		if (current != provider) {
+			synchronized (this) {
+				if (current != provider) {
+					digester = createDigester(current);
+					provider = current;
+				}
+			}
+		}
+		return digester;
+
+	}
+
+	/**
+	 * @return This thread's reset MessageDigest from the current provider.
+	 */
+	private MessageDigest messageDigest() {
+
+		Provider current = currentProvider();
+		MessageDigest md = messageDigests.get();
+		if (md == null || md.getProvider() != current) {
+			try {
+				md = MessageDigest.getInstance(CryptoProviders.getAlgorithmName("MessageDigest", algorithm), current);
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeCryptoException(e.getMessage(), e);
+			}
+			messageDigests.set(md);
+		}
+		md.reset();
+		return md;
+
+	}
+
+	/**
+	 * @return Digest algorithm name.
+	 */
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * @return True if strings are hashed using a pool of digesters.
+	 */
+	public boolean isPooled() {
+		return pooled;
+	}
+
+	/**
+	 * Perform hash/digest of string.
+	 * 
+	 * @param clear
+	 * @return HEX String of hashed data
+	 */
+	public String digest(String clear) {
+
+		return digester().digest(clear);
+
+	}
+
+	/**
+	 * Perform hash/digest of bytes.
+	 * 
+	 * @param clear
+	 * @return HEX String of hashed data
+	 */
+	public String digest(byte[] clear) {
+
+		MessageDigest md = messageDigest();
+		return Codecs.toHex(md.digest(clear));
+
+	}
+
+	/**
+	 * Perform hash/digest of the remaining bytes of a buffer. The buffer
+	 * position is moved to its limit.
+	 * 
+	 * @param clear
+	 * @return HEX String of hashed data
+	 */
+	public String digest(ByteBuffer clear) {
+
+		MessageDigest md = messageDigest();
+		md.update(clear);
+		return Codecs.toHex(md.digest());
+
+	}
+
+	/**
+	 * Perform hash/digest of everything remaining in a stream. The stream is
+	 * read in chunks and is not closed.
+	 * 
+	 * @param clear
+	 * @return HEX String of hashed data
+	 * @throws IOException
+	 *             If the stream could not be read.
+	 */
+	public String digest(InputStream clear) throws IOException {
+
+		MessageDigest md = messageDigest();
+		byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+		int read;
+		while ((read = clear.read(buffer)) != -1) {
+			md.update(buffer, 0, read);
+		}
+		return Codecs.toHex(md.digest());
+
+	}
+
+	/**
+	 * Perform hash/digest of many strings at once. The inputs are split
+	 * across the common {@link ForkJoinPool}. Best used in pooled mode,
+	 * otherwise the threads share a single digester.
+	 * 
+	 * @param clear
+	 * @return HEX Strings of hashed data, in the same order as the input.
+	 */
+	public List<String> digest(List<String> clear) {
+
+		String[] hashed = new String[clear.size()];
+		ForkJoinPool.commonPool().invoke(new DigestBatch(new ArrayList<String>(clear), hashed, 0, hashed.length));
+		return Arrays.asList(hashed);
+
+	}
+
+	/**
+	 * Task which hashes a range of a batch, splitting it in half until it is
+	 * small enough.
+	 */
+	private class DigestBatch extends RecursiveAction {
+
+		private static final long serialVersionUID = -1874628357211846412L;
+
+		private final List<String> clear;
+		private final String[] hashed;
+		private final int from;
+		private final int to;
+
+		DigestBatch(List<String> clear, String[] hashed, int from, int to) {
+			this.clear = clear;
+			this.hashed = hashed;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= BATCH_THRESHOLD) {
+				for (int i = from; i < to; i++) {
+					hashed[i] = digest(clear.get(i));
+				}
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new DigestBatch(clear, hashed, from, middle), new DigestBatch(clear, hashed, middle, to));
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,232 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers.digest;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.theblackchamber.crypto.exceptions.RuntimeCryptoException;
+import net.theblackchamber.crypto.providers.CryptoProviders;
+import net.theblackchamber.crypto.providers.RandomSource;
+
+/**
+ * Cache of successful password/credential checks in front of an
+ * {@link IteratedDigestProvider}. The first check of a credential against a
+ * hash pays the full hashing cost; repeat checks within the time to live
+ * are answered from the cache.<br>
+ * The cache is keyed by the stored hash and holds an HMAC-SHA256 of the
+ * credential that matched it, under a random key created for each cache, so
+ * no credential is kept in memory. Lookups compare the HMAC in constant
+ * time. Only successful checks are cached and the cache holds at most the
+ * given number of entries, dropping the least recently used.<br>
+ * Entries for a hash should be invalidated when the credential is changed or
+ * revoked, see {@link #invalidate(String)}. A check which was already running
+ * when the cache was invalidated does not cache its result.
+ * 
+ * @author sminogue
+ * 
+ */
+public class DigestVerificationCache {
+
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+
+	private final IteratedDigestProvider provider;
+	private final long ttlNanos;
+	private final SecretKeySpec macKey;
+	private final Map<String, Entry> entries;
+
+	private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+		@Override
+		protected Mac initialValue() {
+			try {
+				Mac mac = Mac.getInstance(MAC_ALGORITHM, CryptoProviders.getProvider("Mac", MAC_ALGORITHM));
+				mac.init(macKey);
+				return mac;
+			} catch (GeneralSecurityException e) {
+				throw new RuntimeCryptoException(e.getMessage(), e);
+			}
+		}
+	};
+
+	/**
+	 * Bumped by every invalidation. A check only caches its result if no
+	 * invalidation happened while it ran.
+	 */
+	private long generation;
+
+	private long hits;
+	private long misses;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param provider
+	 *            Provider used for checks which are not cached.
+	 * @param maxEntries
+	 *            Maximum number of cached checks.
+	 * @param ttl
+	 *            How long a successful check is cached.
+	 * @param unit
+	 *            Unit of ttl.
+	 */
+	public DigestVerificationCache(IteratedDigestProvider provider, final int maxEntries, long ttl, TimeUnit unit) {
+
+		if (provider == null) {
+			throw new IllegalArgumentException("Provider must not be null");
+		}
+		if (maxEntries <= 0 || ttl <= 0) {
+			throw new IllegalArgumentException("Cache size and time to live must be positive");
+		}
+
+		this.provider = provider;
+		this.ttlNanos = unit.toNanos(ttl);
+
+		byte[] keyBytes = new byte[32];
+		RandomSource.nextBytes(keyBytes);
+		this.macKey = new SecretKeySpec(keyBytes, MAC_ALGORITHM);
+
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = -6360193744414620713L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > maxEntries;
+			}
+		};
+
+	}
+
+	/**
+	 * Check a credential against a stored hash, using the cache if the same
+	 * credential was recently checked against the same hash.
+	 * 
+	 * @param clear
+	 * @param hashed
+	 * @return True if the credential matches the hash.
+	 * @see IteratedDigestProvider#matches(String, String)
+	 */
+	public boolean matches(String clear, String hashed) {
+
+		if (clear == null || hashed == null) {
+			return false;
+		}
+
+		byte[] mac = mac(clear);
+		long now = System.nanoTime();
+		long startGeneration;
+
+		synchronized (this) {
+			Entry entry = entries.get(hashed);
+			if (entry != null && now - entry.created < ttlNanos && MessageDigest.isEqual(entry.mac, mac)) {
+				hits++;
+				return true;
+			}
+			misses++;
+			startGeneration = generation;
+		}
+
+		if (!provider.matches(clear, hashed)) {
+			return false;
+		}
+
+		synchronized (this) {
+			if (generation == startGeneration) {
+				entries.put(hashed, new Entry(mac, now));
+			}
+		}
+		return true;
+
+	}
+
+	/**
+	 * Remove the cached check for a hash.
+	 * 
+	 * @param hashed
+	 */
+	public synchronized void invalidate(String hashed) {
+		generation++;
+		entries.remove(hashed);
+	}
+
+	/**
+	 * Remove every cached check.
+	 */
+	public synchronized void invalidateAll() {
+		generation++;
+		entries.clear();
+	}
+
+	/**
+	 * @return Number of cached checks, including expired ones not yet
+	 *         removed.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return Number of checks answered from the cache.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return Number of checks which were not in the cache.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	private byte[] mac(String clear) {
+		try {
+			return macs.get().doFinal(clear.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeCryptoException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Cached successful check.
+	 */
+	private static class Entry {
+
+		final byte[] mac;
+		final long created;
+
+		Entry(byte[] mac, long created) {
+			this.mac = mac;
+			this.created = created;
+		}
+
+	}
+
+}
@@ -0,0 +1,336 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers.digest;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+
+import net.theblackchamber.crypto.exceptions.RuntimeCryptoException;
+import net.theblackchamber.crypto.exceptions.UnsupportedAlgorithmException;
+import net.theblackchamber.crypto.providers.CryptoProviders;
+import net.theblackchamber.crypto.providers.RandomSource;
+import net.theblackchamber.crypto.util.Codecs;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Class which will provide salted, iterated hashing of passwords with a
+ * configurable cost. The cost can be set directly or calibrated on the
+ * current host to hit a target time per hash, see {@link Builder}.<br>
+ * Hashes are HEX encoded along with the parameters used to create them:
+ * <code>$ALGORITHM$ITERATIONS$SALT$HASH</code>. {@link #matches(String, String)}
+ * uses the stored parameters, so hashes made with an older cost (or
+ * algorithm) still verify after the configuration changes and
+ * {@link #needsRehash(String)} tells when one should be replaced. Plain HEX
+ * hashes made by {@link SHA256DigestProvider} or
+ * {@link WhirlpoolDigestProvider} are also accepted.<br>
+ * Usage: <code>
+ * IteratedDigestProvider provider = new IteratedDigestProvider.Builder().algorithm("SHA256").calibrate(100).build();
+ * String hashed = provider.digest(password);
+ * boolean valid = provider.matches(password, hashed);
+ * </code>
+ * 
+ * @author sminogue
+ * 
+ */
+public class IteratedDigestProvider {
+
+	private static final String SEPARATOR = "$";
+
+	private final String algorithm;
+	private final int iterations;
+	private final int saltSizeBytes;
+
+	private IteratedDigestProvider(Builder builder) {
+		this.algorithm = builder.algorithm;
+		this.iterations = builder.iterations;
+		this.saltSizeBytes = builder.saltSizeBytes;
+	}
+
+	/**
+	 * @return Digest algorithm name.
+	 */
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * @return Number of hash iterations.
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * @return Size of the random salt in bytes.
+	 */
+	public int getSaltSizeBytes() {
+		return saltSizeBytes;
+	}
+
+	/**
+	 * Perform salted, iterated hash/digest of string.
+	 * 
+	 * @param clear
+	 * @return Hash and parameters as <code>$ALGORITHM$ITERATIONS$SALT$HASH</code>
+	 */
+	public String digest(String clear) {
+
+		byte[] salt = new byte[saltSizeBytes];
+		RandomSource.nextBytes(salt);
+		byte[] hash = hash(createMessageDigest(algorithm), clear, salt, iterations);
+		return SEPARATOR + algorithm + SEPARATOR + iterations + SEPARATOR + Codecs.toHex(salt)
+				+ SEPARATOR + Codecs.toHex(hash);
+
+	}
+
+	/**
+	 * Check a string against a hash made by {@link #digest(String)}, with any
+	 * parameters, or a plain HEX hash of this provider's algorithm.
+	 * 
+	 * @param clear
+	 * @param hashed
+	 * @return True if the string matches the hash.
+	 */
+	public boolean matches(String clear, String hashed) {
+
+		if (clear == null || StringUtils.isEmpty(hashed)) {
+			return false;
+		}
+
+		String hashAlgorithm = algorithm;
+		int hashIterations = 1;
+		byte[] salt = new byte[0];
+		String expected = hashed;
+
+		if (hashed.startsWith(SEPARATOR)) {
+			String[] parts = StringUtils.splitPreserveAllTokens(hashed.substring(1), SEPARATOR);
+			if (parts.length != 4) {
+				return false;
+			}
+			try {
+				hashAlgorithm = parts[0];
+				hashIterations = Integer.parseInt(parts[1]);
+				salt = Codecs.fromHex(parts[2]);
+			} catch (RuntimeException e) {
+				return false;
+			}
+			if (hashIterations < 1) {
+				return false;
+			}
+			expected = parts[3];
+		}
+
+		MessageDigest md;
+		try {
+			md = CryptoProviders.getMessageDigest(hashAlgorithm);
+		} catch (NoSuchAlgorithmException e) {
+			return false;
+		}
+		byte[] actual = hash(md, clear, salt, hashIterations);
+		return MessageDigest.isEqual(Codecs.toHex(actual).getBytes(), expected.toUpperCase().getBytes());
+
+	}
+
+	/**
+	 * @param hashed
+	 * @return True if the hash was not made with this provider's current
+	 *         algorithm, iterations and salt size.
+	 */
+	public boolean needsRehash(String hashed) {
+
+		if (hashed == null || !hashed.startsWith(SEPARATOR)) {
+			return true;
+		}
+		String[] parts = StringUtils.splitPreserveAllTokens(hashed.substring(1), SEPARATOR);
+		return parts.length != 4 || !StringUtils.equals(algorithm, parts[0])
+				|| !StringUtils.equals(String.valueOf(iterations), parts[1])
+				|| parts[2].length() != saltSizeBytes * 2;
+
+	}
+
+	/**
+	 * Hash salt and (NFC normalized, UTF-8 encoded) string, then re-hash the
+	 * result for the remaining iterations. The same scheme jasypt digesters
+	 * use.
+	 */
+	private static byte[] hash(MessageDigest md, String clear, byte[] salt, int iterations) {
+
+		byte[] message;
+		try {
+			message = Normalizer.normalize(clear, Normalizer.Form.NFC).getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeCryptoException(e.getMessage(), e);
+		}
+		md.reset();
+		md.update(salt);
+		md.update(message);
+		byte[] digest = md.digest();
+		for (int i = 1; i < iterations; i++) {
+			digest = md.digest(digest);
+		}
+		return digest;
+
+	}
+
+	private static MessageDigest createMessageDigest(String algorithm) {
+		try {
+			return CryptoProviders.getMessageDigest(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeCryptoException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Builder for {@link IteratedDigestProvider}. Defaults to SHA256, 16
+	 * bytes of salt and 50000 iterations.
+	 * 
+	 * @author sminogue
+	 * 
+	 */
+	public static class Builder {
+
+		/**
+		 * Iterations run to measure the host when calibrating.
+		 */
+		private static final int CALIBRATION_ITERATIONS = 20000;
+
+		private static final int CALIBRATION_ROUNDS = 5;
+
+		private String algorithm = "SHA256";
+		private int iterations = 50000;
+		private int saltSizeBytes = 16;
+		private long targetMillis = -1;
+		private int minIterations = 1000;
+
+		/**
+		 * @param algorithm
+		 *            Digest algorithm name, for example SHA256 or WHIRLPOOL.
+		 * @return This builder.
+		 */
+		public Builder algorithm(String algorithm) {
+			this.algorithm = algorithm;
+			return this;
+		}
+
+		/**
+		 * @param iterations
+		 *            Fixed number of hash iterations. Ignored if
+		 *            {@link #calibrate(long)} is used.
+		 * @return This builder.
+		 */
+		public Builder iterations(int iterations) {
+			this.iterations = iterations;
+			return this;
+		}
+
+		/**
+		 * @param saltSizeBytes
+		 *            Size of the random salt in bytes.
+		 * @return This builder.
+		 */
+		public Builder saltSizeBytes(int saltSizeBytes) {
+			this.saltSizeBytes = saltSizeBytes;
+			return this;
+		}
+
+		/**
+		 * Pick the number of iterations when building so one hash takes
+		 * about the target time on this host.
+		 * 
+		 * @param targetMillis
+		 *            Target time per hash in milliseconds.
+		 * @return This builder.
+		 */
+		public Builder calibrate(long targetMillis) {
+			this.targetMillis = targetMillis;
+			return this;
+		}
+
+		/**
+		 * @param minIterations
+		 *            Lower bound for calibrated iterations.
+		 * @return This builder.
+		 */
+		public Builder minIterations(int minIterations) {
+			this.minIterations = minIterations;
+			return this;
+		}
+
+		/**
+		 * @return The configured provider.
+		 * @throws UnsupportedAlgorithmException
+		 *             If the algorithm is not available.
+		 */
+		public IteratedDigestProvider build() throws UnsupportedAlgorithmException {
+
+			if (StringUtils.isEmpty(algorithm) || algorithm.contains(SEPARATOR)) {
+				throw new UnsupportedAlgorithmException("Invalid digest algorithm: " + algorithm);
+			}
+			if (saltSizeBytes < 0) {
+				throw new IllegalArgumentException("Salt size must not be negative");
+			}
+
+			MessageDigest md;
+			try {
+				md = CryptoProviders.getMessageDigest(algorithm);
+			} catch (NoSuchAlgorithmException e) {
+				throw new UnsupportedAlgorithmException("Unsupported digest algorithm: " + algorithm, e);
+			}
+
+			if (targetMillis > 0) {
+				iterations = calibrateIterations(md);
+			}
+			if (iterations < 1) {
+				throw new IllegalArgumentException("Iterations must be positive");
+			}
+
+			return new IteratedDigestProvider(this);
+
+		}
+
+		/**
+		 * Time a fixed number of iterations a few times, keeping the fastest
+		 * run, and scale it to the target time.
+		 */
+		private int calibrateIterations(MessageDigest md) {
+
+			byte[] salt = new byte[saltSizeBytes];
+			long best = Long.MAX_VALUE;
+			for (int i = 0; i < CALIBRATION_ROUNDS; i++) {
+				long start = System.nanoTime();
+				hash(md, "calibration", salt, CALIBRATION_ITERATIONS);
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			double perIteration = Math.max(1, best) / (double) CALIBRATION_ITERATIONS;
+			double calibrated = (targetMillis * 1000000L) / perIteration;
+			return (int) Math.max(minIterations, Math.min(Integer.MAX_VALUE, calibrated));
+
+		}
+
+	}
+
+}
@@ -0,0 +1,318 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers.digest;
+
+import java.io.Closeable;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.text.Normalizer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.theblackchamber.crypto.exceptions.RuntimeCryptoException;
+import net.theblackchamber.crypto.providers.RandomSource;
+import net.theblackchamber.crypto.util.Codecs;
+
+import org.apache.commons.lang3.StringUtils;
+import org.bouncycastle.crypto.generators.SCrypt;
+
+/**
+ * Class which will provide memory hard password hashing using scrypt.<br>
+ * The cost (N, a power of 2), block size (r) and parallelization (p)
+ * parameters are tunable; memory use is about 128 * N * r bytes per hash.
+ * Hashes are HEX encoded along with their parameters as
+ * <code>$SCRYPT$N$r$p$SALT$HASH</code> so changing the parameters does not
+ * break existing hashes.<br>
+ * Because each hash is deliberately expensive, checks can be run
+ * asynchronously with {@link #matchesAsync(String, String)} on a dedicated
+ * pool with a bounded queue. When the queue is full new checks are rejected
+ * straight away rather than piling up. The pool threads are daemon threads
+ * and are stopped by {@link #close()}.
+ * 
+ * @author sminogue
+ * 
+ */
+public class SCryptDigestProvider implements Closeable {
+
+	private static final String SEPARATOR = "$";
+	private static final String ALGORITHM = "SCRYPT";
+
+	public static final int DEFAULT_COST = 16384;
+	public static final int DEFAULT_BLOCK_SIZE = 8;
+	public static final int DEFAULT_PARALLELIZATION = 1;
+
+	private static final int SALT_SIZE_BYTES = 16;
+	private static final int HASH_SIZE_BYTES = 32;
+
+	/**
+	 * Limits on the parameters accepted from a stored hash, to stop a
+	 * malformed hash from exhausting memory or CPU. scrypt needs 128*N*r bytes
+	 * and does p times that much mixing.
+	 */
+	private static final int MAX_COST = 1 << 20;
+	private static final int MAX_BLOCK_SIZE = 32;
+	private static final int MAX_PARALLELIZATION = 16;
+	private static final long MAX_MEMORY_BYTES = 256L << 20;
+	private static final long MAX_WORK_BYTES = 1L << 30;
+
+	private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+	private final int cost;
+	private final int blockSize;
+	private final int parallelization;
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Constructor. Uses the default parameters (N=16384, r=8, p=1), one
+	 * verification thread per processor and a queue of 100 checks per
+	 * thread.
+	 */
+	public SCryptDigestProvider() {
+		this(DEFAULT_COST, DEFAULT_BLOCK_SIZE, DEFAULT_PARALLELIZATION);
+	}
+
+	/**
+	 * Constructor. Uses one verification thread per processor and a queue of
+	 * 100 checks per thread.
+	 * 
+	 * @param cost
+	 *            CPU/memory cost N, a power of 2 greater than 1.
+	 * @param blockSize
+	 *            Block size r.
+	 * @param parallelization
+	 *            Parallelization p.
+	 */
+	public SCryptDigestProvider(int cost, int blockSize, int parallelization) {
+		this(cost, blockSize, parallelization, Runtime.getRuntime().availableProcessors(), Runtime.getRuntime()
+				.availableProcessors() * 100);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param cost
+	 *            CPU/memory cost N, a power of 2 greater than 1.
+	 * @param blockSize
+	 *            Block size r.
+	 * @param parallelization
+	 *            Parallelization p.
+	 * @param threads
+	 *            Number of threads for asynchronous checks.
+	 * @param queueSize
+	 *            Number of asynchronous checks which may wait for a thread
+	 *            before new ones are rejected.
+	 */
+	public SCryptDigestProvider(int cost, int blockSize, int parallelization, int threads, int queueSize) {
+
+		if (cost <= 1 || (cost & (cost - 1)) != 0) {
+			throw new IllegalArgumentException("Cost must be a power of 2 greater than 1");
+		}
+		if (blockSize <= 0 || parallelization <= 0) {
+			throw new IllegalArgumentException("Block size and parallelization must be positive");
+		}
+		if (!withinLimits(cost, blockSize, parallelization)) {
+			throw new IllegalArgumentException("Parameters exceed the memory or work accepted when verifying");
+		}
+		if (threads <= 0 || queueSize <= 0) {
+			throw new IllegalArgumentException("Thread count and queue size must be positive");
+		}
+
+		this.cost = cost;
+		this.blockSize = blockSize;
+		this.parallelization = parallelization;
+
+		final String poolName = "SCryptDigestProvider-" + POOL_COUNT.incrementAndGet() + "-";
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(
+				queueSize), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, poolName + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		}, new ThreadPoolExecutor.AbortPolicy());
+		executor.allowCoreThreadTimeOut(true);
+
+	}
+
+	/**
+	 * @return CPU/memory cost N.
+	 */
+	public int getCost() {
+		return cost;
+	}
+
+	/**
+	 * @return Block size r.
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * @return Parallelization p.
+	 */
+	public int getParallelization() {
+		return parallelization;
+	}
+
+	/**
+	 * Perform scrypt hash of string with a random salt.
+	 * 
+	 * @param clear
+	 * @return Hash and parameters as <code>$SCRYPT$N$r$p$SALT$HASH</code>
+	 */
+	public String digest(String clear) {
+
+		byte[] salt = new byte[SALT_SIZE_BYTES];
+		RandomSource.nextBytes(salt);
+		byte[] hash = SCrypt.generate(toBytes(clear), salt, cost, blockSize, parallelization, HASH_SIZE_BYTES);
+		return SEPARATOR + ALGORITHM + SEPARATOR + cost + SEPARATOR + blockSize + SEPARATOR + parallelization
+				+ SEPARATOR + Codecs.toHex(salt) + SEPARATOR + Codecs.toHex(hash);
+
+	}
+
+	/**
+	 * Check a string against a hash made by {@link #digest(String)}, with any
+	 * parameters. Runs on the calling thread.
+	 * 
+	 * @param clear
+	 * @param hashed
+	 * @return True if the string matches the hash.
+	 */
+	public boolean matches(String clear, String hashed) {
+
+		if (clear == null || hashed == null || !hashed.startsWith(SEPARATOR + ALGORITHM + SEPARATOR)) {
+			return false;
+		}
+		String[] parts = StringUtils.splitPreserveAllTokens(hashed.substring(1), SEPARATOR);
+		if (parts.length != 6) {
+			return false;
+		}
+
+		int hashCost;
+		int hashBlockSize;
+		int hashParallelization;
+		byte[] salt;
+		byte[] expected;
+		try {
+			hashCost = Integer.parseInt(parts[1]);
+			hashBlockSize = Integer.parseInt(parts[2]);
+			hashParallelization = Integer.parseInt(parts[3]);
+			salt = Codecs.fromHex(parts[4]);
+			expected = Codecs.fromHex(parts[5]);
+		} catch (RuntimeException e) {
+			return false;
+		}
+		if (hashCost <= 1 || (hashCost & (hashCost - 1)) != 0 || hashBlockSize <= 0 || hashParallelization <= 0
+				|| !withinLimits(hashCost, hashBlockSize, hashParallelization) || expected.length == 0) {
+			return false;
+		}
+
+		byte[] actual = SCrypt.generate(toBytes(clear), salt, hashCost, hashBlockSize, hashParallelization,
+				expected.length);
+		return MessageDigest.isEqual(actual, expected);
+
+	}
+
+	/**
+	 * Check a string against a hash on the verification pool.
+	 * 
+	 * @param clear
+	 * @param hashed
+	 * @return Future holding the result of {@link #matches(String, String)}.
+	 * @throws RejectedExecutionException
+	 *             If the queue is full or the provider has been closed.
+	 */
+	public Future<Boolean> matchesAsync(final String clear, final String hashed) {
+
+		return executor.submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return matches(clear, hashed);
+			}
+		});
+
+	}
+
+	/**
+	 * @param hashed
+	 * @return True if the hash was not made with this provider's current
+	 *         parameters.
+	 */
+	public boolean needsRehash(String hashed) {
+
+		if (hashed == null || !hashed.startsWith(SEPARATOR + ALGORITHM + SEPARATOR)) {
+			return true;
+		}
+		String[] parts = StringUtils.splitPreserveAllTokens(hashed.substring(1), SEPARATOR);
+		return parts.length != 6 || !StringUtils.equals(String.valueOf(cost), parts[1])
+				|| !StringUtils.equals(String.valueOf(blockSize), parts[2])
+				|| !StringUtils.equals(String.valueOf(parallelization), parts[3]);
+
+	}
+
+	/**
+	 * @return Number of asynchronous checks waiting for a thread.
+	 */
+	public int getQueuedCount() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * Stop the verification pool. Checks already queued are still run.
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+	}
+
+	/**
+	 * @return True if the parameters are within the memory and work limits.
+	 */
+	private static boolean withinLimits(int cost, int blockSize, int parallelization) {
+		if (cost > MAX_COST || blockSize > MAX_BLOCK_SIZE || parallelization > MAX_PARALLELIZATION) {
+			return false;
+		}
+		long memory = 128L * cost * blockSize;
+		return memory <= MAX_MEMORY_BYTES && memory * parallelization <= MAX_WORK_BYTES;
+	}
+
+	private static byte[] toBytes(String clear) {
+		try {
+			return Normalizer.normalize(clear, Normalizer.Form.NFC).getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeCryptoException(e.getMessage(), e);
+		}
+	}
+
+}
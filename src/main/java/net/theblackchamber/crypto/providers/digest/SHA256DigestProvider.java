@@ -23,47 +23,29 @@
  */
 package net.theblackchamber.crypto.providers.digest;
 
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
-import org.jasypt.digest.config.SimpleDigesterConfig;
-import org.jasypt.salt.RandomSaltGenerator;
-import org.jasypt.util.password.ConfigurablePasswordEncryptor;
-
 /**
  * Class which will provide the means of hashing data using SHA256
  * @author sminogue
  *
  */
-public class SHA256DigestProvider {
+public class SHA256DigestProvider extends DigestProvider {
 
-	private ConfigurablePasswordEncryptor encryptor;
-	
 	/**
 	 * Constructor
 	 */
 	public SHA256DigestProvider() {
 		
-		SimpleDigesterConfig config = new SimpleDigesterConfig();
-		config.setAlgorithm("SHA256");
-		config.setIterations(50000);
-		config.setProvider(new BouncyCastleProvider());
-		
-		encryptor = new ConfigurablePasswordEncryptor();
-		encryptor.setProvider(new BouncyCastleProvider());
-		encryptor.setAlgorithm("SHA256");
-		encryptor.setConfig(config);
-		encryptor.setPlainDigest(true);
-		encryptor.setStringOutputType("hexadecimal");
+		this(false);
 		
 	}
 
 	/**
-	 * Perform hash/digest of string.
-	 * @param clear
-	 * @return HEX String of hashed data
+	 * Constructor
+	 * @param pooled If true strings are hashed using a pool of digesters sized to the number of processors.
 	 */
-	public String digest(String clear){
+	public SHA256DigestProvider(boolean pooled) {
 		
-		return encryptor.encryptPassword(clear);
+		super("SHA256", pooled);
 		
 	}
 	
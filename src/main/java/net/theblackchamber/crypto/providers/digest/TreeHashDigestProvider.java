@@ -0,0 +1,359 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers.digest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.theblackchamber.crypto.exceptions.RuntimeCryptoException;
+import net.theblackchamber.crypto.providers.CryptoProviders;
+import net.theblackchamber.crypto.util.Codecs;
+
+/**
+ * Class which will provide the means of hashing large files using a SHA256
+ * tree hash. The data is split into fixed size leaves which are hashed
+ * independently (in parallel for files) and then combined pairwise into a
+ * single root hash. Leaf hashes are SHA256(0x00 || leaf) and inner nodes are
+ * SHA256(0x01 || left || right), a node without a sibling is carried up
+ * unchanged.<br>
+ * Because leaves are independent, a part of a file can be checked against
+ * its leaf hashes without reading the rest of the file.<br>
+ * Note that the root hash is not the same as the plain SHA256 of the data
+ * and depends on the leaf size.
+ * 
+ * @author sminogue
+ * 
+ */
+public class TreeHashDigestProvider {
+
+	/**
+	 * Default leaf size, 1MB.
+	 */
+	public static final int DEFAULT_LEAF_SIZE = 1024 * 1024;
+
+	private static final byte LEAF_PREFIX = 0x00;
+	private static final byte NODE_PREFIX = 0x01;
+
+	private final int leafSize;
+	private final int threads;
+
+	/**
+	 * Constructor. Uses the default leaf size and one thread per processor.
+	 */
+	public TreeHashDigestProvider() {
+		this(DEFAULT_LEAF_SIZE, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param leafSize
+	 *            Size in bytes of each leaf.
+	 * @param threads
+	 *            Number of threads used to hash files.
+	 */
+	public TreeHashDigestProvider(int leafSize, int threads) {
+		if (leafSize <= 0) {
+			throw new IllegalArgumentException("Leaf size must be positive");
+		}
+		if (threads <= 0) {
+			throw new IllegalArgumentException("Thread count must be positive");
+		}
+		this.leafSize = leafSize;
+		this.threads = threads;
+	}
+
+	/**
+	 * @return Size in bytes of each leaf.
+	 */
+	public int getLeafSize() {
+		return leafSize;
+	}
+
+	/**
+	 * Perform tree hash of bytes.
+	 * 
+	 * @param clear
+	 * @return HEX String of the root hash.
+	 */
+	public String digest(byte[] clear) {
+
+		MessageDigest md = createMessageDigest();
+		int leafCount = leafCount(clear.length);
+		byte[][] leaves = new byte[leafCount][];
+		for (int i = 0; i < leafCount; i++) {
+			int offset = i * leafSize;
+			md.update(LEAF_PREFIX);
+			md.update(clear, offset, Math.min(leafSize, clear.length - offset));
+			leaves[i] = md.digest();
+		}
+		return Codecs.toHex(root(leaves, md));
+
+	}
+
+	/**
+	 * Perform tree hash of a file. Leaves are read with positional reads and
+	 * hashed across the configured number of threads.
+	 * 
+	 * @param file
+	 * @return HEX String of the root hash.
+	 * @throws FileNotFoundException
+	 *             If the file does not exist.
+	 * @throws IOException
+	 *             If the file could not be read.
+	 */
+	public String digest(File file) throws IOException {
+
+		return Codecs.toHex(root(hashLeaves(file, 0, -1), createMessageDigest()));
+
+	}
+
+	/**
+	 * Hash every leaf of a file.
+	 * 
+	 * @param file
+	 * @return HEX Strings of the leaf hashes, in file order.
+	 * @throws FileNotFoundException
+	 *             If the file does not exist.
+	 * @throws IOException
+	 *             If the file could not be read.
+	 */
+	public List<String> leafDigests(File file) throws IOException {
+
+		byte[][] leaves = hashLeaves(file, 0, -1);
+		List<String> digests = new ArrayList<String>(leaves.length);
+		for (byte[] leaf : leaves) {
+			digests.add(Codecs.toHex(leaf));
+		}
+		return digests;
+
+	}
+
+	/**
+	 * Combine leaf hashes, as returned by {@link #leafDigests(File)}, into the
+	 * root hash.
+	 * 
+	 * @param leafDigests
+	 * @return HEX String of the root hash.
+	 */
+	public String rootDigest(List<String> leafDigests) {
+
+		if (leafDigests.isEmpty()) {
+			throw new IllegalArgumentException("At least one leaf digest is required");
+		}
+		byte[][] leaves = new byte[leafDigests.size()][];
+		for (int i = 0; i < leaves.length; i++) {
+			leaves[i] = Codecs.fromHex(leafDigests.get(i));
+		}
+		return Codecs.toHex(root(leaves, createMessageDigest()));
+
+	}
+
+	/**
+	 * Check a range of leaves of a file against previously computed leaf
+	 * hashes. Only that part of the file is read.
+	 * 
+	 * @param file
+	 * @param firstLeaf
+	 *            Index of the first leaf to check.
+	 * @param expectedDigests
+	 *            Expected HEX leaf hashes starting at firstLeaf.
+	 * @return True if every leaf in the range matches.
+	 * @throws FileNotFoundException
+	 *             If the file does not exist.
+	 * @throws IOException
+	 *             If the file could not be read.
+	 */
+	public boolean verifyLeaves(File file, int firstLeaf, List<String> expectedDigests) throws IOException {
+
+		if (firstLeaf < 0 || expectedDigests.isEmpty()) {
+			throw new IllegalArgumentException("Invalid leaf range");
+		}
+		if (firstLeaf + expectedDigests.size() > leafCount(file.length())) {
+			return false;
+		}
+		byte[][] leaves = hashLeaves(file, firstLeaf, expectedDigests.size());
+		boolean matches = true;
+		for (int i = 0; i < leaves.length; i++) {
+			matches &= MessageDigest.isEqual(leaves[i], Codecs.fromHex(expectedDigests.get(i)));
+		}
+		return matches;
+
+	}
+
+	/**
+	 * Hash a range of leaves of a file in parallel.
+	 * 
+	 * @param file
+	 * @param firstLeaf
+	 * @param count
+	 *            Number of leaves to hash, or -1 for all leaves.
+	 * @return Leaf hashes.
+	 * @throws IOException
+	 */
+	private byte[][] hashLeaves(File file, final int firstLeaf, int count) throws IOException {
+
+		if (!file.isFile()) {
+			throw new FileNotFoundException("Unable to find " + file.getPath());
+		}
+
+		FileInputStream fis = new FileInputStream(file);
+		ExecutorService executor = null;
+		try {
+
+			final FileChannel channel = fis.getChannel();
+			final long size = channel.size();
+			final byte[][] leaves = new byte[count < 0 ? leafCount(size) : count][];
+
+			int workers = Math.min(threads, leaves.length);
+			if (workers <= 1) {
+				hashLeaves(channel, size, leaves, firstLeaf, 0, leaves.length);
+				return leaves;
+			}
+
+			executor = Executors.newFixedThreadPool(workers);
+			List<Future<Object>> futures = new ArrayList<Future<Object>>(workers);
+			int perWorker = (leaves.length + workers - 1) / workers;
+			for (int from = 0; from < leaves.length; from += perWorker) {
+				final int start = from;
+				final int end = Math.min(leaves.length, from + perWorker);
+				futures.add(executor.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws IOException {
+						hashLeaves(channel, size, leaves, firstLeaf, start, end);
+						return null;
+					}
+				}));
+			}
+			for (Future<Object> future : futures) {
+				future.get();
+			}
+			return leaves;
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while hashing " + file.getPath());
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeCryptoException(e.getCause().getMessage(), e.getCause());
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+			fis.close();
+		}
+
+	}
+
+	/**
+	 * Hash leaves [start, end) of the range beginning at firstLeaf, reusing
+	 * one buffer and digest.
+	 * 
+	 * @throws IOException
+	 */
+	private void hashLeaves(FileChannel channel, long size, byte[][] leaves, int firstLeaf, int start, int end)
+			throws IOException {
+
+		MessageDigest md = createMessageDigest();
+		ByteBuffer buffer = ByteBuffer.allocate(leafSize);
+		for (int i = start; i < end; i++) {
+			long position = (long) (firstLeaf + i) * leafSize;
+			buffer.clear();
+			buffer.limit((int) Math.min(leafSize, Math.max(0, size - position)));
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, position + buffer.position()) < 0) {
+					throw new IOException("Unexpected end of file");
+				}
+			}
+			buffer.flip();
+			md.update(LEAF_PREFIX);
+			md.update(buffer);
+			leaves[i] = md.digest();
+		}
+
+	}
+
+	/**
+	 * Combine leaf hashes into the root hash.
+	 */
+	private byte[] root(byte[][] leaves, MessageDigest md) {
+
+		byte[][] level = Arrays.copyOf(leaves, leaves.length);
+		int length = level.length;
+		while (length > 1) {
+			int next = 0;
+			for (int i = 0; i < length; i += 2) {
+				if (i + 1 < length) {
+					md.update(NODE_PREFIX);
+					md.update(level[i]);
+					md.update(level[i + 1]);
+					level[next++] = md.digest();
+				} else {
+					level[next++] = level[i];
+				}
+			}
+			length = next;
+		}
+		return level[0];
+
+	}
+
+	/**
+	 * @return Number of leaves for data of the given length. Empty data has
+	 *         a single empty leaf.
+	 */
+	private int leafCount(long length) {
+		long count = (length + leafSize - 1) / leafSize;
+		if (count > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many leaves, increase the leaf size");
+		}
+		return (int) Math.max(1, count);
+	}
+
+	private MessageDigest createMessageDigest() {
+		try {
+			return CryptoProviders.getMessageDigest("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeCryptoException(e.getMessage(), e);
+		}
+	}
+
+}
@@ -23,47 +23,29 @@
  */
 package net.theblackchamber.crypto.providers.digest;
 
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
-import org.jasypt.digest.config.SimpleDigesterConfig;
-import org.jasypt.salt.RandomSaltGenerator;
-import org.jasypt.util.password.ConfigurablePasswordEncryptor;
-
 /**
- * Class which will provide the means of hashing data using SHA256
+ * Class which will provide the means of hashing data using Whirlpool
  * @author sminogue
  *
  */
-public class WhirlpoolDigestProvider {
+public class WhirlpoolDigestProvider extends DigestProvider {
 
-	private ConfigurablePasswordEncryptor encryptor;
-	
 	/**
 	 * Constructor
 	 */
 	public WhirlpoolDigestProvider() {
 		
-		SimpleDigesterConfig config = new SimpleDigesterConfig();
-		config.setAlgorithm("WHIRLPOOL");
-		config.setIterations(50000);
-		config.setProvider(new BouncyCastleProvider());
-		
-		encryptor = new ConfigurablePasswordEncryptor();
-		encryptor.setProvider(new BouncyCastleProvider());
-		encryptor.setAlgorithm("WHIRLPOOL");
-		encryptor.setConfig(config);
-		encryptor.setPlainDigest(true);
-		encryptor.setStringOutputType("hexadecimal");
+		this(false);
 		
 	}
 
 	/**
-	 * Perform hash/digest of string.
-	 * @param clear
-	 * @return HEX String of hashed data
+	 * Constructor
+	 * @param pooled If true strings are hashed using a pool of digesters sized to the number of processors.
 	 */
-	public String digest(String clear){
+	public WhirlpoolDigestProvider(boolean pooled) {
 		
-		return encryptor.encryptPassword(clear);
+		super("WHIRLPOOL", pooled);
 		
 	}
 	
@@ -35,12 +35,6 @@ import net.theblackchamber.crypto.exceptions.UnsupportedKeySizeException;
 import net.theblackchamber.crypto.providers.EncryptionProvider;
 
 import org.apache.commons.lang3.StringUtils;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
-import org.bouncycastle.util.encoders.Hex;
-import org.jasypt.encryption.pbe.PooledPBEByteEncryptor;
-import org.jasypt.encryption.pbe.PooledPBEStringEncryptor;
-import org.jasypt.encryption.pbe.config.SimplePBEConfig;
-import org.jasypt.salt.RandomSaltGenerator;
 
 /**
  * Provider which will allow for encryption and decryption of strings using the
@@ -73,37 +67,20 @@ public class AESEncryptionProvider extends EncryptionProvider {
 
 		int keySize = (key.getEncoded().length) * 8;
 
-		// Configure Encryptor
-		SimplePBEConfig config = new SimplePBEConfig();
-
 		switch (keySize) {
 		case 128:
-			config.setAlgorithm(SupportedEncryptionAlgorithms.AES128.getAlgorithm());
+			initializeEncryptors(SupportedEncryptionAlgorithms.AES128);
 			break;
 
 		case 192:
-			config.setAlgorithm(SupportedEncryptionAlgorithms.AES192.getAlgorithm());
+			initializeEncryptors(SupportedEncryptionAlgorithms.AES192);
 			break;
 
 		default:
-			config.setAlgorithm(SupportedEncryptionAlgorithms.AES256.getAlgorithm());
+			initializeEncryptors(SupportedEncryptionAlgorithms.AES256);
 			break;
 		}
 
-		config.setKeyObtentionIterations(10);
-		config.setPassword(Hex.toHexString(key.getEncoded()));
-		config.setProvider(new BouncyCastleProvider());
-		config.setSaltGenerator(new RandomSaltGenerator());
-		
-		stringEncryptor = new PooledPBEStringEncryptor();
-		stringEncryptor.setPoolSize(ENCRYPTOR_POOL_SIZE);
-		stringEncryptor.setConfig(config);
-		stringEncryptor.setStringOutputType("hexadecimal");
-
-		byteEncryptor = new PooledPBEByteEncryptor();
-		byteEncryptor.setPoolSize(ENCRYPTOR_POOL_SIZE);
-		byteEncryptor.setConfig(config);
-
 	}
 
 	/**
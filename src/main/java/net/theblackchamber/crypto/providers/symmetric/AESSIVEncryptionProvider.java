@@ -0,0 +1,360 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers.symmetric;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.MessageDigest;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.theblackchamber.crypto.constants.SupportedEncryptionAlgorithms;
+import net.theblackchamber.crypto.exceptions.MissingParameterException;
+import net.theblackchamber.crypto.exceptions.UnsupportedAlgorithmException;
+import net.theblackchamber.crypto.exceptions.UnsupportedKeySizeException;
+import net.theblackchamber.crypto.providers.CryptoProviders;
+import net.theblackchamber.crypto.providers.EncryptionProvider;
+import net.theblackchamber.crypto.util.Codecs;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+
+/**
+ * Implementation of {@link EncryptionProvider} which uses AES-SIV (RFC 5297)
+ * deterministic authenticated encryption.<br>
+ * Unlike the other providers the same clear text always encrypts to the same
+ * ciphertext under the same key, so encrypted values can be indexed, compared
+ * for equality, deduplicated and joined without decrypting them. The price
+ * is that an observer can tell when two values are equal, so this provider
+ * should only be used for fields which need it.<br>
+ * Optional associated data, for example a column name, is authenticated and
+ * changes the ciphertext, so equal values stored in different places do not
+ * match each other.<br>
+ * The key is split in half, the first half keys the CMAC based synthetic IV
+ * and the second half the AES-CTR encryption. A 256 bit AES key therefore
+ * gives AES-SIV with 128 bit AES. The output is the 16 byte synthetic IV
+ * followed by the ciphertext, which is the same length as the clear text.
+ * Strings are HEX encoded.
+ * 
+ * @author sminogue
+ * 
+ */
+public class AESSIVEncryptionProvider extends EncryptionProvider {
+
+	private static final int BLOCK_SIZE = 16;
+
+	private static final byte[] ZERO_BLOCK = new byte[BLOCK_SIZE];
+
+	private final SecretKeySpec macKey;
+
+	private final SecretKeySpec cipherKey;
+
+	private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+		@Override
+		protected Mac initialValue() {
+			try {
+				Mac mac = Mac.getInstance("AESCMAC", CryptoProviders.getProvider("Mac", "AESCMAC"));
+				mac.init(macKey);
+				return mac;
+			} catch (GeneralSecurityException e) {
+				throw new EncryptionOperationNotPossibleException(e);
+			}
+		}
+	};
+
+	private final ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>() {
+		@Override
+		protected Cipher initialValue() {
+			try {
+				return CryptoProviders.getCipher("AES/CTR/NoPadding");
+			} catch (GeneralSecurityException e) {
+				throw new EncryptionOperationNotPossibleException(e);
+			}
+		}
+	};
+
+	/**
+	 * Constructor to create a new provider.
+	 * 
+	 * @param key
+	 *            256, 384 or 512 bit AES key.
+	 * @throws UnsupportedKeySizeException
+	 *             If the key is not 256, 384 or 512 bits.
+	 * @throws UnsupportedAlgorithmException
+	 *             If the key is not an AES key.
+	 */
+	public AESSIVEncryptionProvider(final Key key) throws UnsupportedKeySizeException,
+			UnsupportedAlgorithmException {
+		super(key);
+
+		this.algorithm = SupportedEncryptionAlgorithms.AES_SIV;
+
+		byte[] encoded = key.getEncoded();
+		this.macKey = new SecretKeySpec(encoded, 0, encoded.length / 2, "AES");
+		this.cipherKey = new SecretKeySpec(encoded, encoded.length / 2, encoded.length / 2, "AES");
+
+	}
+
+	/**
+	 * @see net.theblackchamber.crypto.providers.EncryptionProvider#encrypt(java.lang.String)
+	 */
+	@Override
+	public String encrypt(String clearText) throws MissingParameterException {
+		return encrypt(clearText, null);
+	}
+
+	/**
+	 * Encrypt a string, authenticating associated data with it.
+	 * 
+	 * @param clearText
+	 * @param associatedData
+	 *            Context the value belongs to, for example a column name. May
+	 *            be null. The same associated data must be passed to decrypt.
+	 * @return HEX encoded ciphertext.
+	 * @throws MissingParameterException
+	 */
+	public String encrypt(String clearText, String associatedData) throws MissingParameterException {
+
+		if (StringUtils.isBlank(clearText)) {
+			throw new MissingParameterException("Missing parameter: clearText");
+		}
+
+		try {
+			return Codecs.toHex(encrypt(clearText.getBytes("UTF-8"), toBytes(associatedData)));
+		} catch (UnsupportedEncodingException e) {
+			throw new EncryptionOperationNotPossibleException(e);
+		}
+
+	}
+
+	/**
+	 * @see net.theblackchamber.crypto.providers.EncryptionProvider#decrypt(java.lang.String)
+	 */
+	@Override
+	public String decrypt(String cipherText) throws MissingParameterException {
+		return decrypt(cipherText, null);
+	}
+
+	/**
+	 * Decrypt a string which was encrypted with associated data.
+	 * 
+	 * @param cipherText
+	 * @param associatedData
+	 *            The associated data passed to encrypt, or null.
+	 * @return Clear text.
+	 * @throws MissingParameterException
+	 */
+	public String decrypt(String cipherText, String associatedData) throws MissingParameterException {
+
+		if (StringUtils.isBlank(cipherText)) {
+			throw new MissingParameterException("Missing parameter: cipherText");
+		}
+
+		try {
+			return new String(decrypt(Codecs.fromHex(cipherText), toBytes(associatedData)), "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new EncryptionOperationNotPossibleException(e);
+		} catch (IllegalArgumentException e) {
+			throw new EncryptionOperationNotPossibleException(e);
+		}
+
+	}
+
+	/**
+	 * @see net.theblackchamber.crypto.providers.EncryptionProvider#encrypt(byte[])
+	 */
+	@Override
+	public byte[] encrypt(byte[] clearBytes) throws MissingParameterException {
+		return encrypt(clearBytes, null);
+	}
+
+	/**
+	 * Encrypt bytes, authenticating associated data with them.
+	 * 
+	 * @param clearBytes
+	 * @param associatedData
+	 *            May be null.
+	 * @return Synthetic IV followed by the ciphertext.
+	 * @throws MissingParameterException
+	 */
+	public byte[] encrypt(byte[] clearBytes, byte[] associatedData) throws MissingParameterException {
+
+		if (clearBytes == null || clearBytes.length == 0) {
+			throw new MissingParameterException("Missing parameter: clearBytes");
+		}
+
+		byte[] iv = s2v(associatedData, clearBytes);
+
+		try {
+			byte[] result = new byte[BLOCK_SIZE + clearBytes.length];
+			System.arraycopy(iv, 0, result, 0, BLOCK_SIZE);
+			ctr(iv).doFinal(clearBytes, 0, clearBytes.length, result, BLOCK_SIZE);
+			return result;
+		} catch (GeneralSecurityException e) {
+			throw new EncryptionOperationNotPossibleException(e);
+		}
+
+	}
+
+	/**
+	 * @see net.theblackchamber.crypto.providers.EncryptionProvider#decrypt(byte[])
+	 */
+	@Override
+	public byte[] decrypt(byte[] cipherBytes) throws MissingParameterException {
+		return decrypt(cipherBytes, null);
+	}
+
+	/**
+	 * Decrypt bytes which were encrypted with associated data.
+	 * 
+	 * @param cipherBytes
+	 * @param associatedData
+	 *            The associated data passed to encrypt, or null.
+	 * @return Clear bytes.
+	 * @throws MissingParameterException
+	 */
+	public byte[] decrypt(byte[] cipherBytes, byte[] associatedData) throws MissingParameterException {
+
+		if (cipherBytes == null || cipherBytes.length == 0) {
+			throw new MissingParameterException("Missing parameter: cipherBytes");
+		}
+		if (cipherBytes.length <= BLOCK_SIZE) {
+			throw new EncryptionOperationNotPossibleException();
+		}
+
+		byte[] iv = new byte[BLOCK_SIZE];
+		System.arraycopy(cipherBytes, 0, iv, 0, BLOCK_SIZE);
+
+		byte[] clearBytes;
+		try {
+			clearBytes = ctr(iv).doFinal(cipherBytes, BLOCK_SIZE, cipherBytes.length - BLOCK_SIZE);
+		} catch (GeneralSecurityException e) {
+			throw new EncryptionOperationNotPossibleException(e);
+		}
+
+		if (!MessageDigest.isEqual(iv, s2v(associatedData, clearBytes))) {
+			// Same exception (and no detail) as the PBE providers.
+			throw new EncryptionOperationNotPossibleException();
+		}
+		return clearBytes;
+
+	}
+
+	/**
+	 * S2V from RFC 5297 for at most one associated data string followed by
+	 * the clear text.
+	 */
+	private byte[] s2v(byte[] associatedData, byte[] clearBytes) {
+
+		Mac mac = macs.get();
+
+		byte[] d = mac.doFinal(ZERO_BLOCK);
+		if (associatedData != null) {
+			d = xor(dbl(d), mac.doFinal(associatedData));
+		}
+
+		byte[] last;
+		if (clearBytes.length >= BLOCK_SIZE) {
+			int offset = clearBytes.length - BLOCK_SIZE;
+			mac.update(clearBytes, 0, offset);
+			last = new byte[BLOCK_SIZE];
+			for (int i = 0; i < BLOCK_SIZE; i++) {
+				last[i] = (byte) (clearBytes[offset + i] ^ d[i]);
+			}
+		} else {
+			last = dbl(d);
+			for (int i = 0; i < clearBytes.length; i++) {
+				last[i] ^= clearBytes[i];
+			}
+			last[clearBytes.length] ^= (byte) 0x80;
+		}
+		return mac.doFinal(last);
+
+	}
+
+	/**
+	 * @return This thread's CTR cipher, initialized with the synthetic IV
+	 *         with the two bits RFC 5297 requires cleared.
+	 */
+	private Cipher ctr(byte[] iv) throws GeneralSecurityException {
+		byte[] counter = iv.clone();
+		counter[8] &= 0x7f;
+		counter[12] &= 0x7f;
+		Cipher cipher = ciphers.get();
+		cipher.init(Cipher.ENCRYPT_MODE, cipherKey, new IvParameterSpec(counter));
+		return cipher;
+	}
+
+	/**
+	 * Doubling in GF(2^128), as used by CMAC.
+	 */
+	private static byte[] dbl(byte[] block) {
+		byte[] result = new byte[BLOCK_SIZE];
+		int carry = 0;
+		for (int i = BLOCK_SIZE - 1; i >= 0; i--) {
+			int b = block[i] & 0xff;
+			result[i] = (byte) ((b << 1) | carry);
+			carry = b >>> 7;
+		}
+		if (carry != 0) {
+			result[BLOCK_SIZE - 1] ^= (byte) 0x87;
+		}
+		return result;
+	}
+
+	private static byte[] xor(byte[] a, byte[] b) {
+		for (int i = 0; i < BLOCK_SIZE; i++) {
+			a[i] ^= b[i];
+		}
+		return a;
+	}
+
+	private static byte[] toBytes(String value) throws UnsupportedEncodingException {
+		return value == null ? null : value.getBytes("UTF-8");
+	}
+
+	/**
+	 * @see net.theblackchamber.crypto.providers.EncryptionProvider#validateKey(java.security.Key)
+	 */
+	@Override
+	protected void validateKey(Key key) throws UnsupportedKeySizeException, UnsupportedAlgorithmException {
+
+		if (!"AES".equals(key.getAlgorithm())) {
+			throw new UnsupportedAlgorithmException("Key does not support AES algorithm: [" + key.getAlgorithm()
+					+ "]");
+		}
+
+		int length = key.getEncoded().length;
+		if (length != 32 && length != 48 && length != 64) {
+			throw new UnsupportedKeySizeException("Found unsupported key size [" + (length * 8)
+					+ "]. AES-SIV only supports key sizes of 256, 384 and 512");
+		}
+
+	}
+
+}
@@ -0,0 +1,229 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers.symmetric;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.theblackchamber.crypto.constants.SupportedEncryptionAlgorithms;
+import net.theblackchamber.crypto.exceptions.MissingParameterException;
+import net.theblackchamber.crypto.exceptions.UnsupportedAlgorithmException;
+import net.theblackchamber.crypto.exceptions.UnsupportedKeySizeException;
+import net.theblackchamber.crypto.providers.CryptoProviders;
+import net.theblackchamber.crypto.providers.EncryptionProvider;
+import net.theblackchamber.crypto.util.Codecs;
+import net.theblackchamber.crypto.providers.RandomSource;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+
+/**
+ * Implementation of {@link EncryptionProvider} which uses the
+ * ChaCha20-Poly1305 authenticated cipher. ChaCha20 is fast in software, so
+ * this is the better choice on hosts without AES instructions. Unlike the
+ * PBE based providers the key is used directly, there is no key derivation
+ * per value.<br>
+ * Each value is encrypted with a random 12 byte nonce which is stored in
+ * front of the ciphertext and tag. Strings are HEX encoded.<br>
+ * Requires a JCE provider with ChaCha20-Poly1305, which the JDK includes
+ * from Java 11.
+ * 
+ * @author sminogue
+ * 
+ */
+public class ChaCha20EncryptionProvider extends EncryptionProvider {
+
+	private static final int NONCE_LENGTH = 12;
+
+	private static final int TAG_LENGTH = 16;
+
+	private final SecretKeySpec cipherKey;
+
+	private final ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>() {
+		@Override
+		protected Cipher initialValue() {
+			try {
+				return CryptoProviders.getCipher(SupportedEncryptionAlgorithms.CHACHA20_POLY1305.getAlgorithm());
+			} catch (GeneralSecurityException e) {
+				throw new EncryptionOperationNotPossibleException(e);
+			}
+		}
+	};
+
+	/**
+	 * Constructor to create a new provider.
+	 * 
+	 * @param key
+	 *            256 bit ChaCha20 key.
+	 * @throws UnsupportedKeySizeException
+	 *             If the key is not 256 bits.
+	 * @throws UnsupportedAlgorithmException
+	 *             If the key is not a ChaCha20 key or no JCE provider
+	 *             supports ChaCha20-Poly1305.
+	 */
+	public ChaCha20EncryptionProvider(final Key key) throws UnsupportedKeySizeException,
+			UnsupportedAlgorithmException {
+		super(key);
+
+		this.algorithm = SupportedEncryptionAlgorithms.CHACHA20_POLY1305;
+		this.cipherKey = new SecretKeySpec(key.getEncoded(), "ChaCha20");
+
+		try {
+			CryptoProviders.getCipher(algorithm.getAlgorithm());
+		} catch (GeneralSecurityException e) {
+			throw new UnsupportedAlgorithmException("ChaCha20-Poly1305 is not available: " + e.getMessage(), e);
+		}
+
+	}
+
+	/**
+	 * @see net.theblackchamber.crypto.providers.EncryptionProvider#encrypt(java.lang.String)
+	 */
+	@Override
+	public String encrypt(String clearText) throws MissingParameterException {
+
+		if (StringUtils.isBlank(clearText)) {
+			throw new MissingParameterException("Missing parameter: clearText");
+		}
+
+		try {
+			return Codecs.toHex(encrypt(clearText.getBytes("UTF-8")));
+		} catch (UnsupportedEncodingException e) {
+			throw new EncryptionOperationNotPossibleException(e);
+		}
+
+	}
+
+	/**
+	 * @see net.theblackchamber.crypto.providers.EncryptionProvider#decrypt(java.lang.String)
+	 */
+	@Override
+	public String decrypt(String cipherText) throws MissingParameterException {
+
+		if (StringUtils.isBlank(cipherText)) {
+			throw new MissingParameterException("Missing parameter: cipherText");
+		}
+
+		try {
+			return new String(decrypt(Codecs.fromHex(cipherText)), "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new EncryptionOperationNotPossibleException(e);
+		} catch (IllegalArgumentException e) {
+			throw new EncryptionOperationNotPossibleException(e);
+		}
+
+	}
+
+	/**
+	 * @see net.theblackchamber.crypto.providers.EncryptionProvider#encrypt(byte[])
+	 */
+	@Override
+	public byte[] encrypt(byte[] clearBytes) throws MissingParameterException {
+
+		if (clearBytes == null || clearBytes.length == 0) {
+			throw new MissingParameterException("Missing parameter: clearBytes");
+		}
+
+		byte[] nonce = new byte[NONCE_LENGTH];
+		RandomSource.nextBytes(nonce);
+
+		try {
+			Cipher cipher = initCipher(Cipher.ENCRYPT_MODE, new IvParameterSpec(nonce));
+			byte[] cipherBytes = cipher.doFinal(clearBytes);
+			byte[] result = new byte[NONCE_LENGTH + cipherBytes.length];
+			System.arraycopy(nonce, 0, result, 0, NONCE_LENGTH);
+			System.arraycopy(cipherBytes, 0, result, NONCE_LENGTH, cipherBytes.length);
+			return result;
+		} catch (GeneralSecurityException e) {
+			throw new EncryptionOperationNotPossibleException(e);
+		}
+
+	}
+
+	/**
+	 * @see net.theblackchamber.crypto.providers.EncryptionProvider#decrypt(byte[])
+	 */
+	@Override
+	public byte[] decrypt(byte[] cipherBytes) throws MissingParameterException {
+
+		if (cipherBytes == null || cipherBytes.length == 0) {
+			throw new MissingParameterException("Missing parameter: cipherBytes");
+		}
+		if (cipherBytes.length < NONCE_LENGTH + TAG_LENGTH) {
+			throw new EncryptionOperationNotPossibleException();
+		}
+
+		try {
+			Cipher cipher = initCipher(Cipher.DECRYPT_MODE, new IvParameterSpec(cipherBytes, 0, NONCE_LENGTH));
+			return cipher.doFinal(cipherBytes, NONCE_LENGTH, cipherBytes.length - NONCE_LENGTH);
+		} catch (GeneralSecurityException e) {
+			// Same exception (and no detail) as the PBE providers.
+			throw new EncryptionOperationNotPossibleException();
+		}
+
+	}
+
+	/**
+	 * Initialize this thread's cipher. The JDK cipher refuses to be
+	 * initialized twice in a row with the same key and nonce (for example
+	 * when the same value is decrypted twice), in which case a new cipher is
+	 * created for the thread.
+	 */
+	private Cipher initCipher(int mode, IvParameterSpec nonce) throws GeneralSecurityException {
+		Cipher cipher = ciphers.get();
+		try {
+			cipher.init(mode, cipherKey, nonce);
+		} catch (InvalidKeyException e) {
+			cipher = CryptoProviders.getCipher(algorithm.getAlgorithm());
+			cipher.init(mode, cipherKey, nonce);
+			ciphers.set(cipher);
+		}
+		return cipher;
+	}
+
+	/**
+	 * @see net.theblackchamber.crypto.providers.EncryptionProvider#validateKey(java.security.Key)
+	 */
+	@Override
+	protected void validateKey(Key key) throws UnsupportedKeySizeException, UnsupportedAlgorithmException {
+
+		if (!"ChaCha20".equals(key.getAlgorithm())) {
+			throw new UnsupportedAlgorithmException("Key does not support ChaCha20 algorithm: ["
+					+ key.getAlgorithm() + "]");
+		}
+
+		if (key.getEncoded().length != 32) {
+			throw new UnsupportedKeySizeException("Found unsupported key size [" + (key.getEncoded().length * 8)
+					+ "]. The ChaCha20 algorithm only supports a key size of 256");
+		}
+
+	}
+
+}
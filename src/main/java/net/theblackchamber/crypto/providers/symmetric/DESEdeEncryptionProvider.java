@@ -31,12 +31,6 @@ import net.theblackchamber.crypto.exceptions.UnsupportedAlgorithmException;
 import net.theblackchamber.crypto.exceptions.UnsupportedKeySizeException;
 import net.theblackchamber.crypto.providers.EncryptionProvider;
 
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
-import org.bouncycastle.util.encoders.Hex;
-import org.jasypt.encryption.pbe.PooledPBEByteEncryptor;
-import org.jasypt.encryption.pbe.PooledPBEStringEncryptor;
-import org.jasypt.encryption.pbe.config.SimplePBEConfig;
-import org.jasypt.salt.RandomSaltGenerator;
 
 /**
  * 
@@ -55,30 +49,13 @@ public class DESEdeEncryptionProvider extends EncryptionProvider {
 
 		int keySize = (key.getEncoded().length) * 8;
 
-		// Configure Encryptor
-		SimplePBEConfig config = new SimplePBEConfig();
-
 		switch (keySize) {
 
 		default:
-			config.setAlgorithm(SupportedEncryptionAlgorithms.DES.getAlgorithm());
+			initializeEncryptors(SupportedEncryptionAlgorithms.DES);
 			break;
 		}
 
-		config.setKeyObtentionIterations(10);
-		config.setPassword(Hex.toHexString(key.getEncoded()));
-		config.setProvider(new BouncyCastleProvider());
-		config.setSaltGenerator(new RandomSaltGenerator());
-
-		stringEncryptor = new PooledPBEStringEncryptor();
-		stringEncryptor.setPoolSize(ENCRYPTOR_POOL_SIZE);
-		stringEncryptor.setConfig(config);
-		stringEncryptor.setStringOutputType("hexadecimal");
-
-		byteEncryptor = new PooledPBEByteEncryptor();
-		byteEncryptor.setPoolSize(ENCRYPTOR_POOL_SIZE);
-		byteEncryptor.setConfig(config);
-
 	}
 
 	/**
@@ -0,0 +1,176 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Replaces keystores and properties files by writing a temporary file next to
+ * the target and atomically moving it over the target.<br>
+ * The temporary file is created readable by its owner only, and before the
+ * move it is given the permissions, owner and group of the file it replaces,
+ * so rewriting a file never exposes its key material or passwords. A target
+ * which does not exist yet is created readable by its owner only.
+ * 
+ * @author sminogue
+ * 
+ */
+final class AtomicFiles {
+
+	private static final String OWNER_ONLY = "rw-------";
+
+	private AtomicFiles() {
+	}
+
+	/**
+	 * Write bytes to a temporary file next to the target which then
+	 * atomically replaces it.
+	 * 
+	 * @param target
+	 * @param content
+	 * @throws IOException
+	 */
+	static void write(File target, byte[] content) throws IOException {
+
+		File tmpFile = createTempFile(target);
+		try {
+
+			FileOutputStream fos = new FileOutputStream(tmpFile);
+			try {
+				fos.write(content);
+			} finally {
+				fos.close();
+			}
+			moveIntoPlace(tmpFile, target);
+
+		} finally {
+			if (tmpFile.exists()) {
+				tmpFile.delete();
+			}
+		}
+
+	}
+
+	/**
+	 * Create an empty temporary file, readable by its owner only, in the
+	 * target's directory. The caller must delete it if it is not moved into
+	 * place.
+	 * 
+	 * @param target
+	 * @return The temporary file.
+	 * @throws IOException
+	 */
+	static File createTempFile(File target) throws IOException {
+
+		File parent = target.getAbsoluteFile().getParentFile();
+		if (!parent.exists()) {
+			parent.mkdirs();
+		}
+		Path directory = parent.toPath();
+		String prefix = target.getName() + ".";
+		if (isPosix(directory)) {
+			return Files.createTempFile(directory, prefix, ".tmp",
+					PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString(OWNER_ONLY))).toFile();
+		}
+		return Files.createTempFile(directory, prefix, ".tmp").toFile();
+
+	}
+
+	/**
+	 * Atomically replace the target with a temporary file made by
+	 * {@link #createTempFile(File)}, first giving it the permissions, owner
+	 * and group of the target if the target exists.
+	 * 
+	 * @param tmpFile
+	 * @param target
+	 * @throws IOException
+	 */
+	static void moveIntoPlace(File tmpFile, File target) throws IOException {
+
+		Path tmpPath = tmpFile.toPath();
+		Path targetPath = target.getAbsoluteFile().toPath();
+		if (Files.exists(targetPath) && isPosix(tmpPath)) {
+			copyAttributes(targetPath, tmpPath);
+		}
+
+		try {
+			Files.move(tmpPath, targetPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmpPath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+		}
+
+	}
+
+	/**
+	 * Give the temporary file the owner, group and permissions of the target.
+	 * Only a privileged user can give a file away, so when the owner can not
+	 * be changed the file stays with the writing user, who could already
+	 * write the target. When the group can not be changed the group
+	 * permissions are dropped rather than granted to a different group.
+	 */
+	private static void copyAttributes(Path target, Path tmpPath) throws IOException {
+
+		PosixFileAttributes attributes = Files.readAttributes(target, PosixFileAttributes.class);
+		PosixFileAttributes current = Files.readAttributes(tmpPath, PosixFileAttributes.class);
+		PosixFileAttributeView view = Files.getFileAttributeView(tmpPath, PosixFileAttributeView.class);
+		Set<PosixFilePermission> permissions = new HashSet<PosixFilePermission>(attributes.permissions());
+
+		if (!attributes.owner().equals(current.owner())) {
+			try {
+				view.setOwner(attributes.owner());
+			} catch (FileSystemException e) {
+				// Not permitted, keep the writing user as the owner.
+			}
+		}
+		if (!attributes.group().equals(current.group())) {
+			try {
+				view.setGroup(attributes.group());
+			} catch (FileSystemException e) {
+				permissions.remove(PosixFilePermission.GROUP_READ);
+				permissions.remove(PosixFilePermission.GROUP_WRITE);
+				permissions.remove(PosixFilePermission.GROUP_EXECUTE);
+			}
+		}
+		view.setPermissions(permissions);
+
+	}
+
+	private static boolean isPosix(Path path) throws IOException {
+		return Files.getFileStore(path).supportsFileAttributeView(PosixFileAttributeView.class);
+	}
+
+}
@@ -0,0 +1,294 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.util;
+
+import java.util.Arrays;
+
+/**
+ * Table driven HEX and Base64 encoding of ciphertext, digests and tokens.<br>
+ * Each byte is converted with a single table lookup rather than through
+ * Strings or Integer parsing, and the array based methods write into buffers
+ * supplied by the caller so they can be reused. HEX is written in upper case
+ * like jasypt's CommonUtils, and either case is read. Base64 uses the
+ * standard alphabet with padding.<br>
+ * Invalid input throws an IllegalArgumentException.
+ * 
+ * @author sminogue
+ * 
+ */
+public final class Codecs {
+
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+	private static final char[] BASE64_DIGITS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+			.toCharArray();
+
+	/**
+	 * HEX digit values indexed by character, -1 if not a digit.
+	 */
+	private static final byte[] HEX_VALUES = new byte[128];
+
+	/**
+	 * Base64 digit values indexed by character, -1 if not a digit.
+	 */
+	private static final byte[] BASE64_VALUES = new byte[128];
+
+	/**
+	 * Both HEX digits of each byte value.
+	 */
+	private static final char[] HEX_PAIRS = new char[512];
+
+	static {
+		Arrays.fill(HEX_VALUES, (byte) -1);
+		for (int i = 0; i < 16; i++) {
+			HEX_VALUES[HEX_DIGITS[i]] = (byte) i;
+			HEX_VALUES[Character.toLowerCase(HEX_DIGITS[i])] = (byte) i;
+		}
+		for (int i = 0; i < 256; i++) {
+			HEX_PAIRS[i * 2] = HEX_DIGITS[i >>> 4];
+			HEX_PAIRS[i * 2 + 1] = HEX_DIGITS[i & 0x0f];
+		}
+		Arrays.fill(BASE64_VALUES, (byte) -1);
+		for (int i = 0; i < BASE64_DIGITS.length; i++) {
+			BASE64_VALUES[BASE64_DIGITS[i]] = (byte) i;
+		}
+	}
+
+	private Codecs() {
+	}
+
+	/**
+	 * @param bytes
+	 * @return Upper case HEX.
+	 */
+	public static String toHex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		encodeHex(bytes, 0, bytes.length, chars, 0);
+		return new String(chars);
+	}
+
+	/**
+	 * Encode bytes as upper case HEX into a buffer.
+	 * 
+	 * @param src
+	 * @param offset
+	 * @param length
+	 *            Number of bytes to encode.
+	 * @param dst
+	 *            Buffer with room for length * 2 characters.
+	 * @param dstOffset
+	 * @return Number of characters written.
+	 */
+	public static int encodeHex(byte[] src, int offset, int length, char[] dst, int dstOffset) {
+		int j = dstOffset;
+		for (int i = offset; i < offset + length; i++) {
+			int pair = (src[i] & 0xff) << 1;
+			dst[j++] = HEX_PAIRS[pair];
+			dst[j++] = HEX_PAIRS[pair + 1];
+		}
+		return length * 2;
+	}
+
+	/**
+	 * @param hex
+	 *            HEX in either case.
+	 * @return The bytes.
+	 */
+	public static byte[] fromHex(CharSequence hex) {
+		if (hex.length() % 2 != 0) {
+			throw new IllegalArgumentException("HEX input has an odd length");
+		}
+		byte[] bytes = new byte[hex.length() / 2];
+		decodeHex(hex, 0, hex.length(), bytes, 0);
+		return bytes;
+	}
+
+	/**
+	 * Decode HEX into a buffer.
+	 * 
+	 * @param src
+	 * @param offset
+	 * @param length
+	 *            Number of characters to decode, must be even.
+	 * @param dst
+	 *            Buffer with room for length / 2 bytes.
+	 * @param dstOffset
+	 * @return Number of bytes written.
+	 */
+	public static int decodeHex(CharSequence src, int offset, int length, byte[] dst, int dstOffset) {
+		if (length % 2 != 0) {
+			throw new IllegalArgumentException("HEX input has an odd length");
+		}
+		int j = dstOffset;
+		for (int i = offset; i < offset + length; i += 2) {
+			int high = hexValue(src.charAt(i));
+			int low = hexValue(src.charAt(i + 1));
+			dst[j++] = (byte) ((high << 4) | low);
+		}
+		return length / 2;
+	}
+
+	/**
+	 * @param bytes
+	 * @return Padded Base64.
+	 */
+	public static String toBase64(byte[] bytes) {
+		char[] chars = new char[base64Length(bytes.length)];
+		encodeBase64(bytes, 0, bytes.length, chars, 0);
+		return new String(chars);
+	}
+
+	/**
+	 * @param length
+	 *            Number of bytes.
+	 * @return Number of characters they encode to in padded Base64.
+	 */
+	public static int base64Length(int length) {
+		return (length + 2) / 3 * 4;
+	}
+
+	/**
+	 * Encode bytes as padded Base64 into a buffer.
+	 * 
+	 * @param src
+	 * @param offset
+	 * @param length
+	 *            Number of bytes to encode.
+	 * @param dst
+	 *            Buffer with room for {@link #base64Length(int)} characters.
+	 * @param dstOffset
+	 * @return Number of characters written.
+	 */
+	public static int encodeBase64(byte[] src, int offset, int length, char[] dst, int dstOffset) {
+
+		int i = offset;
+		int j = dstOffset;
+		int end = offset + length - length % 3;
+		while (i < end) {
+			int bits = (src[i++] & 0xff) << 16 | (src[i++] & 0xff) << 8 | (src[i++] & 0xff);
+			dst[j++] = BASE64_DIGITS[bits >>> 18];
+			dst[j++] = BASE64_DIGITS[(bits >>> 12) & 0x3f];
+			dst[j++] = BASE64_DIGITS[(bits >>> 6) & 0x3f];
+			dst[j++] = BASE64_DIGITS[bits & 0x3f];
+		}
+
+		int remaining = offset + length - i;
+		if (remaining > 0) {
+			int bits = (src[i++] & 0xff) << 16;
+			if (remaining == 2) {
+				bits |= (src[i] & 0xff) << 8;
+			}
+			dst[j++] = BASE64_DIGITS[bits >>> 18];
+			dst[j++] = BASE64_DIGITS[(bits >>> 12) & 0x3f];
+			dst[j++] = remaining == 2 ? BASE64_DIGITS[(bits >>> 6) & 0x3f] : '=';
+			dst[j++] = '=';
+		}
+
+		return j - dstOffset;
+
+	}
+
+	/**
+	 * @param base64
+	 *            Padded Base64.
+	 * @return The bytes.
+	 */
+	public static byte[] fromBase64(CharSequence base64) {
+		byte[] bytes = new byte[decodedBase64Length(base64, 0, base64.length())];
+		decodeBase64(base64, 0, base64.length(), bytes, 0);
+		return bytes;
+	}
+
+	/**
+	 * Decode padded Base64 into a buffer.
+	 * 
+	 * @param src
+	 * @param offset
+	 * @param length
+	 *            Number of characters to decode, a multiple of 4.
+	 * @param dst
+	 *            Buffer with room for the decoded bytes.
+	 * @param dstOffset
+	 * @return Number of bytes written.
+	 */
+	public static int decodeBase64(CharSequence src, int offset, int length, byte[] dst, int dstOffset) {
+
+		int decodedLength = decodedBase64Length(src, offset, length);
+		int j = dstOffset;
+		int end = dstOffset + decodedLength;
+		for (int i = offset; i < offset + length; i += 4) {
+			int bits = base64Value(src.charAt(i)) << 18 | base64Value(src.charAt(i + 1)) << 12;
+			boolean last = i + 4 == offset + length;
+			if (last && src.charAt(i + 2) == '=' && src.charAt(i + 3) != '=') {
+				throw new IllegalArgumentException("Invalid Base64 padding");
+			}
+			if (!last || src.charAt(i + 2) != '=') {
+				bits |= base64Value(src.charAt(i + 2)) << 6;
+			}
+			if (!last || src.charAt(i + 3) != '=') {
+				bits |= base64Value(src.charAt(i + 3));
+			}
+			dst[j++] = (byte) (bits >>> 16);
+			if (j < end) {
+				dst[j++] = (byte) (bits >>> 8);
+			}
+			if (j < end) {
+				dst[j++] = (byte) bits;
+			}
+		}
+		return decodedLength;
+
+	}
+
+	private static int decodedBase64Length(CharSequence src, int offset, int length) {
+		if (length % 4 != 0) {
+			throw new IllegalArgumentException("Base64 input length is not a multiple of 4");
+		}
+		int padding = 0;
+		if (length > 0 && src.charAt(offset + length - 1) == '=') {
+			padding++;
+			if (src.charAt(offset + length - 2) == '=') {
+				padding++;
+			}
+		}
+		return length / 4 * 3 - padding;
+	}
+
+	private static int hexValue(char c) {
+		int value = c < 128 ? HEX_VALUES[c] : -1;
+		if (value < 0) {
+			throw new IllegalArgumentException("Invalid HEX character [" + c + "]");
+		}
+		return value;
+	}
+
+	private static int base64Value(char c) {
+		int value = c < 128 ? BASE64_VALUES[c] : -1;
+		if (value < 0) {
+			throw new IllegalArgumentException("Invalid Base64 character [" + c + "]");
+		}
+		return value;
+	}
+
+}
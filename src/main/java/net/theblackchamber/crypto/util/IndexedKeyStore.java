@@ -0,0 +1,566 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.theblackchamber.crypto.providers.CryptoProviders;
+import net.theblackchamber.crypto.providers.RandomSource;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Key store format for key stores with many entries, where reading one
+ * entry costs the same however many entries the store holds.<br>
+ * A JCEKS key store has to be read and integrity checked in full on every
+ * load, and derives a key from the password for every entry read. This
+ * format instead derives one master key from the password (PBKDF2 with
+ * HMAC-SHA256) when the store is opened, memory maps the file and finds
+ * entries through an on disk hash table, so only the table slot and the
+ * entry itself are read. The header and hash table are authenticated with the
+ * master key when the store is opened and the table is kept in memory, so
+ * slots can not be removed or redirected. Each entry is encrypted separately
+ * with AES-GCM under the master key, with its name and algorithm
+ * authenticated, so a damaged or substituted entry is detected when it is
+ * read.<br>
+ * Stores are written in one step, see {@link #write(File, String, Map)}, and
+ * can be converted to and from JCEKS with {@link #fromJceks(File, String, File)}
+ * and {@link #toJceks(File, String, File)}. Instances are thread safe.
+ * 
+ * @author sminogue
+ * 
+ */
+public class IndexedKeyStore implements Closeable {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final byte[] MAGIC = { 'I', 'K', 'S', 'T' };
+
+	private static final byte VERSION = 2;
+
+	private static final int DEFAULT_ITERATIONS = 100000;
+
+	private static final int SALT_LENGTH = 16;
+
+	private static final int IV_LENGTH = 12;
+
+	private static final int TAG_LENGTH = 16;
+
+	/**
+	 * Magic, version, 3 reserved bytes, iterations, entry count, slot count,
+	 * salt. Authenticated by the password check which follows it.
+	 */
+	private static final int PARAMETERS_LENGTH = 4 + 1 + 3 + 4 + 4 + 4 + SALT_LENGTH;
+
+	/**
+	 * Parameters followed by the IV and tag of the password check, which also
+	 * authenticates the hash table.
+	 */
+	private static final int HEADER_LENGTH = PARAMETERS_LENGTH + IV_LENGTH + TAG_LENGTH;
+
+	/**
+	 * Each hash table slot is the 8 byte hash of a name and the 8 byte offset
+	 * of its entry, 0 if the slot is empty.
+	 */
+	private static final int SLOT_LENGTH = 16;
+
+	private final ByteBuffer buffer;
+	private final ByteBuffer slots;
+	private final SecretKeySpec masterKey;
+	private final int size;
+	private final int slotCount;
+
+	private IndexedKeyStore(ByteBuffer buffer, ByteBuffer slots, SecretKeySpec masterKey, int size, int slotCount) {
+		this.buffer = buffer;
+		this.slots = slots;
+		this.masterKey = masterKey;
+		this.size = size;
+		this.slotCount = slotCount;
+	}
+
+	/**
+	 * Open a store. The file is memory mapped and the password checked, no
+	 * entries are read.
+	 * 
+	 * @param file
+	 * @param password
+	 * @return The store.
+	 * @throws FileNotFoundException
+	 *             If the file does not exist.
+	 * @throws KeyStoreException
+	 *             If the file is not an indexed key store or the password is
+	 *             incorrect.
+	 * @throws IOException
+	 */
+	public static IndexedKeyStore open(File file, String password) throws KeyStoreException, IOException {
+
+		if (file == null || !file.exists()) {
+			throw new FileNotFoundException();
+		}
+		if (StringUtils.isEmpty(password)) {
+			throw new KeyStoreException("No Keystore password provided.");
+		}
+
+		MappedByteBuffer buffer;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() < HEADER_LENGTH || channel.size() > Integer.MAX_VALUE) {
+				throw new KeyStoreException("Not an indexed keystore.");
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			// The mapping stays valid after the channel is closed.
+			raf.close();
+		}
+
+		byte[] magic = new byte[MAGIC.length];
+		buffer.get(magic);
+		if (!MessageDigest.isEqual(MAGIC, magic) || buffer.get() != VERSION) {
+			throw new KeyStoreException("Not an indexed keystore.");
+		}
+		buffer.position(8);
+		int iterations = buffer.getInt();
+		int size = buffer.getInt();
+		int slotCount = buffer.getInt();
+		byte[] salt = new byte[SALT_LENGTH];
+		buffer.get(salt);
+		if (iterations < 1 || size < 0 || Integer.bitCount(slotCount) != 1
+				|| HEADER_LENGTH + (long) slotCount * SLOT_LENGTH > buffer.capacity()) {
+			throw new KeyStoreException("Indexed keystore header is invalid.");
+		}
+
+		SecretKeySpec masterKey = deriveKey(password, salt, iterations);
+
+		// The table is copied so that it can not change once authenticated.
+		byte[] parameters = new byte[PARAMETERS_LENGTH];
+		byte[] check = new byte[IV_LENGTH + TAG_LENGTH];
+		byte[] slots = new byte[slotCount * SLOT_LENGTH];
+		buffer.position(0);
+		buffer.get(parameters);
+		buffer.get(check);
+		buffer.get(slots);
+		try {
+			Cipher cipher = gcm(Cipher.DECRYPT_MODE, masterKey, check, 0);
+			cipher.updateAAD(parameters);
+			cipher.updateAAD(slots);
+			cipher.doFinal(check, IV_LENGTH, TAG_LENGTH);
+		} catch (GeneralSecurityException e) {
+			throw new KeyStoreException("Keystore was tampered with, or password was incorrect");
+		}
+
+		ByteBuffer slotBuffer = ByteBuffer.wrap(slots).asReadOnlyBuffer();
+		int entriesStart = HEADER_LENGTH + slots.length;
+		for (int slot = 0; slot < slotCount; slot++) {
+			long offset = slotBuffer.getLong(slot * SLOT_LENGTH + 8);
+			if (offset != 0 && (offset < entriesStart || offset >= buffer.capacity())) {
+				throw new KeyStoreException("Indexed keystore index is invalid.");
+			}
+		}
+
+		return new IndexedKeyStore(buffer, slotBuffer, masterKey, size, slotCount);
+
+	}
+
+	/**
+	 * Read one entry.
+	 * 
+	 * @param entryName
+	 * @return The key, or null if there is no such entry.
+	 * @throws KeyStoreException
+	 *             If the entry is damaged.
+	 */
+	public SecretKey getSecretKey(String entryName) throws KeyStoreException {
+
+		if (StringUtils.isEmpty(entryName)) {
+			throw new KeyStoreException("No Keystore entry name provided.");
+		}
+
+		byte[] name = entryName.getBytes(UTF8);
+		int offset = find(name);
+		if (offset < 0) {
+			return null;
+		}
+		return readEntry(offset);
+
+	}
+
+	/**
+	 * @param entryName
+	 * @return True if the store has an entry with the name.
+	 * @throws KeyStoreException
+	 *             If the entry is damaged.
+	 */
+	public boolean containsAlias(String entryName) throws KeyStoreException {
+		return StringUtils.isNotEmpty(entryName) && find(entryName.getBytes(UTF8)) >= 0;
+	}
+
+	/**
+	 * @return Number of entries.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * List the entry names. Unlike a lookup this reads the whole index.
+	 * 
+	 * @return The entry names.
+	 * @throws KeyStoreException
+	 *             If an entry is damaged.
+	 */
+	public List<String> aliases() throws KeyStoreException {
+
+		ByteBuffer view = buffer.duplicate();
+		List<String> aliases = new ArrayList<String>(size);
+		try {
+			for (int slot = 0; slot < slotCount; slot++) {
+				long offset = slots.getLong(slot * SLOT_LENGTH + 8);
+				if (offset != 0) {
+					view.position((int) offset);
+					aliases.add(new String(readField(view, view.getShort() & 0xffff), UTF8));
+				}
+			}
+		} catch (RuntimeException e) {
+			throw new KeyStoreException("Keystore entry is damaged.", e);
+		}
+		return aliases;
+
+	}
+
+	/**
+	 * Release the store. The mapping itself is released by the garbage
+	 * collector.
+	 */
+	@Override
+	public void close() {
+		// Nothing is held open, the channel was closed once mapped.
+	}
+
+	/**
+	 * Write a store holding the keys, replacing the file atomically.
+	 * 
+	 * @param file
+	 * @param password
+	 * @param keys
+	 *            Keys by entry name.
+	 * @throws KeyStoreException
+	 * @throws IOException
+	 */
+	public static void write(File file, String password, Map<String, SecretKey> keys) throws KeyStoreException,
+			IOException {
+
+		if (file == null || keys == null) {
+			throw new KeyStoreException("Missing parameters, unable to create keystore.");
+		}
+		if (StringUtils.isEmpty(password)) {
+			throw new KeyStoreException("No Keystore password provided.");
+		}
+
+		byte[] salt = RandomSource.nextBytes(SALT_LENGTH);
+		SecretKeySpec masterKey = deriveKey(password, salt, DEFAULT_ITERATIONS);
+
+		int slotCount = Integer.highestOneBit(Math.max(1, keys.size() * 2 - 1)) << 1;
+		ByteBuffer parameters = ByteBuffer.allocate(PARAMETERS_LENGTH);
+		parameters.put(MAGIC).put(VERSION).put(new byte[3]);
+		parameters.putInt(DEFAULT_ITERATIONS).putInt(keys.size()).putInt(slotCount).put(salt);
+
+		try {
+
+			ByteBuffer slots = ByteBuffer.allocate(slotCount * SLOT_LENGTH);
+			ByteArrayOutputStream entries = new ByteArrayOutputStream();
+			DataOutputStream entryOut = new DataOutputStream(entries);
+			int entriesStart = HEADER_LENGTH + slots.capacity();
+			byte[] iv;
+			Cipher cipher;
+
+			for (Map.Entry<String, SecretKey> key : keys.entrySet()) {
+
+				byte[] name = key.getKey().getBytes(UTF8);
+				byte[] algorithm = key.getValue().getAlgorithm().getBytes(UTF8);
+				if (name.length == 0 || name.length > 0xffff || algorithm.length > 0xff) {
+					throw new KeyStoreException("Invalid entry name or algorithm: [" + key.getKey() + "]");
+				}
+
+				long hash = hash(name);
+				int slot = (int) hash & (slotCount - 1);
+				while (slots.getLong(slot * SLOT_LENGTH + 8) != 0) {
+					slot = (slot + 1) & (slotCount - 1);
+				}
+				slots.putLong(slot * SLOT_LENGTH, hash);
+				slots.putLong(slot * SLOT_LENGTH + 8, entriesStart + entryOut.size());
+
+				iv = RandomSource.nextBytes(IV_LENGTH);
+				cipher = gcm(Cipher.ENCRYPT_MODE, masterKey, iv, 0);
+				cipher.updateAAD(associatedData(name, algorithm));
+				byte[] encrypted = cipher.doFinal(key.getValue().getEncoded());
+
+				entryOut.writeShort(name.length);
+				entryOut.write(name);
+				entryOut.writeByte(algorithm.length);
+				entryOut.write(algorithm);
+				entryOut.write(iv);
+				entryOut.writeShort(encrypted.length);
+				entryOut.write(encrypted);
+
+			}
+
+			// The password check authenticates the parameters and the table.
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			out.write(parameters.array());
+			iv = RandomSource.nextBytes(IV_LENGTH);
+			cipher = gcm(Cipher.ENCRYPT_MODE, masterKey, iv, 0);
+			cipher.updateAAD(parameters.array());
+			cipher.updateAAD(slots.array());
+			out.write(iv);
+			out.write(cipher.doFinal());
+
+			out.write(slots.array());
+			entryOut.flush();
+			entries.writeTo(out);
+			AtomicFiles.write(file, out.toByteArray());
+
+		} catch (GeneralSecurityException e) {
+			throw new KeyStoreException(e.getMessage(), e);
+		}
+
+	}
+
+	/**
+	 * Convert a JCEKS key store to an indexed key store. Only secret key
+	 * entries are converted.
+	 * 
+	 * @param jceksFile
+	 * @param password
+	 *            Password of the JCEKS store and its entries, also used for
+	 *            the indexed store.
+	 * @param indexedFile
+	 * @throws KeyStoreException
+	 * @throws IOException
+	 */
+	public static void fromJceks(File jceksFile, String password, File indexedFile) throws KeyStoreException,
+			IOException {
+
+		if (jceksFile == null || !jceksFile.exists() || FileUtils.sizeOf(jceksFile) == 0) {
+			throw new FileNotFoundException();
+		}
+		if (StringUtils.isEmpty(password)) {
+			throw new KeyStoreException("No Keystore password provided.");
+		}
+
+		Map<String, SecretKey> keys = new LinkedHashMap<String, SecretKey>();
+		KeyStore keyStore = KeyStore.getInstance("JCEKS");
+		FileInputStream fis = new FileInputStream(jceksFile);
+		try {
+			keyStore.load(fis, password.toCharArray());
+			KeyStore.ProtectionParameter protectionParameter = new KeyStore.PasswordProtection(
+					password.toCharArray());
+			for (Enumeration<String> aliases = keyStore.aliases(); aliases.hasMoreElements();) {
+				String alias = aliases.nextElement();
+				if (keyStore.entryInstanceOf(alias, KeyStore.SecretKeyEntry.class)) {
+					keys.put(alias,
+							((KeyStore.SecretKeyEntry) keyStore.getEntry(alias, protectionParameter)).getSecretKey());
+				}
+			}
+		} catch (GeneralSecurityException e) {
+			throw new KeyStoreException(e.getMessage(), e);
+		} finally {
+			fis.close();
+		}
+
+		write(indexedFile, password, keys);
+
+	}
+
+	/**
+	 * Convert an indexed key store to a JCEKS key store.
+	 * 
+	 * @param indexedFile
+	 * @param password
+	 *            Password of the indexed store, also used for the JCEKS store
+	 *            and its entries.
+	 * @param jceksFile
+	 * @throws KeyStoreException
+	 * @throws IOException
+	 */
+	public static void toJceks(File indexedFile, String password, File jceksFile) throws KeyStoreException,
+			IOException {
+
+		IndexedKeyStore indexed = open(indexedFile, password);
+		try {
+
+			KeyStore keyStore = KeyStore.getInstance("JCEKS");
+			keyStore.load(null, password.toCharArray());
+			KeyStore.ProtectionParameter protectionParameter = new KeyStore.PasswordProtection(
+					password.toCharArray());
+			for (String alias : indexed.aliases()) {
+				keyStore.setEntry(alias, new KeyStore.SecretKeyEntry(indexed.getSecretKey(alias)),
+						protectionParameter);
+			}
+			KeystoreUtils.storeKeyStore(keyStore, jceksFile.getAbsoluteFile(), password.toCharArray());
+
+		} catch (GeneralSecurityException e) {
+			throw new KeyStoreException(e.getMessage(), e);
+		} finally {
+			indexed.close();
+		}
+
+	}
+
+	/**
+	 * @return Offset of the named entry, -1 if there is none.
+	 * @throws KeyStoreException
+	 *             If an entry the table points to is damaged.
+	 */
+	private int find(byte[] name) throws KeyStoreException {
+
+		ByteBuffer view = buffer.duplicate();
+		long hash = hash(name);
+		int slot = (int) hash & (slotCount - 1);
+		try {
+			for (int probes = 0; probes < slotCount; probes++) {
+				int slotOffset = slot * SLOT_LENGTH;
+				// Offsets were checked against the file when it was opened.
+				long offset = slots.getLong(slotOffset + 8);
+				if (offset == 0) {
+					return -1;
+				}
+				if (slots.getLong(slotOffset) == hash) {
+					view.position((int) offset);
+					int nameLength = view.getShort() & 0xffff;
+					if (nameLength == name.length && MessageDigest.isEqual(name, readField(view, nameLength))) {
+						return (int) offset;
+					}
+				}
+				slot = (slot + 1) & (slotCount - 1);
+			}
+		} catch (RuntimeException e) {
+			throw new KeyStoreException("Keystore entry is damaged.", e);
+		}
+		return -1;
+
+	}
+
+	private SecretKey readEntry(int offset) throws KeyStoreException {
+
+		try {
+
+			ByteBuffer view = buffer.duplicate();
+			view.position(offset);
+			byte[] name = readField(view, view.getShort() & 0xffff);
+			byte[] algorithm = readField(view, view.get() & 0xff);
+			byte[] iv = readField(view, IV_LENGTH);
+			byte[] encrypted = readField(view, view.getShort() & 0xffff);
+
+			Cipher cipher = gcm(Cipher.DECRYPT_MODE, masterKey, iv, 0);
+			cipher.updateAAD(associatedData(name, algorithm));
+			byte[] encoded = cipher.doFinal(encrypted);
+			try {
+				return new SecretKeySpec(encoded, new String(algorithm, UTF8));
+			} finally {
+				Arrays.fill(encoded, (byte) 0);
+			}
+
+		} catch (GeneralSecurityException e) {
+			throw new KeyStoreException("Keystore entry is damaged.", e);
+		} catch (RuntimeException e) {
+			throw new KeyStoreException("Keystore entry is damaged.", e);
+		}
+
+	}
+
+	private static byte[] readField(ByteBuffer view, int length) {
+		byte[] field = new byte[length];
+		view.get(field);
+		return field;
+	}
+
+	private static byte[] associatedData(byte[] name, byte[] algorithm) {
+		return ByteBuffer.allocate(name.length + 1 + algorithm.length).put(name).put((byte) 0).put(algorithm)
+				.array();
+	}
+
+	private static long hash(byte[] name) {
+		try {
+			return ByteBuffer.wrap(CryptoProviders.getMessageDigest("SHA-256").digest(name)).getLong();
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static Cipher gcm(int mode, SecretKeySpec key, byte[] iv, int ivOffset)
+			throws GeneralSecurityException {
+		Cipher cipher = CryptoProviders.getCipher("AES/GCM/NoPadding");
+		cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH * 8, iv, ivOffset, IV_LENGTH));
+		return cipher;
+	}
+
+	private static SecretKeySpec deriveKey(String password, byte[] salt, int iterations) throws KeyStoreException {
+		PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, 256);
+		try {
+			SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256",
+					CryptoProviders.getProvider("SecretKeyFactory", "PBKDF2WithHmacSHA256"));
+			byte[] encoded = factory.generateSecret(spec).getEncoded();
+			try {
+				return new SecretKeySpec(encoded, "AES");
+			} finally {
+				Arrays.fill(encoded, (byte) 0);
+			}
+		} catch (GeneralSecurityException e) {
+			throw new KeyStoreException(e.getMessage(), e);
+		} finally {
+			spec.clearPassword();
+		}
+	}
+
+}
@@ -0,0 +1,425 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.util;
+
+import static net.theblackchamber.crypto.constants.Constants.ENCRYPTED_SUFFIX;
+import static net.theblackchamber.crypto.constants.Constants.ENTRY_NAME_PROPERTY_KEY;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.KeyStoreException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.theblackchamber.crypto.exceptions.MissingParameterException;
+import net.theblackchamber.crypto.exceptions.RuntimeCryptoException;
+import net.theblackchamber.crypto.model.FileEncryptionResult;
+import net.theblackchamber.crypto.providers.EncryptionProvider;
+import net.theblackchamber.crypto.util.SecurePropertiesUtils.EntryRewriter;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+
+/**
+ * Utility used to rotate the key protecting encrypted properties files. Every
+ * -encrypted value is decrypted with the old key and re-encrypted with the new
+ * key, leaving the rest of each file untouched.<br>
+ * Files are rotated in parallel and, when a checkpoint file is specified, each
+ * completed file is recorded in it so that an interrupted run can be resumed
+ * without rotating the finished files again.<br>
+ * The key a file is encrypted with is decided once for the whole file, never
+ * per value: a file whose entry-name property names the new key is already
+ * rotated, one naming the old key is rotated. Otherwise every -encrypted value
+ * is tried with both keys; the file is rotated only if all of them decrypt
+ * with the old key and some do not with the new one, and skipped only in the
+ * opposite case. Anything else (the PBE ciphers are not authenticated, so a
+ * wrong key occasionally yields garbage rather than an error) fails the file
+ * rather than risk re-encrypting garbage.
+ * 
+ * @author sminogue
+ * 
+ */
+public class KeyRotationUtils {
+
+	private static final Charset CHECKPOINT_CHARSET = Charset
+			.forName("UTF-8");
+
+	/**
+	 * Rotate the properties files from one key to another key held in the same
+	 * keystore. Any entry-name properties referring to the old key entry are
+	 * updated to refer to the new key entry.
+	 * 
+	 * @param files
+	 *            Properties files to rotate.
+	 * @param checkpointFile
+	 *            File used to record completed files. May be null in which
+	 *            case no checkpointing is done.
+	 * @param keyPath
+	 *            Path to the keystore file.
+	 * @param keyPass
+	 *            Password used to open the keystore.
+	 * @param oldKeyEntry
+	 *            Entry name of the key the files are currently encrypted with.
+	 * @param newKeyEntry
+	 *            Entry name of the key to encrypt the files with.
+	 * @return Result for each file rotated by this run. Files already
+	 *         recorded in the checkpoint file are skipped and not reported.
+	 * @throws FileNotFoundException
+	 *             Keystore not found on disk.
+	 * @throws IOException
+	 *             Error reading the keystore or checkpoint file, or
+	 *             interrupted while waiting for files to be rotated.
+	 * @throws KeyStoreException
+	 *             Error accessing or using the keystore.
+	 */
+	public static List<FileEncryptionResult> rotateKey(Collection<File> files,
+			File checkpointFile, String keyPath, String keyPass,
+			String oldKeyEntry, String newKeyEntry)
+			throws FileNotFoundException, IOException, KeyStoreException {
+
+		if (StringUtils.isEmpty(keyPath) || StringUtils.isEmpty(keyPass)
+				|| StringUtils.isEmpty(oldKeyEntry)
+				|| StringUtils.isEmpty(newKeyEntry)) {
+			throw new KeyStoreException(
+					"Unable to configure due to missing configurations");
+		}
+
+		EncryptionProvider oldProvider = SecurePropertiesUtils
+				.createProvider(SecurePropertiesUtils.loadKey(keyPath, keyPass,
+						oldKeyEntry));
+		EncryptionProvider newProvider = SecurePropertiesUtils
+				.createProvider(SecurePropertiesUtils.loadKey(keyPath, keyPass,
+						newKeyEntry));
+
+		return rotateKey(files, checkpointFile, oldProvider, newProvider,
+				oldKeyEntry, newKeyEntry, Runtime.getRuntime()
+						.availableProcessors());
+
+	}
+
+	/**
+	 * Rotate the properties files from one provider's key to another.
+	 * 
+	 * @param files
+	 *            Properties files to rotate.
+	 * @param checkpointFile
+	 *            File used to record completed files. May be null in which
+	 *            case no checkpointing is done.
+	 * @param oldProvider
+	 *            Provider for the key the files are currently encrypted with.
+	 * @param newProvider
+	 *            Provider for the key to encrypt the files with.
+	 * @param oldKeyEntry
+	 *            Entry name of the old key. If not null entry-name properties
+	 *            with this value are changed to the new key entry.
+	 * @param newKeyEntry
+	 *            Entry name of the new key.
+	 * @param threads
+	 *            Number of files to rotate concurrently.
+	 * @return Result for each file rotated by this run. Files already
+	 *         recorded in the checkpoint file are skipped and not reported.
+	 * @throws IOException
+	 *             Error reading or writing the checkpoint file, or interrupted
+	 *             while waiting for files to be rotated.
+	 */
+	public static List<FileEncryptionResult> rotateKey(Collection<File> files,
+			File checkpointFile, final EncryptionProvider oldProvider,
+			final EncryptionProvider newProvider, final String oldKeyEntry,
+			final String newKeyEntry, int threads) throws IOException {
+
+		if (oldProvider == null || newProvider == null) {
+			throw new RuntimeCryptoException(
+					"No encryption provider configured");
+		}
+
+		Set<String> completed = readCheckpoint(checkpointFile);
+		List<File> pending = new ArrayList<File>();
+		for (File file : files) {
+			if (!completed.contains(file.getCanonicalPath())) {
+				pending.add(file);
+			}
+		}
+
+		final Writer checkpoint = checkpointFile == null ? null
+				: new OutputStreamWriter(new FileOutputStream(checkpointFile,
+						true), CHECKPOINT_CHARSET);
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+				Math.min(threads, pending.size())));
+
+		try {
+
+			List<Future<FileEncryptionResult>> futures = new ArrayList<Future<FileEncryptionResult>>(
+					pending.size());
+			for (final File file : pending) {
+				futures.add(executor
+						.submit(new Callable<FileEncryptionResult>() {
+							public FileEncryptionResult call() {
+								try {
+									rotateFile(file, oldProvider, newProvider,
+											oldKeyEntry, newKeyEntry);
+									recordCheckpoint(checkpoint, file);
+									return new FileEncryptionResult(file,
+											null);
+								} catch (Throwable t) {
+									return new FileEncryptionResult(file, t);
+								}
+							}
+						}));
+			}
+
+			List<FileEncryptionResult> results = new ArrayList<FileEncryptionResult>(
+					futures.size());
+			for (Future<FileEncryptionResult> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+					"Interrupted while rotating properties files.");
+		} catch (ExecutionException e) {
+			// Tasks capture their own errors so this should never happen.
+			throw new IOException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+			if (checkpoint != null) {
+				checkpoint.close();
+			}
+		}
+
+	}
+
+	/**
+	 * Re-encrypt every -encrypted value of a single file.
+	 */
+	private static void rotateFile(File file,
+			final EncryptionProvider oldProvider,
+			final EncryptionProvider newProvider, final String oldKeyEntry,
+			final String newKeyEntry) throws IOException {
+
+		if (file == null || !file.isFile()) {
+			throw new FileNotFoundException(
+					"Properties file not specified or does not exist.");
+		}
+
+		final Map<String, String> clearValues = decryptWithOldKey(file,
+				oldProvider, newProvider, oldKeyEntry, newKeyEntry);
+		if (clearValues == null) {
+			// Already rotated.
+			return;
+		}
+
+		SecurePropertiesUtils.rewritePropertiesFile(file, new EntryRewriter() {
+
+			public String rewriteValue(String key, String value)
+					throws IOException {
+
+				if (oldKeyEntry != null
+						&& StringUtils.equals(key, ENTRY_NAME_PROPERTY_KEY)) {
+					return StringUtils.equals(value, oldKeyEntry) ? newKeyEntry
+							: null;
+				}
+
+				if (!StringUtils.endsWithIgnoreCase(key, ENCRYPTED_SUFFIX)
+						|| StringUtils.isBlank(value)) {
+					return null;
+				}
+
+				String clear = clearValues.get(value);
+				if (clear == null) {
+					// The file changed since it was checked.
+					throw new IOException("Unable to decrypt [" + key
+							+ "] with the old key.");
+				}
+
+				try {
+					return newProvider.encrypt(clear);
+				} catch (MissingParameterException e) {
+					throw new IOException("No value to rotate specified for ["
+							+ key + "]", e);
+				}
+
+			}
+
+			public String rewriteKey(String rawKey) {
+				return rawKey;
+			}
+
+		});
+
+	}
+
+	/**
+	 * Decide which key a file is encrypted with and decrypt its -encrypted
+	 * values with the old key.
+	 * 
+	 * @return Clear value for each encrypted value, or null if the file is
+	 *         already encrypted with the new key or has nothing to rotate.
+	 * @throws IOException
+	 *             The file could not be read, or it is not possible to tell
+	 *             which key it is encrypted with.
+	 */
+	private static Map<String, String> decryptWithOldKey(File file,
+			EncryptionProvider oldProvider, EncryptionProvider newProvider,
+			String oldKeyEntry, String newKeyEntry) throws IOException {
+
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+
+		// The entry-name property is only a reliable marker when it is
+		// rewritten together with the values.
+		String entryName = oldKeyEntry == null ? null : properties
+				.getProperty(ENTRY_NAME_PROPERTY_KEY);
+		if (entryName != null && StringUtils.equals(entryName, newKeyEntry)
+				&& !StringUtils.equals(entryName, oldKeyEntry)) {
+			return null;
+		}
+		boolean markedOld = entryName != null
+				&& StringUtils.equals(entryName, oldKeyEntry);
+
+		Map<String, String> clearValues = new HashMap<String, String>();
+		boolean encrypted = false;
+		boolean allOld = true;
+		boolean allNew = true;
+		for (String key : properties.stringPropertyNames()) {
+
+			String value = properties.getProperty(key);
+			if (!StringUtils.endsWithIgnoreCase(key, ENCRYPTED_SUFFIX)
+					|| StringUtils.isBlank(value)) {
+				continue;
+			}
+			encrypted = true;
+
+			String clear = tryDecrypt(oldProvider, value);
+			if (clear != null) {
+				clearValues.put(value, clear);
+			} else {
+				allOld = false;
+			}
+			if (!markedOld) {
+				allNew &= tryDecrypt(newProvider, value) != null;
+			}
+
+			if (markedOld && !allOld) {
+				throw new IOException("Unable to decrypt [" + key
+						+ "] with the old key.");
+			}
+
+		}
+
+		if (markedOld || (allOld && !allNew)) {
+			return clearValues;
+		}
+		if (!encrypted) {
+			// Nothing to rotate.
+			return null;
+		}
+		if (allNew && !allOld) {
+			return null;
+		}
+		throw new IOException("Unable to tell whether ["
+				+ file.getPath()
+				+ "] is encrypted with the old or the new key.");
+
+	}
+
+	/**
+	 * Decrypt a value, returning null if it does not decrypt with the
+	 * provider's key. Without authentication a wrong key usually fails on the
+	 * padding but otherwise yields random bytes, which are rejected when they
+	 * are not valid UTF-8 (decoded as the replacement character).
+	 */
+	private static String tryDecrypt(EncryptionProvider provider, String value)
+			throws IOException {
+		try {
+			String clear = provider.decrypt(value);
+			return clear.indexOf('\uFFFD') < 0 ? clear : null;
+		} catch (EncryptionOperationNotPossibleException e) {
+			return null;
+		} catch (MissingParameterException e) {
+			throw new IOException("No value to rotate specified.", e);
+		}
+	}
+
+	/**
+	 * Read the files recorded as completed in the checkpoint file.
+	 */
+	private static Set<String> readCheckpoint(File checkpointFile)
+			throws IOException {
+		Set<String> completed = new HashSet<String>();
+		if (checkpointFile != null && checkpointFile.exists()) {
+			for (String line : FileUtils.readLines(checkpointFile,
+					CHECKPOINT_CHARSET.name())) {
+				if (StringUtils.isNotBlank(line)) {
+					completed.add(line);
+				}
+			}
+		}
+		return completed;
+	}
+
+	/**
+	 * Record a completed file in the checkpoint file. Each entry is flushed as
+	 * soon as it is written so that it survives the process being killed.
+	 */
+	private static void recordCheckpoint(Writer checkpoint, File file)
+			throws IOException {
+		if (checkpoint == null) {
+			return;
+		}
+		synchronized (checkpoint) {
+			checkpoint.write(file.getCanonicalPath());
+			checkpoint.write('\n');
+			checkpoint.flush();
+		}
+	}
+
+}
@@ -35,15 +35,20 @@ import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.UnrecoverableEntryException;
 import java.security.cert.CertificateException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 
 import net.theblackchamber.crypto.model.KeyConfig;
+import net.theblackchamber.crypto.providers.CryptoProviders;
+import net.theblackchamber.crypto.providers.RandomSource;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
 /**
  * Utility used for managing a keystore. Generate keys etc.
@@ -69,45 +74,120 @@ public class KeystoreUtils {
 			throws NoSuchAlgorithmException, KeyStoreException,
 			CertificateException, IOException {
 
-		if (config == null || config.getKeyStoreFile() == null
-				|| StringUtils.isEmpty(config.getKeyEntryName())
-				|| config.getAlgorithm() == null) {
+		generateSecretKeys(Collections.singletonList(config));
+
+	}
+
+	/**
+	 * Method which will generate many random Secret keys and add them to a
+	 * keystore in one step. The keystore is loaded once, every key is
+	 * generated from the same random generator, and the keystore is written
+	 * once to a temporary file which then atomically replaces the original,
+	 * so a failure part way through leaves the keystore unchanged.<br>
+	 * All the configurations must name the same keystore file and password.
+	 * 
+	 * @param configs
+	 *            Configuration for generation of each key.
+	 * @throws NoSuchAlgorithmException
+	 * @throws KeyStoreException
+	 *             If a configuration is incomplete or names a different
+	 *             keystore or password.
+	 * @throws CertificateException
+	 * @throws IOException
+	 */
+	public static void generateSecretKeys(List<KeyConfig> configs)
+			throws NoSuchAlgorithmException, KeyStoreException,
+			CertificateException, IOException {
+
+		if (configs == null || configs.isEmpty()) {
 			throw new KeyStoreException(
 					"Missing parameters, unable to create keystore.");
 		}
 
-		SecureRandom random = new SecureRandom();
-
-		KeyGenerator keygen = KeyGenerator.getInstance(config.getAlgorithm()
-				.getName(), new BouncyCastleProvider());
-		keygen.init(config.getKeySize(), random);
+		KeyConfig first = configs.get(0);
+		for (KeyConfig config : configs) {
+			if (config == null || config.getKeyStoreFile() == null
+					|| StringUtils.isEmpty(config.getKeyEntryName())
+					|| config.getAlgorithm() == null) {
+				throw new KeyStoreException(
+						"Missing parameters, unable to create keystore.");
+			}
+			if (!config.getKeyStoreFile().getAbsoluteFile()
+					.equals(first.getKeyStoreFile().getAbsoluteFile())
+					|| !StringUtils.equals(config.getKeyStorePassword(),
+							first.getKeyStorePassword())) {
+				throw new KeyStoreException(
+						"All keys must be added to the same keystore with the same password.");
+			}
+		}
 
-		SecretKey key = keygen.generateKey();
+		File keyStoreFile = first.getKeyStoreFile().getAbsoluteFile();
+		char[] password = first.getKeyStorePassword().toCharArray();
 
 		KeyStore keyStore = KeyStore.getInstance("JCEKS");
 		FileInputStream fis = null;
-		if (config.getKeyStoreFile().exists()
-				&& FileUtils.sizeOf(config.getKeyStoreFile()) > 0) {
-			fis = new FileInputStream(config.getKeyStoreFile());
+		if (keyStoreFile.exists() && FileUtils.sizeOf(keyStoreFile) > 0) {
+			fis = new FileInputStream(keyStoreFile);
+		}
+		try {
+			keyStore.load(fis, password);
+		} finally {
+			if (fis != null) {
+				fis.close();
+			}
 		}
 
-		keyStore.load(fis, config.getKeyStorePassword().toCharArray());
-
+		SecureRandom random = RandomSource.getSecureRandom();
+		Map<String, KeyGenerator> keygens = new HashMap<String, KeyGenerator>();
 		KeyStore.ProtectionParameter protectionParameter = new KeyStore.PasswordProtection(
-				config.getKeyStorePassword().toCharArray());
-		KeyStore.SecretKeyEntry secretKeyEntry = new KeyStore.SecretKeyEntry(
-				key);
-
-		keyStore.setEntry(config.getKeyEntryName(), secretKeyEntry,
-				protectionParameter);
-		if (fis != null) {
-			fis.close();
+				password);
+
+		for (KeyConfig config : configs) {
+
+			String keygenKey = config.getAlgorithm().getName() + "/"
+					+ config.getKeySize();
+			KeyGenerator keygen = keygens.get(keygenKey);
+			if (keygen == null) {
+				keygen = CryptoProviders.getKeyGenerator(config.getAlgorithm()
+						.getName(), config.getKeySize(), random);
+				keygens.put(keygenKey, keygen);
+			}
+
+			keyStore.setEntry(config.getKeyEntryName(),
+					new KeyStore.SecretKeyEntry(keygen.generateKey()),
+					protectionParameter);
+
 		}
-		FileOutputStream fos = new FileOutputStream(config.getKeyStoreFile());
 
-		keyStore.store(fos, config.getKeyStorePassword().toCharArray());
+		storeKeyStore(keyStore, keyStoreFile, password);
+
+	}
+
+	/**
+	 * Write a keystore to a temporary file next to the target which then
+	 * atomically replaces it, keeping the target's permissions. See
+	 * {@link AtomicFiles}.
+	 */
+	static void storeKeyStore(KeyStore keyStore, File keyStoreFile,
+			char[] password) throws KeyStoreException,
+			NoSuchAlgorithmException, CertificateException, IOException {
+
+		File tmpFile = AtomicFiles.createTempFile(keyStoreFile);
+		try {
+
+			FileOutputStream fos = new FileOutputStream(tmpFile);
+			try {
+				keyStore.store(fos, password);
+			} finally {
+				fos.close();
+			}
+			AtomicFiles.moveIntoPlace(tmpFile, keyStoreFile);
 
-		fos.close();
+		} finally {
+			if (tmpFile.exists()) {
+				tmpFile.delete();
+			}
+		}
 
 	}
 
@@ -23,21 +23,51 @@
  */
 package net.theblackchamber.crypto.util;
 
+import static net.theblackchamber.crypto.constants.Constants.ENCRYPTED_SUFFIX;
 import static net.theblackchamber.crypto.constants.Constants.ENTRY_NAME_PROPERTY_KEY;
 import static net.theblackchamber.crypto.constants.Constants.KEYSTORE_PASSWORD_PROPERTY_KEY;
 import static net.theblackchamber.crypto.constants.Constants.KEY_PATH_PROPERTY_KEY;
+import static net.theblackchamber.crypto.constants.Constants.UNENCRYPTED_SUFFIX;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.Key;
 import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableEntryException;
+import java.security.cert.CertificateException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import net.theblackchamber.crypto.exceptions.MissingParameterException;
+import net.theblackchamber.crypto.exceptions.RuntimeCryptoException;
+import net.theblackchamber.crypto.exceptions.UnsupportedAlgorithmException;
+import net.theblackchamber.crypto.exceptions.UnsupportedKeySizeException;
 import net.theblackchamber.crypto.implementations.SecureProperties;
+import net.theblackchamber.crypto.model.FileEncryptionResult;
+import net.theblackchamber.crypto.providers.EncryptionProvider;
+import net.theblackchamber.crypto.providers.EncryptionProviderFactory;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 
 /**
@@ -49,6 +79,14 @@ import org.apache.commons.lang3.StringUtils;
  */
 public class SecurePropertiesUtils {
 
+	private static final String[] PROPERTIES_EXTENSIONS = { "properties" };
+
+	/**
+	 * Encoding used by {@link Properties#load(java.io.InputStream)}.
+	 */
+	private static final Charset PROPERTIES_CHARSET = Charset
+			.forName("ISO-8859-1");
+
 	/**
 	 * Utility which will take an existing Properties file on disk and replace
 	 * any -unencrypted values with encrypted.<br>
@@ -203,4 +241,636 @@ public class SecurePropertiesUtils {
 
 	}
 
+	/**
+	 * Utility which will walk a directory tree and replace any -unencrypted
+	 * values with encrypted in every ".properties" file found. The keystore is
+	 * loaded once and a single encryption provider is shared by all files,
+	 * which are encrypted in parallel using one thread per available
+	 * processor.<br>
+	 * Note: Encryption fields passed as parameters <b>WILL NOT</b> be placed
+	 * into the resulting SecureProperties files.
+	 * 
+	 * @param directory
+	 *            Root of the directory tree containing the properties files.
+	 * @param keyPath
+	 *            Path to the keystore file.
+	 * @param keyPass
+	 *            Password to be used to open and secure the Keystore password.
+	 * @param keyEntry
+	 *            Entry name of the key to use from the keystore.
+	 * @return Result for each file processed.
+	 * @throws FileNotFoundException
+	 *             Directory or keystore not found on disk.
+	 * @throws IOException
+	 *             Error reading the keystore or interrupted while waiting for
+	 *             files to be encrypted.
+	 * @throws KeyStoreException
+	 *             Error accessing or using the keystore.
+	 */
+	public static List<FileEncryptionResult> encryptPropertiesFiles(
+			File directory, String keyPath, String keyPass, String keyEntry)
+			throws FileNotFoundException, IOException, KeyStoreException {
+		return encryptPropertiesFiles(directory, PROPERTIES_EXTENSIONS,
+				keyPath, keyPass, keyEntry, false, Runtime.getRuntime()
+						.availableProcessors());
+	}
+
+	/**
+	 * Utility which will walk a directory tree and replace any -unencrypted
+	 * values with encrypted in every file with one of the specified
+	 * extensions. The keystore is loaded once and a single encryption provider
+	 * is shared by all files, which are encrypted in parallel. A failure to
+	 * encrypt one file does not stop the remaining files from being
+	 * processed, check the returned results for errors.
+	 * 
+	 * @param directory
+	 *            Root of the directory tree containing the properties files.
+	 * @param extensions
+	 *            File extensions (without the ".") of the files to encrypt.
+	 * @param keyPath
+	 *            Path to the keystore file.
+	 * @param keyPass
+	 *            Password to be used to open and secure the Keystore password.
+	 * @param keyEntry
+	 *            Entry name of the key to use from the keystore.
+	 * @param retainCrytoConfigProperties
+	 *            Boolean to indicate if the encryption field parameters should
+	 *            be stored in the resulting SecureProperties files. True they
+	 *            will be, False they wont.
+	 * @param threads
+	 *            Number of files to encrypt concurrently.
+	 * @return Result for each file processed.
+	 * @throws FileNotFoundException
+	 *             Directory or keystore not found on disk.
+	 * @throws IOException
+	 *             Error reading the keystore or interrupted while waiting for
+	 *             files to be encrypted.
+	 * @throws KeyStoreException
+	 *             Error accessing or using the keystore.
+	 */
+	public static List<FileEncryptionResult> encryptPropertiesFiles(
+			File directory, String[] extensions, final String keyPath,
+			final String keyPass, final String keyEntry,
+			final boolean retainCrytoConfigProperties, int threads)
+			throws FileNotFoundException, IOException, KeyStoreException {
+
+		if (directory == null || !directory.isDirectory()) {
+			throw new FileNotFoundException(
+					"Directory not specified or does not exist.");
+		}
+
+		// Ensure the encryption parameters are not empty.
+		if (StringUtils.isEmpty(keyEntry) || StringUtils.isEmpty(keyPath)
+				|| StringUtils.isEmpty(keyPass)) {
+			throw new KeyStoreException(
+					"Unable to configure due to missing configurations");
+		}
+
+		// Load the key and create the provider once for all files.
+		final Key key = loadKey(keyPath, keyPass, keyEntry);
+		final EncryptionProvider encryptionProvider = createProvider(key);
+
+		Collection<File> files = FileUtils.listFiles(directory, extensions,
+				true);
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+				Math.min(threads, files.size())));
+
+		try {
+
+			List<Future<FileEncryptionResult>> futures = new ArrayList<Future<FileEncryptionResult>>(
+					files.size());
+			for (final File file : files) {
+				futures.add(executor
+						.submit(new Callable<FileEncryptionResult>() {
+							public FileEncryptionResult call() {
+								try {
+									encryptPropertiesFile(file, key,
+											encryptionProvider, keyPath,
+											keyPass, keyEntry,
+											retainCrytoConfigProperties);
+									return new FileEncryptionResult(file,
+											null);
+								} catch (Throwable t) {
+									return new FileEncryptionResult(file, t);
+								}
+							}
+						}));
+			}
+
+			List<FileEncryptionResult> results = new ArrayList<FileEncryptionResult>(
+					futures.size());
+			for (Future<FileEncryptionResult> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+					"Interrupted while encrypting properties files.");
+		} catch (ExecutionException e) {
+			// Tasks capture their own errors so this should never happen.
+			throw new IOException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+	}
+
+	/**
+	 * Utility which will rewrite an existing Properties file on disk replacing
+	 * any -unencrypted values with encrypted, without otherwise changing the
+	 * file. Comments, blank lines, ordering and formatting are preserved and
+	 * lines which are already encrypted or not meant to be encrypted are
+	 * copied through untouched.<br>
+	 * NOTE: The encryption related properties need to be properly set in the
+	 * file prior to using this. entry-name, key-path, keystore-password
+	 * 
+	 * @param propertiesFile
+	 *            Properties file to be secured
+	 * @return Number of values which were encrypted.
+	 * @throws FileNotFoundException
+	 *             Properties file not found on disk.
+	 * @throws IOException
+	 *             Error reading or writing the properties file.
+	 * @throws KeyStoreException
+	 *             Error accessing or using the keystore.
+	 */
+	public static int encryptPropertiesFileInPlace(File propertiesFile)
+			throws FileNotFoundException, IOException, KeyStoreException {
+
+		// Open properties file and load it to read the crypto configuration
+		Properties cProperties = new Properties();
+		FileInputStream fis = new FileInputStream(propertiesFile);
+		try {
+			cProperties.load(fis);
+		} finally {
+			fis.close();
+		}
+
+		return encryptPropertiesFileInPlace(propertiesFile,
+				cProperties.getProperty(KEY_PATH_PROPERTY_KEY),
+				cProperties.getProperty(KEYSTORE_PASSWORD_PROPERTY_KEY),
+				cProperties.getProperty(ENTRY_NAME_PROPERTY_KEY));
+
+	}
+
+	/**
+	 * Utility which will rewrite an existing Properties file on disk replacing
+	 * any -unencrypted values with encrypted, without otherwise changing the
+	 * file. See {@link #encryptPropertiesFileInPlace(File, EncryptionProvider)}
+	 * 
+	 * @param propertiesFile
+	 *            Properties file to be secured
+	 * @param keyPath
+	 *            Path to the keystore file.
+	 * @param keyPass
+	 *            Password to be used to open and secure the Keystore password.
+	 * @param keyEntry
+	 *            Entry name of the key to use from the keystore.
+	 * @return Number of values which were encrypted.
+	 * @throws FileNotFoundException
+	 *             Properties file not found on disk.
+	 * @throws IOException
+	 *             Error reading or writing the properties file.
+	 * @throws KeyStoreException
+	 *             Error accessing or using the keystore.
+	 */
+	public static int encryptPropertiesFileInPlace(File propertiesFile,
+			String keyPath, String keyPass, String keyEntry)
+			throws FileNotFoundException, IOException, KeyStoreException {
+
+		// Ensure the encryption parameters are not empty.
+		if (StringUtils.isEmpty(keyEntry) || StringUtils.isEmpty(keyPath)
+				|| StringUtils.isEmpty(keyPass)) {
+			throw new KeyStoreException(
+					"Unable to configure due to missing configurations");
+		}
+
+		return encryptPropertiesFileInPlace(propertiesFile,
+				createProvider(loadKey(keyPath, keyPass, keyEntry)));
+
+	}
+
+	/**
+	 * Utility which will rewrite an existing Properties file on disk replacing
+	 * any -unencrypted values with encrypted, without otherwise changing the
+	 * file. The file is streamed a line at a time, only the -unencrypted
+	 * entries are encrypted and the result is written to a temporary file
+	 * which then atomically replaces the original. If nothing needed to be
+	 * encrypted the file is left untouched.
+	 * 
+	 * @param propertiesFile
+	 *            Properties file to be secured
+	 * @param encryptionProvider
+	 *            Provider used to encrypt the values.
+	 * @return Number of values which were encrypted.
+	 * @throws FileNotFoundException
+	 *             Properties file not found on disk.
+	 * @throws IOException
+	 *             Error reading or writing the properties file.
+	 * @throws RuntimeCryptoException
+	 *             If no encryption provider is specified or an -unencrypted
+	 *             entry has no value.
+	 */
+	public static int encryptPropertiesFileInPlace(File propertiesFile,
+			final EncryptionProvider encryptionProvider)
+			throws FileNotFoundException, IOException {
+
+		if (propertiesFile == null || !propertiesFile.isFile()) {
+			throw new FileNotFoundException(
+					"Properties file not specified or does not exist.");
+		}
+		if (encryptionProvider == null) {
+			throw new RuntimeCryptoException(
+					"No encryption provider configured");
+		}
+
+		return rewritePropertiesFile(propertiesFile, new EntryRewriter() {
+
+			public String rewriteValue(String key, String value) {
+				if (!StringUtils.endsWithIgnoreCase(key, UNENCRYPTED_SUFFIX)) {
+					return null;
+				}
+				try {
+					return encryptionProvider.encrypt(value);
+				} catch (MissingParameterException e) {
+					throw new RuntimeCryptoException(
+							"No value to encrypt specified for [" + key + "]",
+							e);
+				}
+			}
+
+			public String rewriteKey(String rawKey) {
+				return StringUtils.replace(rawKey, UNENCRYPTED_SUFFIX,
+						ENCRYPTED_SUFFIX);
+			}
+
+		});
+
+	}
+
+	/**
+	 * Callback used by {@link #rewritePropertiesFile(File, EntryRewriter)} to
+	 * decide which entries to change and how.
+	 */
+	interface EntryRewriter {
+
+		/**
+		 * @param key
+		 *            Unescaped key of the entry.
+		 * @param value
+		 *            Unescaped value of the entry.
+		 * @return New (unescaped) value for the entry or null to leave the
+		 *         entry untouched.
+		 * @throws IOException
+		 */
+		String rewriteValue(String key, String value) throws IOException;
+
+		/**
+		 * @param rawKey
+		 *            Key of an entry whose value was rewritten, as it appears
+		 *            in the file.
+		 * @return Key to write in its place.
+		 */
+		String rewriteKey(String rawKey);
+
+	}
+
+	/**
+	 * Stream a properties file a line at a time, rewriting the entries
+	 * selected by the rewriter and copying everything else through untouched.
+	 * The result is written to a temporary file which then atomically replaces
+	 * the original, keeping its permissions (see {@link AtomicFiles}). If no
+	 * entries were rewritten the file is left untouched.
+	 * 
+	 * @return Number of entries which were rewritten.
+	 */
+	static int rewritePropertiesFile(File propertiesFile,
+			EntryRewriter rewriter) throws IOException {
+
+		File target = propertiesFile.getAbsoluteFile();
+		File tmpFile = AtomicFiles.createTempFile(target);
+
+		int rewritten = 0;
+		try {
+
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(target), PROPERTIES_CHARSET));
+			Writer writer = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(tmpFile), PROPERTIES_CHARSET));
+			try {
+
+				StringBuilder logicalLine = new StringBuilder();
+				String line;
+				while ((line = readLine(reader)) != null) {
+
+					logicalLine.append(line);
+					if (!isCommentOrBlank(logicalLine) && continuesLine(line)) {
+						continue;
+					}
+
+					rewritten += writeLogicalLine(logicalLine.toString(),
+							writer, rewriter);
+					logicalLine.setLength(0);
+
+				}
+
+				// A continuation on the last line of the file
+				if (logicalLine.length() > 0) {
+					rewritten += writeLogicalLine(logicalLine.toString(),
+							writer, rewriter);
+				}
+
+			} finally {
+				reader.close();
+				writer.close();
+			}
+
+			if (rewritten > 0) {
+				AtomicFiles.moveIntoPlace(tmpFile, target);
+			}
+
+		} finally {
+			if (tmpFile.exists()) {
+				tmpFile.delete();
+			}
+		}
+
+		return rewritten;
+
+	}
+
+	/**
+	 * Write a logical line (including any continuation lines and the line
+	 * terminator) to the writer, rewriting the entry if the rewriter selects
+	 * it.
+	 * 
+	 * @return 1 if the entry was rewritten, otherwise 0.
+	 */
+	private static int writeLogicalLine(String logicalLine, Writer writer,
+			EntryRewriter rewriter) throws IOException {
+
+		// Let Properties do the unescaping to find the real key and value.
+		Properties entry = new Properties();
+		entry.load(new StringReader(logicalLine));
+		if (entry.size() != 1) {
+			writer.write(logicalLine);
+			return 0;
+		}
+		String key = (String) entry.keys().nextElement();
+		String value = rewriter.rewriteValue(key, entry.getProperty(key));
+		if (value == null) {
+			writer.write(logicalLine);
+			return 0;
+		}
+
+		// Locate the raw key and separator so their formatting is kept.
+		int keyStart = 0;
+		while (isWhitespace(logicalLine.charAt(keyStart))) {
+			keyStart++;
+		}
+		int keyEnd = keyStart;
+		while (keyEnd < logicalLine.length()) {
+			char c = logicalLine.charAt(keyEnd);
+			if (c == '\\') {
+				if (keyEnd + 1 < logicalLine.length()
+						&& (logicalLine.charAt(keyEnd + 1) == '\r' || logicalLine
+								.charAt(keyEnd + 1) == '\n')) {
+					// Continuation between the key and value
+					break;
+				}
+				keyEnd += 2;
+				continue;
+			}
+			if (c == '=' || c == ':' || isWhitespace(c) || c == '\r'
+					|| c == '\n') {
+				break;
+			}
+			keyEnd++;
+		}
+		keyEnd = Math.min(keyEnd, logicalLine.length());
+		int valueStart = keyEnd;
+		while (valueStart < logicalLine.length()
+				&& isWhitespace(logicalLine.charAt(valueStart))) {
+			valueStart++;
+		}
+		if (valueStart < logicalLine.length()
+				&& (logicalLine.charAt(valueStart) == '=' || logicalLine
+						.charAt(valueStart) == ':')) {
+			valueStart++;
+			while (valueStart < logicalLine.length()
+					&& isWhitespace(logicalLine.charAt(valueStart))) {
+				valueStart++;
+			}
+		}
+
+		writer.write(logicalLine.substring(0, keyStart));
+		writer.write(rewriter.rewriteKey(logicalLine.substring(keyStart,
+				keyEnd)));
+		writer.write(valueStart > keyEnd ? logicalLine.substring(keyEnd,
+				valueStart) : "=");
+		writer.write(escapeValue(value));
+		writer.write(lineTerminator(logicalLine));
+
+		return 1;
+
+	}
+
+	/**
+	 * Read a single physical line including its line terminator.
+	 * 
+	 * @return Null at the end of the stream.
+	 */
+	private static String readLine(BufferedReader reader) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = reader.read()) != -1) {
+			line.append((char) c);
+			if (c == '\n') {
+				break;
+			}
+			if (c == '\r') {
+				reader.mark(1);
+				int next = reader.read();
+				if (next == '\n') {
+					line.append('\n');
+				} else if (next != -1) {
+					reader.reset();
+				}
+				break;
+			}
+		}
+		return line.length() == 0 ? null : line.toString();
+	}
+
+	/**
+	 * Determine if a physical line is continued on the next line. That is if
+	 * it ends in an odd number of backslashes.
+	 */
+	private static boolean continuesLine(String line) {
+		int end = line.length() - lineTerminator(line).length();
+		int backslashes = 0;
+		while (end > 0 && line.charAt(end - 1) == '\\') {
+			backslashes++;
+			end--;
+		}
+		return backslashes % 2 == 1;
+	}
+
+	/**
+	 * Comment and blank lines are never continued.
+	 */
+	private static boolean isCommentOrBlank(CharSequence line) {
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (!isWhitespace(c)) {
+				return c == '#' || c == '!' || c == '\r' || c == '\n';
+			}
+		}
+		return true;
+	}
+
+	private static String lineTerminator(String line) {
+		if (line.endsWith("\r\n")) {
+			return "\r\n";
+		}
+		if (line.endsWith("\n") || line.endsWith("\r")) {
+			return line.substring(line.length() - 1);
+		}
+		return "";
+	}
+
+	/**
+	 * Escape a value the same way {@link Properties#store} would.
+	 */
+	private static String escapeValue(String value) {
+		StringBuilder escaped = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '\\':
+				escaped.append("\\\\");
+				break;
+			case '\t':
+				escaped.append("\\t");
+				break;
+			case '\n':
+				escaped.append("\\n");
+				break;
+			case '\r':
+				escaped.append("\\r");
+				break;
+			case '\f':
+				escaped.append("\\f");
+				break;
+			case ' ':
+				escaped.append(i == 0 ? "\\ " : " ");
+				break;
+			default:
+				if (c < 0x20 || c > 0x7e) {
+					escaped.append(String.format("\\u%04X", (int) c));
+				} else {
+					escaped.append(c);
+				}
+				break;
+			}
+		}
+		return escaped.toString();
+	}
+
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\f';
+	}
+
+	/**
+	 * Encrypt a single properties file using an already initialized provider.
+	 * The crypto configuration entries in the file are always replaced by the
+	 * ones passed in (or removed).
+	 */
+	private static void encryptPropertiesFile(File clearProperties, Key key,
+			EncryptionProvider encryptionProvider, String keyPath,
+			String keyPass, String keyEntry,
+			boolean retainCrytoConfigProperties) throws IOException {
+
+		Properties cProperties = new Properties();
+		FileInputStream fis = new FileInputStream(clearProperties);
+		try {
+			cProperties.load(fis);
+		} finally {
+			fis.close();
+		}
+
+		SecureProperties sProperties = new SecureProperties(key,
+				encryptionProvider);
+
+		if (retainCrytoConfigProperties) {
+			// Use put rather than setProperty so that setting key-path does not
+			// reload the keystore for every file.
+			sProperties.put(ENTRY_NAME_PROPERTY_KEY, keyEntry);
+			sProperties.put(KEYSTORE_PASSWORD_PROPERTY_KEY, keyPass);
+			sProperties.put(KEY_PATH_PROPERTY_KEY, keyPath);
+		}
+
+		for (Object cKey : cProperties.keySet()) {
+
+			String keyStr = (String) cKey;
+			if (!StringUtils.equals(keyStr, ENTRY_NAME_PROPERTY_KEY)
+					&& !StringUtils.equals(keyStr,
+							KEYSTORE_PASSWORD_PROPERTY_KEY)
+					&& !StringUtils.equals(keyStr, KEY_PATH_PROPERTY_KEY)) {
+				sProperties
+						.setProperty(keyStr, cProperties.getProperty(keyStr));
+			}
+
+		}
+
+		// Delete original file from disk
+		clearProperties.delete();
+
+		// Write SecureProperties out in its place
+		OutputStream fos = new FileOutputStream(clearProperties);
+		try {
+			sProperties.store(fos, "File Encrypted by SecurePropertiesUtils");
+			fos.flush();
+		} finally {
+			fos.close();
+		}
+
+	}
+
+	/**
+	 * Create the provider for a key, wrapping the unsupported key exceptions
+	 * in a {@link KeyStoreException}.
+	 */
+	static EncryptionProvider createProvider(Key key)
+			throws KeyStoreException {
+		try {
+			return EncryptionProviderFactory.getProvider(key);
+		} catch (UnsupportedAlgorithmException e) {
+			throw new KeyStoreException(e.getMessage(), e);
+		} catch (UnsupportedKeySizeException e) {
+			throw new KeyStoreException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Load the key from the keystore, wrapping the various key loading
+	 * exceptions in a {@link KeyStoreException}.
+	 */
+	static Key loadKey(String keyPath, String keyPass, String keyEntry)
+			throws FileNotFoundException, IOException, KeyStoreException {
+		try {
+			return KeystoreUtils.getSecretKey(new File(keyPath), keyEntry,
+					keyPass);
+		} catch (NoSuchAlgorithmException e) {
+			throw new KeyStoreException(e.getMessage(), e);
+		} catch (CertificateException e) {
+			throw new KeyStoreException(e.getMessage(), e);
+		} catch (UnrecoverableEntryException e) {
+			throw new KeyStoreException(e.getMessage(), e);
+		}
+	}
+
 }
@@ -12,6 +12,8 @@ public class ConstantsTest {
 		assertTrue(Constants.ENTRY_NAME_PROPERTY_KEY.equals("entry-name"));
 		assertTrue(Constants.KEY_PATH_PROPERTY_KEY.equals("key-path"));
 		assertTrue(Constants.KEYSTORE_PASSWORD_PROPERTY_KEY.equals("keystore-password"));
+		assertTrue(Constants.ENCRYPTED_SUFFIX.equals("-encrypted"));
+		assertTrue(Constants.UNENCRYPTED_SUFFIX.equals("-unencrypted"));
 
 	}
 
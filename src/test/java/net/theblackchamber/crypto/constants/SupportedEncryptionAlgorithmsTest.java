@@ -13,7 +13,35 @@ public class SupportedEncryptionAlgorithmsTest {
 		assertTrue("PBEWITHSHA256AND192BITAES-CBC-BC".equals(SupportedEncryptionAlgorithms.AES192.getAlgorithm()));
 		assertTrue("PBEWITHSHA256AND256BITAES-CBC-BC".equals(SupportedEncryptionAlgorithms.AES256.getAlgorithm()));
 		assertTrue("PBEWithSHAAnd3KeyTripleDES".equals(SupportedEncryptionAlgorithms.DES.getAlgorithm()));
+		assertTrue("ChaCha20-Poly1305".equals(SupportedEncryptionAlgorithms.CHACHA20_POLY1305.getAlgorithm()));
+		assertTrue("AES-SIV".equals(SupportedEncryptionAlgorithms.AES_SIV.getAlgorithm()));
 		
 	}
 
+	@Test
+	public void testGetById() {
+
+		try {
+
+			for (SupportedEncryptionAlgorithms algorithm : SupportedEncryptionAlgorithms.values()) {
+				assertTrue(algorithm == SupportedEncryptionAlgorithms.getById(algorithm.getId()));
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail();
+		}
+
+		try {
+
+			SupportedEncryptionAlgorithms.getById(0);
+
+			fail();
+
+		} catch (Exception e) {
+
+		}
+
+	}
+
 }
@@ -10,6 +10,7 @@ public class SupportedKeyGenAlgorithmsTest {
 	public void testGetName() {
 
 		assertTrue("AES".equals(SupportedKeyGenAlgorithms.AES.getName()));
+		assertTrue("ChaCha20".equals(SupportedKeyGenAlgorithms.CHACHA20.getName()));
 
 	}
 
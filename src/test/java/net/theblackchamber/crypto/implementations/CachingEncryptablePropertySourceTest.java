@@ -0,0 +1,110 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.implementations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Properties;
+
+import net.theblackchamber.crypto.exceptions.RuntimeCryptoException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jasypt.encryption.pbe.PooledPBEStringEncryptor;
+import org.junit.Test;
+
+public class CachingEncryptablePropertySourceTest {
+
+	@Test
+	public void testDecryptOnRead() {
+
+		try {
+
+			PooledPBEStringEncryptor encryptor = createEncryptor();
+			Properties props = new Properties();
+			props.setProperty("clear", "clear value");
+			props.setProperty("secret", "ENC(" + encryptor.encrypt("secret value") + ")");
+
+			CachingEncryptablePropertySource source = new CachingEncryptablePropertySource("test", props, encryptor);
+
+			assertEquals(0, source.getDecryptedCount());
+			assertTrue(StringUtils.equals("clear value", (String) source.getProperty("clear")));
+			assertTrue(StringUtils.equals("secret value", (String) source.getProperty("secret")));
+			assertTrue(StringUtils.equals("secret value", (String) source.getProperty("secret")));
+			assertEquals(1, source.getDecryptedCount());
+			assertNull(source.getProperty("missing"));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test
+	public void testDecryptUpFront() {
+
+		try {
+
+			PooledPBEStringEncryptor encryptor = createEncryptor();
+			Properties props = new Properties();
+			for (int i = 0; i < 20; i++) {
+				props.setProperty("secret" + i, "ENC(" + encryptor.encrypt("value" + i) + ")");
+			}
+			props.setProperty("clear", "clear value");
+
+			CachingEncryptablePropertySource source = new CachingEncryptablePropertySource("test", props, encryptor, 4);
+
+			assertEquals(20, source.getDecryptedCount());
+			for (int i = 0; i < 20; i++) {
+				assertTrue(StringUtils.equals("value" + i, (String) source.getProperty("secret" + i)));
+			}
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test(expected = RuntimeCryptoException.class)
+	public void testDecryptUpFrontInvalidValue() {
+
+		Properties props = new Properties();
+		props.setProperty("secret", "ENC(AAAA)");
+
+		new CachingEncryptablePropertySource("test", props, createEncryptor(), 2);
+
+	}
+
+	private PooledPBEStringEncryptor createEncryptor() {
+		PooledPBEStringEncryptor encryptor = new PooledPBEStringEncryptor();
+		encryptor.setPassword("TEST");
+		encryptor.setPoolSize(4);
+		return encryptor;
+	}
+
+}
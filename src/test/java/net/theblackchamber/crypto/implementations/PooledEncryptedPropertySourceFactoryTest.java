@@ -0,0 +1,85 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.implementations;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Properties;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jasypt.encryption.pbe.PooledPBEStringEncryptor;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.support.EncodedResource;
+
+public class PooledEncryptedPropertySourceFactoryTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testCreatePropertySource() {
+
+		try {
+
+			PooledPBEStringEncryptor encryptor = new PooledPBEStringEncryptor();
+			encryptor.setPassword("TEST");
+			encryptor.setPoolSize(2);
+
+			File propertiesFile = temporaryFolder.newFile("test.properties");
+			Properties props = new Properties();
+			props.setProperty("clear", "clear value");
+			props.setProperty("secret", "ENC(" + encryptor.encrypt("secret value") + ")");
+			FileOutputStream fos = new FileOutputStream(propertiesFile);
+			props.store(fos, null);
+			fos.close();
+
+			EncodedResource resource = new EncodedResource(new FileSystemResource(propertiesFile));
+
+			PropertySource<?> lazy = new PooledEncryptedPropertySourceFactory(encryptor, 0).createPropertySource(
+					"lazy", resource);
+			assertTrue(lazy instanceof CachingEncryptablePropertySource);
+			assertTrue(StringUtils.equals("lazy", lazy.getName()));
+			assertTrue(StringUtils.equals("secret value", (String) lazy.getProperty("secret")));
+			assertTrue(StringUtils.equals("clear value", (String) lazy.getProperty("clear")));
+
+			CachingEncryptablePropertySource eager = (CachingEncryptablePropertySource) new PooledEncryptedPropertySourceFactory(
+					encryptor, 2).createPropertySource(null, resource);
+			assertTrue(eager.getDecryptedCount() == 1);
+			assertTrue(StringUtils.equals("secret value", (String) eager.getProperty("secret")));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+}
@@ -0,0 +1,282 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.implementations;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.crypto.SecretKey;
+
+import net.theblackchamber.crypto.constants.SupportedKeyGenAlgorithms;
+import net.theblackchamber.crypto.model.KeyConfig;
+import net.theblackchamber.crypto.providers.EncryptionProviderFactory;
+import net.theblackchamber.crypto.util.KeystoreUtils;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReloadingSecurePropertiesTest {
+
+	private static final long RELOAD_TIMEOUT_MILLIS = 20000;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private File keyfile;
+
+	private File propertiesFile;
+
+	private ReloadingSecureProperties sProperties;
+
+	@Before
+	public void init() {
+		try {
+			keyfile = temporaryFolder.newFile("test.key");
+			KeyConfig config = new KeyConfig(keyfile, "TEST", null, SupportedKeyGenAlgorithms.AES, "aes-key");
+			KeystoreUtils.generateSecretKey(config);
+
+			propertiesFile = new File(temporaryFolder.newFolder("config"), "test.properties");
+			writeProperties("TESTY");
+
+			sProperties = new ReloadingSecureProperties(propertiesFile, keyfile.getPath(), "aes-key", "TEST");
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	@After
+	public void cleanup() throws Exception {
+		if (sProperties != null) {
+			sProperties.close();
+		}
+	}
+
+	@Test
+	public void testReloadOnPropertiesChange() {
+		try {
+
+			assertTrue(StringUtils.equals(sProperties.getProperty("test-encrypted"), "TESTY"));
+			assertTrue(StringUtils.equals(sProperties.getProperty("plain"), "PLAIN"));
+
+			SecureProperties before = sProperties.getProperties();
+
+			writeProperties("CHANGED");
+			waitForValue("test-encrypted", "CHANGED");
+
+			assertTrue(sProperties.getReloadCount() > 0);
+			assertNull(sProperties.getLastReloadError());
+			// The previous state is untouched, it was replaced rather than changed.
+			assertTrue(StringUtils.equals(before.getProperty("test-encrypted"), "TESTY"));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testReloadOnKeystoreChange() {
+		try {
+
+			// Replace the key and re-encrypt the file with it. The keystore is
+			// written last so the final reload sees the new key.
+			File newKeyfile = temporaryFolder.newFile("new.key");
+			KeyConfig config = new KeyConfig(newKeyfile, "TEST", 128, SupportedKeyGenAlgorithms.AES, "aes-key");
+			KeystoreUtils.generateSecretKey(config);
+
+			SecretKey newKey = KeystoreUtils.getSecretKey(newKeyfile, "aes-key", "TEST");
+			SecureProperties newProperties = new SecureProperties(newKey, EncryptionProviderFactory.getProvider(newKey));
+			newProperties.setProperty("test-unencrypted", "NEWKEY");
+			OutputStream stream = new FileOutputStream(propertiesFile);
+			newProperties.store(stream, "comment");
+			stream.close();
+
+			assertTrue(newKeyfile.renameTo(keyfile));
+
+			waitForValue("test-encrypted", "NEWKEY");
+			assertEquals(16, sProperties.getProperties().getKey().getEncoded().length);
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testInPlaceWriteNotLoadedHalfWritten() {
+		try {
+
+			StringBuilder contents = new StringBuilder();
+			contents.append("entry-name=aes-key\n");
+			contents.append("keystore-password=TEST\n");
+			contents.append("key-path=").append(keyfile.getPath().replace("\\", "\\\\")).append("\n");
+			contents.append("first=NEW\n");
+			for (int i = 0; i < 20; i++) {
+				contents.append("filler").append(i).append("=FILLER\n");
+			}
+			contents.append("last=NEW\n");
+			byte[] bytes = contents.toString().getBytes("ISO-8859-1");
+
+			final AtomicBoolean halfWritten = new AtomicBoolean();
+			final AtomicBoolean writing = new AtomicBoolean(true);
+			Thread sampler = new Thread(new Runnable() {
+				public void run() {
+					while (writing.get()) {
+						SecureProperties current = sProperties.getProperties();
+						if (current.getProperty("first") != null && current.getProperty("last") == null) {
+							halfWritten.set(true);
+						}
+					}
+				}
+			});
+			sampler.start();
+
+			// Written in place in chunks, pausing for less than the settle
+			// window between them.
+			OutputStream stream = new FileOutputStream(propertiesFile);
+			try {
+				for (int offset = 0; offset < bytes.length; offset += 32) {
+					stream.write(bytes, offset, Math.min(32, bytes.length - offset));
+					stream.flush();
+					Thread.sleep(30);
+				}
+			} finally {
+				stream.close();
+			}
+
+			waitForValue("last", "NEW");
+			writing.set(false);
+			sampler.join();
+
+			assertFalse(halfWritten.get());
+			assertTrue(StringUtils.equals(sProperties.getProperty("first"), "NEW"));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testKeyPathChange() {
+		try {
+
+			// Take the keystore from the key-path property.
+			sProperties.close();
+			sProperties = new ReloadingSecureProperties(propertiesFile, null, null, null);
+
+			// Move the keystore to another directory and point the file at it.
+			File otherKeyfile = new File(temporaryFolder.newFolder("keys"), "other.key");
+			FileUtils.copyFile(keyfile, otherKeyfile);
+			File oldKeyfile = keyfile;
+			keyfile = otherKeyfile;
+			writeProperties("MOVED");
+			waitForValue("test-encrypted", "MOVED");
+
+			// Changes to the new keystore are still picked up.
+			File newKeyfile = temporaryFolder.newFile("new.key");
+			KeyConfig config = new KeyConfig(newKeyfile, "TEST", 128, SupportedKeyGenAlgorithms.AES, "aes-key");
+			KeystoreUtils.generateSecretKey(config);
+			long reloads = sProperties.getReloadCount();
+			FileUtils.copyFile(newKeyfile, otherKeyfile);
+			long deadline = System.currentTimeMillis() + RELOAD_TIMEOUT_MILLIS;
+			while (sProperties.getProperties().getKey().getEncoded().length != 16) {
+				assertTrue("Timed out waiting for reload", System.currentTimeMillis() < deadline);
+				Thread.sleep(50);
+			}
+			assertTrue(sProperties.getReloadCount() > reloads);
+
+			// The old keystore is no longer watched.
+			reloads = sProperties.getReloadCount();
+			FileUtils.copyFile(newKeyfile, oldKeyfile);
+			Thread.sleep(500);
+			assertEquals(reloads, sProperties.getReloadCount());
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testFailedReloadKeepsState() {
+		try {
+
+			sProperties.close();
+			assertTrue(propertiesFile.delete());
+
+			try {
+				sProperties.reload();
+				fail();
+			} catch (Exception e) {
+				// Expected
+			}
+
+			assertNotNull(sProperties.getLastReloadError());
+			assertTrue(StringUtils.equals(sProperties.getProperty("test-encrypted"), "TESTY"));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	private void writeProperties(String value) throws Exception {
+		SecureProperties properties = new SecureProperties();
+		properties.setProperty("entry-name", "aes-key");
+		properties.setProperty("keystore-password", "TEST");
+		properties.setProperty("key-path", keyfile.getPath());
+		properties.setProperty("plain", "PLAIN");
+		properties.setProperty("test-unencrypted", value);
+		OutputStream stream = new FileOutputStream(propertiesFile);
+		properties.store(stream, "comment");
+		stream.close();
+	}
+
+	private void waitForValue(String key, String expected) throws Exception {
+		long deadline = System.currentTimeMillis() + RELOAD_TIMEOUT_MILLIS;
+		while (System.currentTimeMillis() < deadline) {
+			try {
+				if (StringUtils.equals(sProperties.getProperty(key), expected)) {
+					return;
+				}
+			} catch (RuntimeException e) {
+				// Old key with new values, wait for the next reload.
+			}
+			Thread.sleep(50);
+		}
+		fail("Timed out waiting for reload");
+	}
+
+}
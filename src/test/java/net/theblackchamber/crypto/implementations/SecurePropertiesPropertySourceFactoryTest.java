@@ -0,0 +1,146 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.implementations;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+import javax.crypto.SecretKey;
+
+import net.theblackchamber.crypto.constants.SupportedKeyGenAlgorithms;
+import net.theblackchamber.crypto.model.KeyConfig;
+import net.theblackchamber.crypto.providers.EncryptionProviderFactory;
+import net.theblackchamber.crypto.util.KeystoreUtils;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.support.EncodedResource;
+
+public class SecurePropertiesPropertySourceFactoryTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private File keyfile;
+
+	private String cipherText;
+
+	@Before
+	public void init() {
+		try {
+			keyfile = temporaryFolder.newFile("test.key");
+			KeyConfig config = new KeyConfig(keyfile, "TEST", 256, SupportedKeyGenAlgorithms.AES, "aes-key");
+			KeystoreUtils.generateSecretKey(config);
+			SecretKey key = KeystoreUtils.getSecretKey(keyfile, "aes-key", "TEST");
+			cipherText = EncryptionProviderFactory.getProvider(key).encrypt("secret value");
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testConfigurationInFile() {
+
+		try {
+
+			Properties props = new Properties();
+			props.setProperty("key-path", keyfile.getPath());
+			props.setProperty("entry-name", "aes-key");
+			props.setProperty("keystore-password", "TEST");
+			props.setProperty("secret-encrypted", cipherText);
+			File propertiesFile = writeProperties(props);
+
+			SecurePropertiesPropertySource source = (SecurePropertiesPropertySource) new SecurePropertiesPropertySourceFactory()
+					.createPropertySource("test", new EncodedResource(new FileSystemResource(propertiesFile)));
+
+			assertTrue(StringUtils.equals("secret value", (String) source.getProperty("secret-encrypted")));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test
+	public void testConfigurationByParameter() {
+
+		try {
+
+			Properties props = new Properties();
+			props.setProperty("secret-encrypted", cipherText);
+			File propertiesFile = writeProperties(props);
+			EncodedResource resource = new EncodedResource(new FileSystemResource(propertiesFile));
+
+			SecurePropertiesPropertySourceFactory factory = new SecurePropertiesPropertySourceFactory(
+					keyfile.getPath(), "aes-key", "TEST");
+			SecurePropertiesPropertySource first = (SecurePropertiesPropertySource) factory.createPropertySource(null,
+					resource);
+			SecurePropertiesPropertySource second = (SecurePropertiesPropertySource) factory.createPropertySource(
+					"second", resource);
+
+			assertTrue(StringUtils.equals("secret value", (String) first.getProperty("secret-encrypted")));
+			assertTrue(StringUtils.equals("secret value", (String) second.getProperty("secret-encrypted")));
+			assertSame(first.getSource().getEncryptionProvider(), second.getSource().getEncryptionProvider());
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test(expected = IOException.class)
+	public void testBadKeystore() throws IOException {
+
+		Properties props = new Properties();
+		props.setProperty("secret-encrypted", cipherText);
+		File propertiesFile = writeProperties(props);
+
+		new SecurePropertiesPropertySourceFactory(keyfile.getPath(), "aes-key", "WRONG").createPropertySource("test",
+				new EncodedResource(new FileSystemResource(propertiesFile)));
+
+	}
+
+	private File writeProperties(Properties props) throws IOException {
+		File propertiesFile = temporaryFolder.newFile();
+		FileOutputStream fos = new FileOutputStream(propertiesFile);
+		try {
+			props.store(fos, null);
+		} finally {
+			fos.close();
+		}
+		return propertiesFile;
+	}
+
+}
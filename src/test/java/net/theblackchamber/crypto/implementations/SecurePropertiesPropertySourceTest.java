@@ -0,0 +1,101 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.implementations;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+
+import net.theblackchamber.crypto.constants.SupportedKeyGenAlgorithms;
+import net.theblackchamber.crypto.exceptions.RuntimeCryptoException;
+import net.theblackchamber.crypto.model.KeyConfig;
+import net.theblackchamber.crypto.providers.EncryptionProvider;
+import net.theblackchamber.crypto.providers.EncryptionProviderFactory;
+import net.theblackchamber.crypto.util.KeystoreUtils;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SecurePropertiesPropertySourceTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testGetProperty() {
+
+		try {
+
+			File keyfile = temporaryFolder.newFile("test.key");
+			KeyConfig config = new KeyConfig(keyfile, "TEST", 256, SupportedKeyGenAlgorithms.AES, "aes-key");
+			KeystoreUtils.generateSecretKey(config);
+			SecretKey key = KeystoreUtils.getSecretKey(keyfile, "aes-key", "TEST");
+			EncryptionProvider provider = EncryptionProviderFactory.getProvider(key);
+
+			SecureProperties properties = new SecureProperties(key, provider);
+			properties.setProperty("clear", "clear value");
+			properties.setProperty("secret-unencrypted", "secret value");
+
+			SecurePropertiesPropertySource source = new SecurePropertiesPropertySource("test", properties);
+
+			assertTrue(StringUtils.equals("test", source.getName()));
+			assertTrue(StringUtils.equals("clear value", (String) source.getProperty("clear")));
+			assertEquals(0, source.getDecryptedCount());
+			assertTrue(StringUtils.equals("secret value", (String) source.getProperty("secret-encrypted")));
+			assertTrue(StringUtils.equals("secret value", (String) source.getProperty("secret-encrypted")));
+			assertEquals(1, source.getDecryptedCount());
+			assertNull(source.getProperty("missing-encrypted"));
+			assertTrue(source.containsProperty("secret-encrypted"));
+
+			String[] names = source.getPropertyNames();
+			Arrays.sort(names);
+			assertTrue(Arrays.equals(new String[] { "clear", "secret-encrypted" }, names));
+
+			// Later changes are not seen by the source.
+			properties.setProperty("clear", "changed");
+			assertTrue(StringUtils.equals("clear value", (String) source.getProperty("clear")));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test(expected = RuntimeCryptoException.class)
+	public void testNoEncryptionProvider() {
+
+		SecureProperties properties = new SecureProperties();
+		properties.put("secret-encrypted", "ABCDEF");
+
+		new SecurePropertiesPropertySource("test", properties).getProperty("secret-encrypted");
+
+	}
+
+}
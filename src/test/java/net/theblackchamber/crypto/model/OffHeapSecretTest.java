@@ -0,0 +1,76 @@
+package net.theblackchamber.crypto.model;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+
+public class OffHeapSecretTest {
+
+	@Test
+	public void testBytes() {
+
+		byte[] secret = new byte[] { 1, 2, 3, 4 };
+		OffHeapSecret holder = new OffHeapSecret(secret);
+
+		assertTrue(Arrays.equals(new byte[4], secret));
+		assertTrue(holder.length() == 4);
+		assertTrue(Arrays.equals(new byte[] { 1, 2, 3, 4 }, holder.getBytes()));
+
+		ByteBuffer view = holder.asReadOnlyBuffer();
+		assertTrue(view.isReadOnly());
+		assertTrue(view.isDirect());
+		assertTrue(view.get(2) == 3);
+
+		SecretKey key = holder.toSecretKey("AES");
+		assertTrue("AES".equals(key.getAlgorithm()));
+		assertTrue(Arrays.equals(new byte[] { 1, 2, 3, 4 }, key.getEncoded()));
+
+		holder.destroy();
+		assertTrue(holder.isDestroyed());
+		assertTrue(view.get(2) == 0);
+
+	}
+
+	@Test
+	public void testChars() {
+
+		char[] secret = "p\u00e4ssw\u00f6rd".toCharArray();
+		OffHeapSecret holder = new OffHeapSecret(secret);
+
+		assertTrue(Arrays.equals(new char[8], secret));
+		assertTrue(holder.length() == 10);
+		assertTrue(Arrays.equals("p\u00e4ssw\u00f6rd".toCharArray(), holder.getChars()));
+
+		holder.close();
+		assertTrue(holder.isDestroyed());
+
+	}
+
+	@Test
+	public void testFromKey() {
+
+		SecretKey key = new SecretKeySpec(new byte[] { 9, 8, 7 }, "AES");
+		OffHeapSecret holder = OffHeapSecret.fromKey(key);
+		assertTrue(Arrays.equals(key.getEncoded(), holder.getBytes()));
+
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testUseAfterDestroy() {
+		OffHeapSecret holder = new OffHeapSecret(new byte[] { 1 });
+		holder.destroy();
+		holder.getBytes();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidText() {
+		new OffHeapSecret(new char[] { '\ud800' });
+	}
+
+}
@@ -24,6 +24,8 @@
 package net.theblackchamber.crypto.providers;
 
 import java.io.File;
+import java.security.Key;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -102,6 +104,51 @@ public class AESEncryptionProviderTest {
 		}
 	}
 
+	@Test
+	public void testKeyNotRetained() {
+
+		try {
+
+			AESEncryptionProvider aesEncryptionProvider = new AESEncryptionProvider(key256);
+
+			// The provider hands out copies of the key it holds off the heap.
+			Key key = aesEncryptionProvider.getKey();
+			assertNotSame(key256, key);
+			assertNotSame(key, aesEncryptionProvider.getKey());
+			assertTrue(key256.getAlgorithm().equals(key.getAlgorithm()));
+			assertTrue(Arrays.equals(key256.getEncoded(), key.getEncoded()));
+
+			String cipher = aesEncryptionProvider.encrypt("TEST");
+			assertTrue("TEST".equals(new AESEncryptionProvider(key).decrypt(cipher)));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@SuppressWarnings("deprecation")
+	@Test
+	public void testDeprecatedStringEncryptor() {
+
+		try {
+
+			AESEncryptionProvider aesEncryptionProvider = new AESEncryptionProvider(key256);
+
+			// Still configured with the key for subclasses which use it.
+			assertNotNull(aesEncryptionProvider.stringEncryptor);
+			String cipher = aesEncryptionProvider.encrypt("TEST");
+			assertTrue("TEST".equals(aesEncryptionProvider.stringEncryptor.decrypt(cipher)));
+			assertTrue("TEST".equals(aesEncryptionProvider.decrypt(aesEncryptionProvider.stringEncryptor.encrypt("TEST"))));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
 	@Test
 	public void testBadKeyLength() {
 
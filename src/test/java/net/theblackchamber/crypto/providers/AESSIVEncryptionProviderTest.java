@@ -0,0 +1,143 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers;
+
+import java.io.File;
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.bouncycastle.util.encoders.Hex;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+import net.theblackchamber.crypto.constants.SupportedEncryptionAlgorithms;
+import net.theblackchamber.crypto.constants.SupportedKeyGenAlgorithms;
+import net.theblackchamber.crypto.exceptions.UnsupportedKeySizeException;
+import net.theblackchamber.crypto.model.KeyConfig;
+import net.theblackchamber.crypto.providers.symmetric.AESSIVEncryptionProvider;
+import net.theblackchamber.crypto.util.KeystoreUtils;
+
+public class AESSIVEncryptionProviderTest {
+
+	SecretKey key;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Before
+	public void init() {
+		try {
+			File keyFile = tempFolder.newFile("keystore.keys");
+
+			KeyConfig config = new KeyConfig(keyFile, "TEST", 256, SupportedKeyGenAlgorithms.AES, "aes-key");
+			KeystoreUtils.generateSecretKey(config);
+
+			key = KeystoreUtils.getSecretKey(keyFile, "aes-key", "TEST");
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testRfc5297Vector() {
+
+		try {
+
+			AESSIVEncryptionProvider provider = new AESSIVEncryptionProvider(new SecretKeySpec(
+					Hex.decode("fffefdfcfbfaf9f8f7f6f5f4f3f2f1f0f0f1f2f3f4f5f6f7f8f9fafbfcfdfeff"), "AES"));
+			byte[] associatedData = Hex.decode("101112131415161718191a1b1c1d1e1f2021222324252627");
+			byte[] clearBytes = Hex.decode("112233445566778899aabbccddee");
+
+			byte[] cipherBytes = provider.encrypt(clearBytes, associatedData);
+			assertTrue(Arrays.equals(Hex.decode("85632d07c6e8f37f950acd320a2ecc9340c02b9690c4dc04daef7f6afe5c"),
+					cipherBytes));
+			assertTrue(Arrays.equals(clearBytes, provider.decrypt(cipherBytes, associatedData)));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test
+	public void testDeterministic() {
+
+		try {
+
+			AESSIVEncryptionProvider provider = EncryptionProviderFactory.getDeterministicProvider(key);
+			assertTrue(provider.getAlgorithm() == SupportedEncryptionAlgorithms.AES_SIV);
+
+			String clear = RandomStringUtils.random(200);
+			String cipherText = provider.encrypt(clear);
+			assertTrue(cipherText.equals(provider.encrypt(clear)));
+			assertTrue(cipherText.equals(new AESSIVEncryptionProvider(key).encrypt(clear)));
+			assertFalse(cipherText.equals(provider.encrypt(clear + "x")));
+			assertTrue(StringUtils.equals(clear, provider.decrypt(cipherText)));
+
+			// Short values take the padded S2V path.
+			assertTrue("abc".equals(provider.decrypt(provider.encrypt("abc"))));
+
+			String email = provider.encrypt("user@example.com", "email");
+			assertFalse(email.equals(provider.encrypt("user@example.com", "login")));
+			assertTrue("user@example.com".equals(provider.decrypt(email, "email")));
+
+			try {
+				provider.decrypt(email, "login");
+				fail();
+			} catch (EncryptionOperationNotPossibleException e) {
+				// Expected, the associated data is authenticated.
+			}
+
+			byte[] cipherBytes = provider.encrypt(clear.getBytes("UTF-8"));
+			cipherBytes[cipherBytes.length - 1] ^= 1;
+			try {
+				provider.decrypt(cipherBytes);
+				fail();
+			} catch (EncryptionOperationNotPossibleException e) {
+				// Expected, the synthetic IV no longer matches.
+			}
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test(expected = UnsupportedKeySizeException.class)
+	public void testWrongKeySize() throws Exception {
+		new AESSIVEncryptionProvider(new SecretKeySpec(new byte[16], "AES"));
+	}
+
+}
@@ -0,0 +1,154 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.theblackchamber.crypto.constants.SupportedKeyGenAlgorithms;
+import net.theblackchamber.crypto.exceptions.MissingParameterException;
+import net.theblackchamber.crypto.exceptions.UnsupportedKeySizeException;
+import net.theblackchamber.crypto.model.KeyConfig;
+import net.theblackchamber.crypto.util.KeystoreUtils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BlindIndexProviderTest {
+
+	SecretKey indexKey;
+	SecretKey otherIndexKey;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Before
+	public void init() {
+		try {
+			File keyFile = tempFolder.newFile("keystore.keys");
+
+			KeyConfig config = new KeyConfig(keyFile, "TEST", 256, SupportedKeyGenAlgorithms.AES, "index-key");
+			KeystoreUtils.generateSecretKey(config);
+			config = new KeyConfig(keyFile, "TEST", 256, SupportedKeyGenAlgorithms.AES, "index-key-2");
+			KeystoreUtils.generateSecretKey(config);
+
+			indexKey = KeystoreUtils.getSecretKey(keyFile, "index-key", "TEST");
+			otherIndexKey = KeystoreUtils.getSecretKey(keyFile, "index-key-2", "TEST");
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testToken() {
+
+		try {
+
+			BlindIndexProvider provider = new BlindIndexProvider(indexKey);
+
+			String token = provider.token("user@example.com");
+			assertTrue(token.length() == 64);
+			assertTrue(token.equals(provider.token("user@example.com")));
+			assertTrue(token.equals(new BlindIndexProvider(indexKey).token("user@example.com")));
+			assertFalse(token.equals(provider.token("other@example.com")));
+			assertFalse(token.equals(new BlindIndexProvider(otherIndexKey).token("user@example.com")));
+
+			// Composed and decomposed forms of the same string.
+			assertTrue(provider.token("\u00e9").equals(provider.token("e\u0301")));
+
+			assertTrue(provider.token("value".getBytes("UTF-8")).length == 32);
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test
+	public void testTruncation() {
+
+		try {
+
+			BlindIndexProvider full = new BlindIndexProvider(indexKey);
+			BlindIndexProvider truncated = new BlindIndexProvider(indexKey, 8);
+			assertTrue(truncated.getTokenLength() == 8);
+
+			String token = truncated.token("user@example.com");
+			assertTrue(token.length() == 16);
+			assertTrue(full.token("user@example.com").startsWith(token));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test
+	public void testBatch() {
+
+		try {
+
+			BlindIndexProvider provider = new BlindIndexProvider(indexKey, 16);
+			List<String> tokens = provider.tokens(Arrays.asList("a", "b", null, "a"));
+
+			assertTrue(tokens.size() == 4);
+			assertTrue(tokens.get(0).equals(provider.token("a")));
+			assertTrue(tokens.get(1).equals(provider.token("b")));
+			assertNull(tokens.get(2));
+			assertTrue(tokens.get(0).equals(tokens.get(3)));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test(expected = MissingParameterException.class)
+	public void testMissingValue() throws Exception {
+		new BlindIndexProvider(indexKey).token("");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidTokenLength() throws Exception {
+		new BlindIndexProvider(indexKey, 2);
+	}
+
+	@Test(expected = UnsupportedKeySizeException.class)
+	public void testShortKey() throws Exception {
+		new BlindIndexProvider(new SecretKeySpec(new byte[8], "AES"));
+	}
+
+}
@@ -0,0 +1,124 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers;
+
+import java.io.File;
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+
+import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+import net.theblackchamber.crypto.constants.SupportedEncryptionAlgorithms;
+import net.theblackchamber.crypto.constants.SupportedKeyGenAlgorithms;
+import net.theblackchamber.crypto.exceptions.UnsupportedAlgorithmException;
+import net.theblackchamber.crypto.exceptions.UnsupportedKeySizeException;
+import net.theblackchamber.crypto.model.KeyConfig;
+import net.theblackchamber.crypto.providers.symmetric.ChaCha20EncryptionProvider;
+import net.theblackchamber.crypto.util.KeystoreUtils;
+
+public class ChaCha20EncryptionProviderTest {
+
+	SecretKey key;
+	SecretKey aesKey;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Before
+	public void init() {
+		try {
+			File keyFile = tempFolder.newFile("keystore.keys");
+
+			KeyConfig config = new KeyConfig(keyFile, "TEST", null,
+					SupportedKeyGenAlgorithms.CHACHA20, "chacha-key");
+			KeystoreUtils.generateSecretKey(config);
+
+			config = new KeyConfig(keyFile, "TEST", 256,
+					SupportedKeyGenAlgorithms.AES, "aes-key");
+			KeystoreUtils.generateSecretKey(config);
+
+			key = KeystoreUtils.getSecretKey(keyFile, "chacha-key", "TEST");
+			aesKey = KeystoreUtils.getSecretKey(keyFile, "aes-key", "TEST");
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testEncryptDecrypt() {
+
+		try {
+
+			assertTrue("ChaCha20".equals(key.getAlgorithm()));
+			assertTrue(key.getEncoded().length == 32);
+
+			EncryptionProvider provider = EncryptionProviderFactory.getProvider(key);
+			assertTrue(provider instanceof ChaCha20EncryptionProvider);
+			assertTrue(provider.getAlgorithm() == SupportedEncryptionAlgorithms.CHACHA20_POLY1305);
+
+			String clear = RandomStringUtils.random(200);
+			String cipherText = provider.encrypt(clear);
+			assertFalse(cipherText.equals(provider.encrypt(clear)));
+			assertTrue(StringUtils.equals(clear, provider.decrypt(cipherText)));
+
+			byte[] clearBytes = RandomStringUtils.randomAlphanumeric(5000).getBytes("UTF-8");
+			byte[] cipherBytes = provider.encrypt(clearBytes);
+			assertTrue(Arrays.equals(clearBytes, provider.decrypt(cipherBytes)));
+			assertTrue(Arrays.equals(clearBytes, provider.decrypt(cipherBytes)));
+
+			cipherBytes[cipherBytes.length - 1] ^= 1;
+			try {
+				provider.decrypt(cipherBytes);
+				fail();
+			} catch (EncryptionOperationNotPossibleException e) {
+				// Expected, the tag no longer matches.
+			}
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test(expected = UnsupportedAlgorithmException.class)
+	public void testWrongKeyAlgorithm() throws Exception {
+		new ChaCha20EncryptionProvider(aesKey);
+	}
+
+	@Test(expected = UnsupportedKeySizeException.class)
+	public void testWrongKeySize() throws Exception {
+		new ChaCha20EncryptionProvider(new javax.crypto.spec.SecretKeySpec(new byte[16], "ChaCha20"));
+	}
+
+}
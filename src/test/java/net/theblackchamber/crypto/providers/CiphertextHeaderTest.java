@@ -0,0 +1,93 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers;
+
+import static org.junit.Assert.*;
+
+import net.theblackchamber.crypto.constants.SupportedEncryptionAlgorithms;
+import net.theblackchamber.crypto.exceptions.MissingParameterException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+public class CiphertextHeaderTest {
+
+	@Test
+	public void testRoundTrip() {
+		try {
+
+			CiphertextHeader header = new CiphertextHeader(SupportedEncryptionAlgorithms.AES192, "tenant-key-\u00e9");
+
+			CiphertextHeader parsed = CiphertextHeader.parse(header.toHex() + "ABCDEF");
+			assertNotNull(parsed);
+			assertEquals(CiphertextHeader.VERSION, parsed.getVersion());
+			assertTrue(parsed.getAlgorithm() == SupportedEncryptionAlgorithms.AES192);
+			assertTrue(StringUtils.equals(parsed.getKeyId(), "tenant-key-\u00e9"));
+			assertEquals(header.getLength(), parsed.getLength());
+
+			byte[] headerBytes = header.toBytes();
+			byte[] cipherBytes = new byte[headerBytes.length + 4];
+			System.arraycopy(headerBytes, 0, cipherBytes, 0, headerBytes.length);
+			parsed = CiphertextHeader.parse(cipherBytes);
+			assertNotNull(parsed);
+			assertTrue(StringUtils.equals(parsed.getKeyId(), "tenant-key-\u00e9"));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testNoHeader() {
+
+		assertNull(CiphertextHeader.parse("0123456789ABCDEF0123456789ABCDEF"));
+		assertNull(CiphertextHeader.parse("CE4B"));
+		assertNull(CiphertextHeader.parse("not hex at all"));
+		assertNull(CiphertextHeader.parse((String) null));
+		assertNull(CiphertextHeader.parse(new byte[] { 1, 2, 3, 4, 5, 6 }));
+		assertNull(CiphertextHeader.parse((byte[]) null));
+
+	}
+
+	@Test
+	public void testBadKeyId() {
+
+		try {
+			new CiphertextHeader(SupportedEncryptionAlgorithms.AES256, "");
+			fail();
+		} catch (MissingParameterException e) {
+			// Expected
+		}
+
+		try {
+			new CiphertextHeader(SupportedEncryptionAlgorithms.AES256, StringUtils.repeat("k", 256));
+			fail();
+		} catch (MissingParameterException e) {
+			// Expected
+		}
+
+	}
+
+}
@@ -0,0 +1,73 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers;
+
+import java.io.File;
+
+import javax.crypto.SecretKey;
+
+import net.theblackchamber.crypto.constants.SupportedKeyGenAlgorithms;
+import net.theblackchamber.crypto.model.KeyConfig;
+import net.theblackchamber.crypto.util.KeystoreUtils;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * Start up benchmark, run in a fresh JVM with the test classpath:
+ * <code>java -cp target/classes:target/test-classes:... net.theblackchamber.crypto.providers.CryptoProvidersBenchmark</code><br>
+ * Prints the time to create a BouncyCastleProvider, the time from a cold
+ * start to the first decrypt (key generation, keystore load, provider
+ * initialization and decrypt) and the same for a second provider, which
+ * reuses the shared BouncyCastle provider.
+ */
+public class CryptoProvidersBenchmark {
+
+	public static void main(String[] args) throws Exception {
+
+		File keyfile = File.createTempFile("benchmark", ".key");
+		keyfile.deleteOnExit();
+
+		long start = System.nanoTime();
+		KeystoreUtils.generateSecretKey(new KeyConfig(keyfile, "TEST", 256, SupportedKeyGenAlgorithms.AES, "aes-key"));
+		SecretKey key = KeystoreUtils.getSecretKey(keyfile, "aes-key", "TEST");
+		EncryptionProvider provider = EncryptionProviderFactory.getProvider(key);
+		provider.decrypt(provider.encrypt("benchmark"));
+		System.out.println("Time to first decrypt:        " + millis(start) + "ms");
+
+		start = System.nanoTime();
+		provider = EncryptionProviderFactory.getProvider(key);
+		provider.decrypt(provider.encrypt("benchmark"));
+		System.out.println("Second provider to decrypt:   " + millis(start) + "ms");
+
+		start = System.nanoTime();
+		new BouncyCastleProvider();
+		System.out.println("Each new BouncyCastleProvider: " + millis(start) + "ms");
+
+	}
+
+	private static long millis(long start) {
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+}
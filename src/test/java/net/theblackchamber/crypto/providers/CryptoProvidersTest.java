@@ -0,0 +1,88 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers;
+
+import static org.junit.Assert.*;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+import javax.crypto.KeyGenerator;
+
+import org.junit.Test;
+
+public class CryptoProvidersTest {
+
+	@Test
+	public void testSharedBouncyCastleProvider() {
+		assertSame(CryptoProviders.getBouncyCastleProvider(), CryptoProviders.getBouncyCastleProvider());
+		assertTrue("BC".equals(CryptoProviders.getBouncyCastleProvider().getName()));
+	}
+
+	@Test
+	public void testPrefersJdkProviders() {
+
+		try {
+
+			assertFalse("BC".equals(CryptoProviders.getProvider("MessageDigest", "SHA-256").getName()));
+			assertFalse("BC".equals(CryptoProviders.getProvider("KeyGenerator", "AES").getName()));
+			assertSame(CryptoProviders.getBouncyCastleProvider(),
+					CryptoProviders.getProvider("MessageDigest", "WHIRLPOOL"));
+			assertSame(CryptoProviders.getBouncyCastleProvider(),
+					CryptoProviders.getProvider("SecretKeyFactory", "PBEWITHSHA256AND128BITAES-CBC-BC"));
+
+			assertTrue(CryptoProviders.getMessageDigest("WHIRLPOOL").getDigestLength() == 64);
+			assertFalse("BC".equals(CryptoProviders.getCipher("AES/CBC/PKCS5Padding").getProvider().getName()));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test
+	public void testKeyGeneratorFallback() {
+
+		try {
+
+			KeyGenerator keygen = CryptoProviders.getKeyGenerator("DESede", 192, new SecureRandom());
+			assertTrue(keygen.generateKey().getEncoded().length == 24);
+
+			keygen = CryptoProviders.getKeyGenerator("AES", 256, new SecureRandom());
+			assertTrue(keygen.generateKey().getEncoded().length == 32);
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test(expected = NoSuchAlgorithmException.class)
+	public void testUnknownAlgorithm() throws Exception {
+		CryptoProviders.getProvider("MessageDigest", "NOPE");
+	}
+
+}
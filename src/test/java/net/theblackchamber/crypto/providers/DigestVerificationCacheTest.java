@@ -0,0 +1,133 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.theblackchamber.crypto.providers.digest.DigestVerificationCache;
+import net.theblackchamber.crypto.providers.digest.IteratedDigestProvider;
+
+import org.junit.Test;
+
+public class DigestVerificationCacheTest {
+
+	@Test
+	public void testMatches() {
+
+		try {
+
+			IteratedDigestProvider provider = new IteratedDigestProvider.Builder().iterations(1000).build();
+			DigestVerificationCache cache = new DigestVerificationCache(provider, 10, 1, TimeUnit.MINUTES);
+			String hashed = provider.digest("password");
+
+			assertTrue(cache.matches("password", hashed));
+			assertTrue(cache.getHits() == 0);
+			assertTrue(cache.matches("password", hashed));
+			assertTrue(cache.getHits() == 1);
+
+			assertFalse(cache.matches("wrong", hashed));
+			assertFalse(cache.matches("wrong", hashed));
+			assertTrue(cache.getHits() == 1);
+			assertTrue(cache.size() == 1);
+
+			cache.invalidate(hashed);
+			assertTrue(cache.size() == 0);
+			assertTrue(cache.matches("password", hashed));
+			assertTrue(cache.getHits() == 1);
+
+			cache.invalidateAll();
+			assertTrue(cache.size() == 0);
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test
+	public void testInvalidateDuringCheck() {
+
+		try {
+
+			// Slow enough for the invalidation to land while the check runs.
+			final IteratedDigestProvider provider = new IteratedDigestProvider.Builder().calibrate(1000).build();
+			final DigestVerificationCache cache = new DigestVerificationCache(provider, 10, 1, TimeUnit.MINUTES);
+			final String hashed = provider.digest("password");
+
+			final AtomicBoolean matched = new AtomicBoolean();
+			Thread check = new Thread(new Runnable() {
+				public void run() {
+					matched.set(cache.matches("password", hashed));
+				}
+			});
+			check.start();
+			while (cache.getMisses() == 0) {
+				Thread.sleep(1);
+			}
+
+			// For example the password was changed.
+			cache.invalidate(hashed);
+			check.join();
+
+			assertTrue(matched.get());
+			assertTrue(cache.size() == 0);
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test
+	public void testBoundsAndExpiry() {
+
+		try {
+
+			IteratedDigestProvider provider = new IteratedDigestProvider.Builder().iterations(10).build();
+			DigestVerificationCache cache = new DigestVerificationCache(provider, 2, 1, TimeUnit.MINUTES);
+			for (int i = 0; i < 5; i++) {
+				assertTrue(cache.matches("password" + i, provider.digest("password" + i)));
+			}
+			assertTrue(cache.size() == 2);
+
+			DigestVerificationCache expiring = new DigestVerificationCache(provider, 2, 50, TimeUnit.MILLISECONDS);
+			String hashed = provider.digest("password");
+			assertTrue(expiring.matches("password", hashed));
+			Thread.sleep(100);
+			assertTrue(expiring.matches("password", hashed));
+			assertTrue(expiring.getHits() == 0);
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+}
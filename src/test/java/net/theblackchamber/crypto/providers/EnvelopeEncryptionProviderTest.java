@@ -0,0 +1,220 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.SecretKey;
+
+import net.theblackchamber.crypto.constants.SupportedKeyGenAlgorithms;
+import net.theblackchamber.crypto.exceptions.MissingParameterException;
+import net.theblackchamber.crypto.model.KeyConfig;
+import net.theblackchamber.crypto.util.Codecs;
+import net.theblackchamber.crypto.util.KeystoreUtils;
+
+import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.jasypt.encryption.pbe.StandardPBEByteEncryptor;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+import org.jasypt.salt.SaltGenerator;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EnvelopeEncryptionProviderTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private SecretKey oldKey;
+
+	private SecretKey newKey;
+
+	@Before
+	public void init() {
+		try {
+			File keyfile = temporaryFolder.newFile("test.key");
+			KeystoreUtils.generateSecretKey(new KeyConfig(keyfile, "TEST", 256, SupportedKeyGenAlgorithms.AES, "aes-key"));
+			KeystoreUtils.generateSecretKey(new KeyConfig(keyfile, "TEST", 192, SupportedKeyGenAlgorithms.DES, "des-key"));
+			oldKey = KeystoreUtils.getSecretKey(keyfile, "aes-key", "TEST");
+			newKey = KeystoreUtils.getSecretKey(keyfile, "des-key", "TEST");
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testEncryptDecrypt() {
+
+		try {
+
+			EncryptionProvider keyProvider = EncryptionProviderFactory.getProvider(oldKey);
+			EnvelopeEncryptionProvider provider = new EnvelopeEncryptionProvider(keyProvider, 10);
+			assertTrue(provider.getAlgorithm() == keyProvider.getAlgorithm());
+
+			String clear = RandomStringUtils.random(100);
+			String cipherText = provider.encrypt(clear);
+			assertFalse(cipherText.equals(provider.encrypt(clear)));
+			assertTrue(StringUtils.equals(clear, provider.decrypt(cipherText)));
+			assertTrue(StringUtils.equals(clear, provider.decrypt(cipherText)));
+
+			byte[] clearBytes = RandomStringUtils.randomAlphanumeric(5000).getBytes("UTF-8");
+			byte[] cipherBytes = provider.encrypt(clearBytes);
+			assertTrue(EnvelopeEncryptionProvider.isEnvelope(cipherBytes));
+			assertTrue(Arrays.equals(clearBytes, new EnvelopeEncryptionProvider(keyProvider, 0).decrypt(cipherBytes)));
+
+			// Values encrypted by the key provider directly are still readable.
+			assertTrue(StringUtils.equals(clear, provider.decrypt(keyProvider.encrypt(clear))));
+			assertTrue(Arrays.equals(clearBytes, provider.decrypt(keyProvider.encrypt(clearBytes))));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test
+	public void testTamperedValue() {
+
+		try {
+
+			EnvelopeEncryptionProvider provider = new EnvelopeEncryptionProvider(
+					EncryptionProviderFactory.getProvider(oldKey), 10);
+			byte[] cipherBytes = provider.encrypt("clear text".getBytes("UTF-8"));
+			cipherBytes[cipherBytes.length - 1] ^= 1;
+			try {
+				provider.decrypt(cipherBytes);
+				fail();
+			} catch (EncryptionOperationNotPossibleException e) {
+				// Expected, the GCM tag no longer matches.
+			}
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test
+	public void testUnheaderedValueLookingLikeEnvelope() {
+
+		try {
+
+			EncryptionProvider keyProvider = EncryptionProviderFactory.getProvider(oldKey);
+			EnvelopeEncryptionProvider provider = new EnvelopeEncryptionProvider(keyProvider, 10);
+
+			// A random salt which starts with the envelope magic, version and a
+			// plausible wrapped key length.
+			byte[] salt = new byte[16];
+			RandomSource.nextBytes(salt);
+			salt[0] = (byte) 0xCE;
+			salt[1] = (byte) 0x45;
+			salt[2] = 1;
+			salt[3] = 0;
+			salt[4] = 16;
+			String clear = RandomStringUtils.randomAlphanumeric(40);
+			byte[] cipherBytes = encryptWithSalt(oldKey, salt, clear.getBytes("UTF-8"));
+			assertTrue(EnvelopeEncryptionProvider.isEnvelope(cipherBytes));
+
+			assertTrue(Arrays.equals(clear.getBytes("UTF-8"), provider.decrypt(cipherBytes)));
+			assertTrue(StringUtils.equals(clear, provider.decrypt(Codecs.toHex(cipherBytes))));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test
+	public void testRewrap() {
+
+		try {
+
+			EnvelopeEncryptionProvider oldProvider = new EnvelopeEncryptionProvider(
+					EncryptionProviderFactory.getProvider(oldKey), 10);
+			EncryptionProvider newKeyProvider = EncryptionProviderFactory.getProvider(newKey);
+			EnvelopeEncryptionProvider newProvider = new EnvelopeEncryptionProvider(newKeyProvider, 10);
+
+			String clear = RandomStringUtils.random(1000);
+			String cipherText = oldProvider.encrypt(clear);
+			String rewrapped = oldProvider.rewrap(cipherText, newKeyProvider);
+
+			assertTrue(StringUtils.equals(clear, newProvider.decrypt(rewrapped)));
+			// Only the header changed, the encrypted data is the same.
+			assertTrue(cipherText.endsWith(rewrapped.substring(rewrapped.length() - clear.length() * 2)));
+
+			// Rewrapping into a keyring records the key used.
+			Map<String, SecretKey> keys = new HashMap<String, SecretKey>();
+			keys.put("aes-key", oldKey);
+			keys.put("des-key", newKey);
+			KeyringEncryptionProvider keyring = new KeyringEncryptionProvider("des-key", keys);
+			String keyringWrapped = oldProvider.rewrap(cipherText, keyring);
+			assertTrue(StringUtils.equals(clear, new EnvelopeEncryptionProvider(keyring, 0).decrypt(keyringWrapped)));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test(expected = MissingParameterException.class)
+	public void testMissingKeyProvider() throws Exception {
+		new EnvelopeEncryptionProvider(null, 10);
+	}
+
+	/**
+	 * Encrypt a value the way the single key providers do, with a chosen
+	 * salt. Also used by the keyring tests.
+	 */
+	static byte[] encryptWithSalt(SecretKey key, final byte[] salt, byte[] clearBytes) throws Exception {
+		EncryptionProvider provider = EncryptionProviderFactory.getProvider(key);
+		StandardPBEByteEncryptor encryptor = new StandardPBEByteEncryptor();
+		encryptor.setAlgorithm(provider.getAlgorithm().getAlgorithm());
+		encryptor.setKeyObtentionIterations(10);
+		encryptor.setPasswordCharArray(EncryptionProvider.password(key));
+		encryptor.setProvider(CryptoProviders.getBouncyCastleProvider());
+		encryptor.setSaltGenerator(new SaltGenerator() {
+			public byte[] generateSalt(int lengthBytes) {
+				return Arrays.copyOf(salt, lengthBytes);
+			}
+
+			public boolean includePlainSaltInEncryptionResults() {
+				return true;
+			}
+		});
+		return encryptor.encrypt(clearBytes);
+	}
+
+}
@@ -0,0 +1,110 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers;
+
+import static org.junit.Assert.*;
+
+import net.theblackchamber.crypto.exceptions.UnsupportedAlgorithmException;
+import net.theblackchamber.crypto.providers.digest.IteratedDigestProvider;
+import net.theblackchamber.crypto.providers.digest.SHA256DigestProvider;
+import net.theblackchamber.crypto.providers.digest.WhirlpoolDigestProvider;
+
+import org.junit.Test;
+
+public class IteratedDigestProviderTest {
+
+	@Test
+	public void testDigestAndMatch() {
+
+		try {
+
+			IteratedDigestProvider provider = new IteratedDigestProvider.Builder().iterations(1000).build();
+			String hashed = provider.digest("password");
+
+			assertTrue(hashed.startsWith("$SHA256$1000$"));
+			assertFalse(hashed.equals(provider.digest("password")));
+			assertTrue(provider.matches("password", hashed));
+			assertFalse(provider.matches("Password", hashed));
+			assertFalse(provider.matches("password", "$SHA256$1000$00"));
+			assertFalse(provider.matches("password", "$SHA256$abc$00$00"));
+			assertFalse(provider.needsRehash(hashed));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test
+	public void testOldParametersStillMatch() {
+
+		try {
+
+			IteratedDigestProvider oldProvider = new IteratedDigestProvider.Builder().algorithm("WHIRLPOOL")
+					.iterations(500).saltSizeBytes(8).build();
+			IteratedDigestProvider provider = new IteratedDigestProvider.Builder().iterations(2000).build();
+
+			String hashed = oldProvider.digest("password");
+			assertTrue(provider.matches("password", hashed));
+			assertTrue(provider.needsRehash(hashed));
+
+			String plain = new SHA256DigestProvider().digest("password");
+			assertTrue(provider.matches("password", plain));
+			assertTrue(provider.needsRehash(plain));
+
+			assertTrue(oldProvider.matches("password", new WhirlpoolDigestProvider().digest("password")));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test
+	public void testCalibrate() {
+
+		try {
+
+			IteratedDigestProvider fast = new IteratedDigestProvider.Builder().calibrate(1).minIterations(1).build();
+			IteratedDigestProvider slow = new IteratedDigestProvider.Builder().calibrate(50).minIterations(1).build();
+
+			assertTrue(fast.getIterations() >= 1);
+			assertTrue(slow.getIterations() > fast.getIterations());
+			assertTrue(slow.matches("password", slow.digest("password")));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test(expected = UnsupportedAlgorithmException.class)
+	public void testUnsupportedAlgorithm() throws Exception {
+		new IteratedDigestProvider.Builder().algorithm("NOPE").build();
+	}
+
+}
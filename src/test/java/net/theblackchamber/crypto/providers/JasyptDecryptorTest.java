@@ -0,0 +1,111 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+
+import net.theblackchamber.crypto.constants.SupportedKeyGenAlgorithms;
+import net.theblackchamber.crypto.model.KeyConfig;
+import net.theblackchamber.crypto.util.KeystoreUtils;
+
+import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JasyptDecryptorTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testDecryptAES() {
+		for (int keySize : new int[] { 128, 192, 256 }) {
+			checkDecrypt(SupportedKeyGenAlgorithms.AES, keySize);
+		}
+	}
+
+	@Test
+	public void testDecryptDES() {
+		checkDecrypt(SupportedKeyGenAlgorithms.DES, 192);
+	}
+
+	@Test(expected = EncryptionOperationNotPossibleException.class)
+	public void testDecryptWithWrongKey() throws Exception {
+
+		EncryptionProvider provider = createProvider(SupportedKeyGenAlgorithms.AES, 256, "one.key");
+		EncryptionProvider otherProvider = createProvider(SupportedKeyGenAlgorithms.AES, 256, "two.key");
+
+		// A wrong key almost always fails the padding check; try a few values
+		// so the test does not depend on a single one.
+		JasyptDecryptor decryptor = new JasyptDecryptor(otherProvider, 0);
+		for (int i = 0; i < 10; i++) {
+			decryptor.decrypt(provider.encrypt("clear text " + i));
+		}
+
+	}
+
+	private void checkDecrypt(SupportedKeyGenAlgorithms algorithm, int keySize) {
+
+		try {
+
+			EncryptionProvider provider = createProvider(algorithm, keySize, algorithm + "-" + keySize + ".key");
+			JasyptDecryptor cached = new JasyptDecryptor(provider, 2);
+			JasyptDecryptor uncached = new JasyptDecryptor(provider, 0);
+			assertTrue(cached.getAlgorithm() == provider.getAlgorithm());
+
+			for (int i = 0; i < 20; i++) {
+				String clear = RandomStringUtils.random(1 + i * 7);
+				String cipherText = provider.encrypt(clear);
+				assertTrue(StringUtils.equals(clear, cached.decrypt(cipherText)));
+				assertTrue(StringUtils.equals(clear, cached.decrypt(cipherText)));
+				assertTrue(StringUtils.equals(clear, uncached.decrypt(cipherText)));
+
+				byte[] clearBytes = clear.getBytes("UTF-8");
+				assertTrue(Arrays.equals(clearBytes, cached.decrypt(provider.encrypt(clearBytes))));
+			}
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	private EncryptionProvider createProvider(SupportedKeyGenAlgorithms algorithm, int keySize, String keyFileName)
+			throws Exception {
+		File keyfile = temporaryFolder.newFile(keyFileName);
+		KeystoreUtils.generateSecretKey(new KeyConfig(keyfile, "TEST", keySize, algorithm, "key"));
+		SecretKey key = KeystoreUtils.getSecretKey(keyfile, "key", "TEST");
+		return EncryptionProviderFactory.getProvider(key);
+	}
+
+}
@@ -0,0 +1,209 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.SecretKey;
+
+import net.theblackchamber.crypto.constants.SupportedEncryptionAlgorithms;
+import net.theblackchamber.crypto.constants.SupportedKeyGenAlgorithms;
+import net.theblackchamber.crypto.exceptions.MissingParameterException;
+import net.theblackchamber.crypto.exceptions.RuntimeCryptoException;
+import net.theblackchamber.crypto.model.KeyConfig;
+import net.theblackchamber.crypto.util.Codecs;
+import net.theblackchamber.crypto.util.KeystoreUtils;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class KeyringEncryptionProviderTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private Map<String, SecretKey> keys;
+
+	@Before
+	public void init() {
+		try {
+			File keyFile = tempFolder.newFile("keystore.keys");
+
+			KeyConfig config = new KeyConfig(keyFile, "TEST", 256,
+					SupportedKeyGenAlgorithms.AES, "aes-key-256");
+			KeystoreUtils.generateSecretKey(config);
+			config = new KeyConfig(keyFile, "TEST", 128,
+					SupportedKeyGenAlgorithms.AES, "aes-key-128");
+			KeystoreUtils.generateSecretKey(config);
+			config = new KeyConfig(keyFile, "TEST", 192,
+					SupportedKeyGenAlgorithms.DES, "des-key-192");
+			KeystoreUtils.generateSecretKey(config);
+
+			keys = new HashMap<String, SecretKey>();
+			keys.put("aes-key-256", KeystoreUtils.getSecretKey(keyFile, "aes-key-256", "TEST"));
+			keys.put("aes-key-128", KeystoreUtils.getSecretKey(keyFile, "aes-key-128", "TEST"));
+			keys.put("des-key-192", KeystoreUtils.getSecretKey(keyFile, "des-key-192", "TEST"));
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testEncryptDecryptMixedKeys() {
+		try {
+
+			KeyringEncryptionProvider oldKeyring = new KeyringEncryptionProvider("aes-key-128", keys);
+			KeyringEncryptionProvider desKeyring = new KeyringEncryptionProvider("des-key-192", keys);
+			KeyringEncryptionProvider newKeyring = new KeyringEncryptionProvider("aes-key-256", keys);
+
+			assertTrue(newKeyring.getAlgorithm() == SupportedEncryptionAlgorithms.AES256);
+			assertEquals(3, newKeyring.getKeyIds().size());
+
+			String oldCipherText = oldKeyring.encrypt("OLD");
+			String desCipherText = desKeyring.encrypt("DES");
+			String newCipherText = newKeyring.encrypt("NEW");
+
+			assertTrue(StringUtils.equals(KeyringEncryptionProvider.getKeyId(oldCipherText), "aes-key-128"));
+			assertTrue(StringUtils.equals(KeyringEncryptionProvider.getKeyId(desCipherText), "des-key-192"));
+			assertTrue(StringUtils.equals(KeyringEncryptionProvider.getKeyId(newCipherText), "aes-key-256"));
+
+			// Every keyring can read values from every key.
+			for (KeyringEncryptionProvider keyring : new KeyringEncryptionProvider[] { oldKeyring, desKeyring, newKeyring }) {
+				assertTrue(StringUtils.equals(keyring.decrypt(oldCipherText), "OLD"));
+				assertTrue(StringUtils.equals(keyring.decrypt(desCipherText), "DES"));
+				assertTrue(StringUtils.equals(keyring.decrypt(newCipherText), "NEW"));
+			}
+
+			byte[] clearBytes = "CLEAR BYTES".getBytes("UTF-8");
+			byte[] cipherBytes = oldKeyring.encrypt(clearBytes);
+			assertEquals("aes-key-128", CiphertextHeader.parse(cipherBytes).getKeyId());
+			assertTrue(StringUtils.equals(new String(newKeyring.decrypt(cipherBytes), "UTF-8"), "CLEAR BYTES"));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testDecryptWithoutHeader() {
+		try {
+
+			EncryptionProvider plain = EncryptionProviderFactory.getProvider(keys.get("aes-key-128"));
+			KeyringEncryptionProvider keyring = new KeyringEncryptionProvider("aes-key-128", keys);
+
+			String cipherText = plain.encrypt("LEGACY");
+			assertNull(KeyringEncryptionProvider.getKeyId(cipherText));
+			assertTrue(StringUtils.equals(keyring.decrypt(cipherText), "LEGACY"));
+
+			byte[] cipherBytes = plain.encrypt("LEGACY".getBytes("UTF-8"));
+			assertTrue(StringUtils.equals(new String(keyring.decrypt(cipherBytes), "UTF-8"), "LEGACY"));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testUnknownKey() {
+		try {
+
+			KeyringEncryptionProvider keyring = new KeyringEncryptionProvider("aes-key-256", keys);
+			String cipherText = keyring.encrypt("TEST");
+
+			// The other keyring's primary is authenticated, so reading the value
+			// as unheadered under it can not succeed by chance.
+			File chachaKeyFile = tempFolder.newFile("chacha.keys");
+			KeystoreUtils.generateSecretKey(new KeyConfig(chachaKeyFile, "TEST", null,
+					SupportedKeyGenAlgorithms.CHACHA20, "chacha-key"));
+			keys.put("chacha-key", KeystoreUtils.getSecretKey(chachaKeyFile, "chacha-key", "TEST"));
+			keys.remove("aes-key-256");
+			KeyringEncryptionProvider otherKeyring = new KeyringEncryptionProvider("chacha-key", keys);
+
+			try {
+				otherKeyring.decrypt(cipherText);
+				fail();
+			} catch (RuntimeCryptoException e) {
+				// Expected
+			}
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testUnheaderedValueLookingLikeHeader() {
+		try {
+
+			// A value written before keyrings whose random salt starts with a
+			// header naming a key the keyring does not have.
+			byte[] salt = new byte[16];
+			RandomSource.nextBytes(salt);
+			salt[0] = (byte) 0xCE;
+			salt[1] = (byte) 0x4B;
+			salt[2] = (byte) CiphertextHeader.VERSION;
+			salt[3] = (byte) SupportedEncryptionAlgorithms.AES128.getId();
+			salt[4] = 3;
+			salt[5] = 'a';
+			salt[6] = 'b';
+			salt[7] = 'c';
+			byte[] cipherBytes = EnvelopeEncryptionProviderTest.encryptWithSalt(keys.get("aes-key-128"), salt,
+					"LEGACY".getBytes("UTF-8"));
+
+			KeyringEncryptionProvider keyring = new KeyringEncryptionProvider("aes-key-128", keys);
+			assertTrue(Arrays.equals("LEGACY".getBytes("UTF-8"), keyring.decrypt(cipherBytes)));
+			assertTrue(StringUtils.equals("LEGACY", keyring.decrypt(Codecs.toHex(cipherBytes))));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testMissingPrimaryKey() {
+		try {
+			new KeyringEncryptionProvider("missing-key", keys);
+			fail();
+		} catch (Throwable t) {
+			if (!(t instanceof MissingParameterException)) {
+				fail();
+			}
+		}
+	}
+
+}
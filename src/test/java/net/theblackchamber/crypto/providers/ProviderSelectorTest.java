@@ -0,0 +1,234 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers;
+
+import static org.junit.Assert.*;
+
+import java.security.MessageDigestSpi;
+import java.security.Provider;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.theblackchamber.crypto.providers.digest.SHA256DigestProvider;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ProviderSelectorTest {
+
+	@After
+	public void reset() {
+		CryptoProviders.reset();
+	}
+
+	@Test
+	public void testSelectCipher() {
+
+		try {
+
+			ProviderSelector.Selection selection = new ProviderSelector(5).selectCipher("AES/CBC/PKCS5Padding");
+
+			assertNotNull(selection.getProvider());
+			assertFalse(selection.getCandidates().isEmpty());
+			for (ProviderSelector.Candidate candidate : selection.getCandidates()) {
+				if (candidate.isPassed()) {
+					assertTrue(candidate.getThroughput() > 0);
+				} else {
+					assertNotNull(candidate.getReason());
+				}
+			}
+
+			Cipher cipher = CryptoProviders.getCipher("AES/CBC/PKCS5Padding");
+			assertSame(selection.getProvider(), cipher.getProvider());
+			cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(new byte[32], "AES"), new IvParameterSpec(new byte[16]));
+			assertTrue(cipher.doFinal(new byte[10]).length == 16);
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test
+	public void testSelectsFastestPassingCandidate() {
+
+		ProviderSelector.Selection selection = new ProviderSelector(5).selectDigest("SHA-256");
+
+		double fastest = 0;
+		for (ProviderSelector.Candidate candidate : selection.getCandidates()) {
+			if (candidate.isPassed()) {
+				fastest = Math.max(fastest, candidate.getThroughput());
+			}
+		}
+		for (ProviderSelector.Candidate candidate : selection.getCandidates()) {
+			if (candidate.getProvider() == selection.getProvider()) {
+				assertTrue(candidate.getThroughput() == fastest);
+			}
+		}
+
+		try {
+			assertSame(selection.getProvider(), CryptoProviders.getProvider("MessageDigest", "SHA-256"));
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test
+	public void testKnownAnswers() {
+
+		// Every default algorithm which is available passes its known answer.
+		for (ProviderSelector.Selection selection : new ProviderSelector(5).selectDefaults()) {
+			for (ProviderSelector.Candidate candidate : selection.getCandidates()) {
+				assertTrue(candidate.toString(), candidate.isPassed()
+						|| candidate.getReason().startsWith("does not support"));
+			}
+		}
+
+		// A wrong answer rejects every candidate and binds nothing.
+		byte[] wrong = new byte[32];
+		ProviderSelector.Selection selection = new ProviderSelector(5).selectDigest("SHA-256",
+				new ProviderSelector.KnownAnswer("abc".getBytes(), wrong));
+		assertNull(selection.getProvider());
+		assertFalse(selection.getCandidates().isEmpty());
+		for (ProviderSelector.Candidate candidate : selection.getCandidates()) {
+			assertFalse(candidate.isPassed());
+			assertTrue("known answer test failed".equals(candidate.getReason()));
+		}
+
+		// Without a known answer nothing is selected.
+		selection = new ProviderSelector(5).selectDigest("MD5");
+		assertNull(selection.getProvider());
+		assertFalse(selection.getCandidates().isEmpty());
+		assertTrue(selection.toString().contains("no known answer"));
+
+	}
+
+	@Test
+	public void testBindingReachesExistingDigestProviders() {
+
+		try {
+
+			SHA256DigestProvider digestProvider = new SHA256DigestProvider();
+			String expected = digestProvider.digest("abc");
+
+			// The alias shares the standard name's binding.
+			ProviderSelector.Selection selection = new ProviderSelector(5).selectDigest("SHA-256");
+			assertSame(selection.getProvider(), CryptoProviders.getProvider("MessageDigest", "SHA256"));
+
+			// A provider bound after the digest provider was created is used.
+			CryptoProviders.bind("MessageDigest", "SHA-256", new FixedDigestProvider());
+			assertTrue(FixedDigest.HEX.equals(digestProvider.digest("abc")));
+			assertTrue(FixedDigest.HEX.equals(digestProvider.digest("abc".getBytes())));
+
+			CryptoProviders.reset();
+			assertTrue(expected.equals(digestProvider.digest("abc")));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test
+	public void testUnavailableAlgorithm() {
+
+		ProviderSelector.Selection selection = new ProviderSelector(5).selectDigest("NOPE");
+		assertNull(selection.getProvider());
+		assertTrue(selection.getCandidates().isEmpty());
+		assertTrue(selection.toString().contains("not available"));
+
+	}
+
+	@Test
+	public void testReport() {
+
+		List<ProviderSelector.Selection> selections = new ProviderSelector(5).selectDefaults();
+		assertTrue(selections.size() == 6);
+
+		String report = ProviderSelector.report(selections);
+		assertTrue(report.contains("Cipher AES/GCM/NoPadding"));
+		assertTrue(report.contains("MessageDigest SHA-512"));
+		assertTrue(report.contains("MB/s"));
+
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidProbeTime() {
+		new ProviderSelector(0);
+	}
+
+	/**
+	 * Provider whose SHA-256 always returns the same hash, to tell which
+	 * provider was used.
+	 */
+	private static class FixedDigestProvider extends Provider {
+
+		private static final long serialVersionUID = 3151279735613850719L;
+
+		FixedDigestProvider() {
+			super("FixedDigest", 1.0, "Fixed SHA-256 for tests");
+			put("MessageDigest.SHA-256", FixedDigest.class.getName());
+		}
+
+	}
+
+	public static class FixedDigest extends MessageDigestSpi {
+
+		static final String HEX = "0101010101010101010101010101010101010101010101010101010101010101";
+
+		@Override
+		protected void engineUpdate(byte input) {
+		}
+
+		@Override
+		protected void engineUpdate(byte[] input, int offset, int len) {
+		}
+
+		@Override
+		protected byte[] engineDigest() {
+			byte[] digest = new byte[32];
+			Arrays.fill(digest, (byte) 1);
+			return digest;
+		}
+
+		@Override
+		protected int engineGetDigestLength() {
+			return 32;
+		}
+
+		@Override
+		protected void engineReset() {
+		}
+
+	}
+
+}
@@ -0,0 +1,142 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers;
+
+import static org.junit.Assert.*;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class RandomSourceTest {
+
+	@After
+	public void reset() {
+		RandomSource.setFactory(RandomSource.DEFAULT_FACTORY);
+		RandomSource.setPrefetchSize(0);
+	}
+
+	@Test
+	public void testNextBytes() {
+
+		byte[] first = RandomSource.nextBytes(32);
+		byte[] second = RandomSource.nextBytes(32);
+		assertTrue(first.length == 32);
+		assertFalse(Arrays.equals(first, second));
+		assertFalse(Arrays.equals(new byte[32], first));
+
+		assertSame(RandomSource.getSecureRandom(), RandomSource.getSecureRandom());
+		assertTrue(RandomSource.getSaltGenerator().generateSalt(16).length == 16);
+		assertTrue(RandomSource.getSaltGenerator().includePlainSaltInEncryptionResults());
+
+	}
+
+	@Test
+	public void testPerThreadGenerators() {
+
+		try {
+
+			final SecureRandom mine = RandomSource.getSecureRandom();
+			ExecutorService executor = Executors.newFixedThreadPool(4);
+			try {
+				Set<SecureRandom> generators = new HashSet<SecureRandom>();
+				Set<String> values = new HashSet<String>();
+				for (int i = 0; i < 4; i++) {
+					Future<SecureRandom> generator = executor.submit(new Callable<SecureRandom>() {
+						@Override
+						public SecureRandom call() throws Exception {
+							return RandomSource.getSecureRandom();
+						}
+					});
+					Future<byte[]> value = executor.submit(new Callable<byte[]>() {
+						@Override
+						public byte[] call() throws Exception {
+							return RandomSource.nextBytes(16);
+						}
+					});
+					assertNotSame(mine, generator.get());
+					generators.add(generator.get());
+					values.add(Arrays.toString(value.get()));
+				}
+				assertTrue(generators.size() <= 4);
+				assertTrue(values.size() == 4);
+			} finally {
+				executor.shutdown();
+			}
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test
+	public void testPrefetch() {
+
+		RandomSource.setPrefetchSize(64);
+		assertTrue(RandomSource.getPrefetchSize() == 64);
+
+		Set<String> values = new HashSet<String>();
+		for (int i = 0; i < 100; i++) {
+			values.add(Arrays.toString(RandomSource.nextBytes(16)));
+		}
+		assertTrue(values.size() == 100);
+
+		// Larger than the batch, served directly.
+		assertTrue(RandomSource.nextBytes(100).length == 100);
+
+	}
+
+	@Test
+	public void testFactory() {
+
+		final SecureRandom custom = new SecureRandom();
+		RandomSource.setFactory(new RandomSource.Factory() {
+			@Override
+			public SecureRandom newSecureRandom() {
+				return custom;
+			}
+		});
+		assertSame(custom, RandomSource.getSecureRandom());
+
+		RandomSource.setFactory(RandomSource.DEFAULT_FACTORY);
+		assertNotSame(custom, RandomSource.getSecureRandom());
+
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullFactory() {
+		RandomSource.setFactory(null);
+	}
+
+}
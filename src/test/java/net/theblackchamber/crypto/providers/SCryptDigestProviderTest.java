@@ -0,0 +1,142 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import net.theblackchamber.crypto.providers.digest.SCryptDigestProvider;
+
+import org.junit.Test;
+
+public class SCryptDigestProviderTest {
+
+	@Test
+	public void testDigestAndMatch() {
+
+		SCryptDigestProvider provider = new SCryptDigestProvider(1024, 8, 1);
+		try {
+
+			String hashed = provider.digest("password");
+
+			assertTrue(hashed.startsWith("$SCRYPT$1024$8$1$"));
+			assertFalse(hashed.equals(provider.digest("password")));
+			assertTrue(provider.matches("password", hashed));
+			assertFalse(provider.matches("Password", hashed));
+			assertFalse(provider.matches("password", "$SCRYPT$1000$8$1$00$00"));
+			assertFalse(provider.matches("password", "$SHA256$1000$00$00"));
+			assertFalse(provider.needsRehash(hashed));
+
+			SCryptDigestProvider stronger = new SCryptDigestProvider(2048, 8, 1);
+			assertTrue(stronger.matches("password", hashed));
+			assertTrue(stronger.needsRehash(hashed));
+			stronger.close();
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		} finally {
+			provider.close();
+		}
+
+	}
+
+	@Test
+	public void testExcessiveParametersRejected() {
+
+		SCryptDigestProvider provider = new SCryptDigestProvider(1024, 8, 1);
+		try {
+
+			String hashed = provider.digest("password");
+			String tail = hashed.substring("$SCRYPT$1024$8$1".length());
+
+			// Each of these would need gigabytes of memory or minutes of CPU.
+			long start = System.currentTimeMillis();
+			assertFalse(provider.matches("password", "$SCRYPT$2$1000000$1000000" + tail));
+			assertFalse(provider.matches("password", "$SCRYPT$1024$1000000$1" + tail));
+			assertFalse(provider.matches("password", "$SCRYPT$1024$8$1000000" + tail));
+			assertFalse(provider.matches("password", "$SCRYPT$1048576$32$1" + tail));
+			assertFalse(provider.matches("password", "$SCRYPT$262144$8$16" + tail));
+			assertTrue(System.currentTimeMillis() - start < 1000);
+
+			try {
+				new SCryptDigestProvider(1048576, 32, 1).close();
+				fail();
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+
+		} finally {
+			provider.close();
+		}
+
+	}
+
+	@Test
+	public void testMatchesAsync() {
+
+		SCryptDigestProvider provider = new SCryptDigestProvider(1024, 8, 1, 2, 10);
+		try {
+
+			String hashed = provider.digest("password");
+			Future<Boolean> match = provider.matchesAsync("password", hashed);
+			Future<Boolean> noMatch = provider.matchesAsync("wrong", hashed);
+
+			assertTrue(match.get());
+			assertFalse(noMatch.get());
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		} finally {
+			provider.close();
+		}
+
+	}
+
+	@Test
+	public void testMatchesAsyncRejectsWhenFull() {
+
+		SCryptDigestProvider provider = new SCryptDigestProvider(16384, 8, 1, 1, 1);
+		try {
+
+			String hashed = provider.digest("password");
+			provider.matchesAsync("password", hashed);
+			provider.matchesAsync("password", hashed);
+			try {
+				provider.matchesAsync("password", hashed);
+				fail();
+			} catch (RejectedExecutionException e) {
+				// Expected, the one thread is busy and the queue is full.
+			}
+
+		} finally {
+			provider.close();
+		}
+
+	}
+
+}
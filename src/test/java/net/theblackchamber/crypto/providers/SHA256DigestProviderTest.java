@@ -1,6 +1,10 @@
 package net.theblackchamber.crypto.providers;
 
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import net.theblackchamber.crypto.providers.digest.SHA256DigestProvider;
@@ -54,5 +58,46 @@ public class SHA256DigestProviderTest {
 		
 	}
 	
+	@Test
+	public void testDigestOverloads(){
+		
+		try{
+			
+			SHA256DigestProvider provider = new SHA256DigestProvider();
+			String clear = RandomStringUtils.randomAlphanumeric(10000);
+			byte[] bytes = clear.getBytes("UTF-8");
+			String hashed = provider.digest(clear);
+			
+			assertTrue(hashed.equals(provider.digest(bytes)));
+			assertTrue(hashed.equals(provider.digest(ByteBuffer.wrap(bytes))));
+			assertTrue(hashed.equals(provider.digest(new ByteArrayInputStream(bytes))));
+			
+		}catch(Throwable t){
+			t.printStackTrace();
+			fail();
+		}
+		
+	}
+	
+	@Test
+	public void testPooledBatchDigest(){
+		
+		SHA256DigestProvider provider = new SHA256DigestProvider();
+		SHA256DigestProvider pooledProvider = new SHA256DigestProvider(true);
+		assertTrue(pooledProvider.isPooled());
+		
+		List<String> clears = new ArrayList<String>();
+		for(int i = 0 ; i < 200 ; i++){
+			clears.add(RandomStringUtils.randomAlphanumeric(50));
+		}
+		
+		List<String> hashes = pooledProvider.digest(clears);
+		assertTrue(hashes.size() == clears.size());
+		for(int i = 0 ; i < clears.size() ; i++){
+			assertTrue(hashes.get(i).equals(provider.digest(clears.get(i))));
+		}
+		
+	}
+	
 
 }
@@ -0,0 +1,253 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.security.Key;
+import java.security.KeyStoreException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.theblackchamber.crypto.constants.SupportedKeyGenAlgorithms;
+import net.theblackchamber.crypto.model.KeyConfig;
+import net.theblackchamber.crypto.util.IndexedKeyStore;
+import net.theblackchamber.crypto.util.KeystoreUtils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TenantKeyManagerTest {
+
+	File keyFile;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Before
+	public void init() {
+		try {
+			keyFile = tempFolder.newFile("keystore.keys");
+			List<KeyConfig> configs = new ArrayList<KeyConfig>();
+			for (int i = 0; i < 5; i++) {
+				configs.add(new KeyConfig(keyFile, "TEST", 256, SupportedKeyGenAlgorithms.AES, "tenant-" + i));
+			}
+			KeystoreUtils.generateSecretKeys(configs);
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testCacheAndEviction() {
+
+		try {
+
+			TenantKeyManager manager = TenantKeyManager.forKeyStore(keyFile, "TEST", 2);
+
+			EncryptionProvider tenant0 = manager.getProvider("tenant-0");
+			assertSame(tenant0, manager.getProvider("tenant-0"));
+			assertTrue(manager.getHits() == 1);
+			assertTrue(manager.getMisses() == 1);
+
+			String cipherText = tenant0.encrypt("tenant 0 data");
+			assertTrue("tenant 0 data".equals(manager.getProvider("tenant-0").decrypt(cipherText)));
+
+			manager.getProvider("tenant-1");
+			manager.getProvider("tenant-0");
+			manager.getProvider("tenant-2");
+			assertTrue(manager.size() == 2);
+			assertTrue(manager.getEvictions() == 1);
+
+			// tenant-1 was least recently used.
+			long misses = manager.getMisses();
+			assertSame(tenant0, manager.getProvider("tenant-0"));
+			manager.getProvider("tenant-1");
+			assertTrue(manager.getMisses() == misses + 1);
+
+			manager.invalidate("tenant-0");
+			assertNotSame(tenant0, manager.getProvider("tenant-0"));
+
+			manager.invalidateAll();
+			assertTrue(manager.size() == 0);
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test
+	public void testInvalidateDuringLoad() {
+
+		try {
+
+			final AtomicInteger loads = new AtomicInteger();
+			final CountDownLatch keyRead = new CountDownLatch(1);
+			final CountDownLatch release = new CountDownLatch(1);
+			final TenantKeyManager manager = new TenantKeyManager(new TenantKeyManager.KeyLoader() {
+				@Override
+				public Key load(String tenantId) throws Exception {
+					// The first load reads the old key and is then held up.
+					if (loads.incrementAndGet() == 1) {
+						Key key = KeystoreUtils.getSecretKey(keyFile, "tenant-0", "TEST");
+						keyRead.countDown();
+						release.await();
+						return key;
+					}
+					return KeystoreUtils.getSecretKey(keyFile, "tenant-1", "TEST");
+				}
+			}, 10);
+
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			try {
+				Future<EncryptionProvider> slow = executor.submit(new Callable<EncryptionProvider>() {
+					@Override
+					public EncryptionProvider call() throws Exception {
+						return manager.getProvider("tenant");
+					}
+				});
+				keyRead.await();
+
+				// Rotated while the load is running.
+				manager.invalidate("tenant");
+				EncryptionProvider rotated = manager.getProvider("tenant");
+				assertEquals(2, loads.get());
+
+				release.countDown();
+				EncryptionProvider stale = slow.get();
+				assertNotSame(stale, rotated);
+
+				// The stale provider was not cached over the rotated one.
+				assertSame(rotated, manager.getProvider("tenant"));
+				assertEquals(2, loads.get());
+
+				String cipherText = rotated.encrypt("rotated");
+				Key newKey = KeystoreUtils.getSecretKey(keyFile, "tenant-1", "TEST");
+				assertTrue("rotated".equals(EncryptionProviderFactory.getProvider(newKey).decrypt(cipherText)));
+			} finally {
+				executor.shutdownNow();
+			}
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test
+	public void testConcurrentLoadsDeduplicated() {
+
+		try {
+
+			final AtomicInteger loads = new AtomicInteger();
+			final CountDownLatch release = new CountDownLatch(1);
+			final TenantKeyManager manager = new TenantKeyManager(new TenantKeyManager.KeyLoader() {
+				@Override
+				public Key load(String tenantId) throws Exception {
+					loads.incrementAndGet();
+					release.await();
+					return KeystoreUtils.getSecretKey(keyFile, tenantId, "TEST");
+				}
+			}, 10);
+
+			ExecutorService executor = Executors.newFixedThreadPool(8);
+			try {
+				List<Future<EncryptionProvider>> results = new ArrayList<Future<EncryptionProvider>>();
+				for (int i = 0; i < 8; i++) {
+					results.add(executor.submit(new Callable<EncryptionProvider>() {
+						@Override
+						public EncryptionProvider call() throws Exception {
+							return manager.getProvider("tenant-3");
+						}
+					}));
+				}
+				Thread.sleep(200);
+				release.countDown();
+
+				EncryptionProvider provider = results.get(0).get();
+				for (Future<EncryptionProvider> result : results) {
+					assertSame(provider, result.get());
+				}
+				assertTrue(loads.get() == 1);
+				assertTrue(manager.getMisses() == 1);
+			} finally {
+				executor.shutdown();
+			}
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test
+	public void testIndexedKeyStore() {
+
+		try {
+
+			File indexedFile = new File(tempFolder.getRoot(), "keystore.iks");
+			IndexedKeyStore.fromJceks(keyFile, "TEST", indexedFile);
+
+			TenantKeyManager manager = TenantKeyManager.forIndexedKeyStore(
+					IndexedKeyStore.open(indexedFile, "TEST"), 10);
+			TenantKeyManager jceksManager = TenantKeyManager.forKeyStore(keyFile, "TEST", 10);
+
+			String cipherText = jceksManager.getProvider("tenant-4").encrypt("clear");
+			assertTrue("clear".equals(manager.getProvider("tenant-4").decrypt(cipherText)));
+
+			try {
+				manager.getProvider("missing");
+				fail();
+			} catch (KeyStoreException e) {
+				assertTrue(manager.getLoadFailures() == 1);
+				assertTrue(manager.size() == 1);
+			}
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidSize() {
+		TenantKeyManager.forKeyStore(keyFile, "TEST", 0);
+	}
+
+}
@@ -0,0 +1,120 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.crypto.providers;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Random;
+
+import net.theblackchamber.crypto.providers.digest.TreeHashDigestProvider;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TreeHashDigestProviderTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testDigest() {
+
+		try {
+
+			byte[] data = new byte[10 * 1024 + 17];
+			new Random(42).nextBytes(data);
+			File file = temporaryFolder.newFile("data.bin");
+			FileUtils.writeByteArrayToFile(file, data);
+
+			TreeHashDigestProvider provider = new TreeHashDigestProvider(1024, 4);
+			String root = provider.digest(data);
+
+			assertTrue(root.length() == 64);
+			assertTrue(root.equals(provider.digest(file)));
+			assertTrue(root.equals(new TreeHashDigestProvider(1024, 1).digest(file)));
+			assertFalse(root.equals(new TreeHashDigestProvider(2048, 4).digest(file)));
+
+			List<String> leaves = provider.leafDigests(file);
+			assertTrue(leaves.size() == 11);
+			assertTrue(root.equals(provider.rootDigest(leaves)));
+
+			data[5000] ^= 1;
+			assertFalse(root.equals(provider.digest(data)));
+
+			File empty = temporaryFolder.newFile("empty.bin");
+			assertTrue(provider.digest(new byte[0]).equals(provider.digest(empty)));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test
+	public void testVerifyLeaves() {
+
+		try {
+
+			byte[] data = new byte[8 * 1024];
+			new Random(7).nextBytes(data);
+			File file = temporaryFolder.newFile("data.bin");
+			FileUtils.writeByteArrayToFile(file, data);
+
+			TreeHashDigestProvider provider = new TreeHashDigestProvider(1024, 4);
+			List<String> leaves = provider.leafDigests(file);
+
+			assertTrue(provider.verifyLeaves(file, 0, leaves));
+			assertTrue(provider.verifyLeaves(file, 3, leaves.subList(3, 6)));
+			assertFalse(provider.verifyLeaves(file, 4, leaves.subList(3, 6)));
+			assertFalse(provider.verifyLeaves(file, 7, leaves.subList(3, 6)));
+
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			raf.seek(4 * 1024 + 10);
+			raf.write(data[4 * 1024 + 10] ^ 1);
+			raf.close();
+
+			assertTrue(provider.verifyLeaves(file, 0, leaves.subList(0, 4)));
+			assertFalse(provider.verifyLeaves(file, 4, leaves.subList(4, 5)));
+			assertTrue(provider.verifyLeaves(file, 5, leaves.subList(5, 8)));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test(expected = FileNotFoundException.class)
+	public void testMissingFile() throws Exception {
+		new TreeHashDigestProvider().digest(new File(temporaryFolder.getRoot(), "missing.bin"));
+	}
+
+}
@@ -0,0 +1,94 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.util;
+
+import java.util.Random;
+
+import net.theblackchamber.crypto.util.Codecs;
+
+import org.jasypt.commons.CommonUtils;
+
+/**
+ * Encoding benchmark, run with the test classpath:
+ * <code>java -cp target/classes:target/test-classes:... net.theblackchamber.util.CodecsBenchmark</code><br>
+ * Prints the time per value to HEX encode and decode a typical small
+ * ciphertext (64 bytes) with jasypt's CommonUtils and with Codecs, and the
+ * Base64 round trip for comparison.
+ */
+public class CodecsBenchmark {
+
+	private static final int VALUES = 1000000;
+
+	public static void main(String[] args) {
+
+		byte[] bytes = new byte[64];
+		new Random(42).nextBytes(bytes);
+		String hex = Codecs.toHex(bytes);
+		String base64 = Codecs.toBase64(bytes);
+
+		for (int round = 0; round < 3; round++) {
+
+			long sink = 0;
+
+			long start = System.nanoTime();
+			for (int i = 0; i < VALUES; i++) {
+				sink += CommonUtils.toHexadecimal(bytes).length();
+				sink += CommonUtils.fromHexadecimal(hex).length;
+			}
+			long jasypt = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < VALUES; i++) {
+				sink += Codecs.toHex(bytes).length();
+				sink += Codecs.fromHex(hex).length;
+			}
+			long codecs = System.nanoTime() - start;
+
+			char[] chars = new char[hex.length()];
+			byte[] decoded = new byte[bytes.length];
+			start = System.nanoTime();
+			for (int i = 0; i < VALUES; i++) {
+				sink += Codecs.encodeHex(bytes, 0, bytes.length, chars, 0);
+				sink += Codecs.decodeHex(hex, 0, hex.length(), decoded, 0);
+			}
+			long buffers = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < VALUES; i++) {
+				sink += Codecs.toBase64(bytes).length();
+				sink += Codecs.fromBase64(base64).length;
+			}
+			long base64Time = System.nanoTime() - start;
+
+			System.out.println("CommonUtils HEX round trip:   " + (jasypt / VALUES) + "ns");
+			System.out.println("Codecs HEX round trip:        " + (codecs / VALUES) + "ns");
+			System.out.println("Codecs HEX reused buffers:    " + (buffers / VALUES) + "ns");
+			System.out.println("Codecs Base64 round trip:     " + (base64Time / VALUES) + "ns");
+			System.out.println("(" + sink + ")");
+
+		}
+
+	}
+
+}
@@ -0,0 +1,105 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+import net.theblackchamber.crypto.util.Codecs;
+
+import org.jasypt.commons.CommonUtils;
+import org.junit.Test;
+
+public class CodecsTest {
+
+	@Test
+	public void testHex() {
+
+		Random random = new Random(42);
+		for (int length = 0; length < 100; length++) {
+			byte[] bytes = new byte[length];
+			random.nextBytes(bytes);
+
+			String hex = Codecs.toHex(bytes);
+			assertTrue(hex.equals(CommonUtils.toHexadecimal(bytes)));
+			assertTrue(Arrays.equals(bytes, Codecs.fromHex(hex)));
+			assertTrue(Arrays.equals(bytes, Codecs.fromHex(hex.toLowerCase())));
+		}
+
+	}
+
+	@Test
+	public void testHexBuffers() {
+
+		byte[] bytes = new byte[] { 0, 1, (byte) 0xab, (byte) 0xff };
+		char[] chars = new char[10];
+		assertTrue(Codecs.encodeHex(bytes, 1, 3, chars, 2) == 6);
+		assertTrue("01ABFF".equals(new String(chars, 2, 6)));
+
+		byte[] decoded = new byte[5];
+		assertTrue(Codecs.decodeHex("xx01abFF", 2, 6, decoded, 1) == 3);
+		assertTrue(Arrays.equals(new byte[] { 0, 1, (byte) 0xab, (byte) 0xff, 0 }, decoded));
+
+	}
+
+	@Test
+	public void testBase64() {
+
+		Random random = new Random(42);
+		for (int length = 0; length < 100; length++) {
+			byte[] bytes = new byte[length];
+			random.nextBytes(bytes);
+
+			String base64 = Codecs.toBase64(bytes);
+			assertTrue(base64.equals(org.bouncycastle.util.encoders.Base64.toBase64String(bytes)));
+			assertTrue(base64.length() == Codecs.base64Length(length));
+			assertTrue(Arrays.equals(bytes, Codecs.fromBase64(base64)));
+		}
+
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidHex() {
+		Codecs.fromHex("0G");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOddHex() {
+		Codecs.fromHex("ABC");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidBase64() {
+		Codecs.fromBase64("AB*=");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidBase64Padding() {
+		Codecs.fromBase64("AA=A");
+	}
+
+}
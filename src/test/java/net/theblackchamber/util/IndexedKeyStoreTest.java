@@ -0,0 +1,261 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.util;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.KeyStoreException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.theblackchamber.crypto.constants.SupportedKeyGenAlgorithms;
+import net.theblackchamber.crypto.model.KeyConfig;
+import net.theblackchamber.crypto.util.IndexedKeyStore;
+import net.theblackchamber.crypto.util.KeystoreUtils;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IndexedKeyStoreTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testWriteAndRead() {
+
+		try {
+
+			File file = new File(temporaryFolder.getRoot(), "test.iks");
+			Map<String, SecretKey> keys = new HashMap<String, SecretKey>();
+			for (int i = 0; i < 500; i++) {
+				byte[] encoded = new byte[32];
+				Arrays.fill(encoded, (byte) i);
+				keys.put("tenant-" + i, new SecretKeySpec(encoded, "AES"));
+			}
+			keys.put("des-key", new SecretKeySpec(new byte[24], "DESede"));
+			IndexedKeyStore.write(file, "TEST", keys);
+
+			IndexedKeyStore store = IndexedKeyStore.open(file, "TEST");
+			assertTrue(store.size() == 501);
+			for (Map.Entry<String, SecretKey> entry : keys.entrySet()) {
+				SecretKey key = store.getSecretKey(entry.getKey());
+				assertTrue(entry.getValue().getAlgorithm().equals(key.getAlgorithm()));
+				assertTrue(Arrays.equals(entry.getValue().getEncoded(), key.getEncoded()));
+			}
+			assertNull(store.getSecretKey("missing"));
+			assertTrue(store.containsAlias("tenant-10"));
+			assertFalse(store.containsAlias("missing"));
+			assertTrue(store.aliases().size() == 501);
+			store.close();
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test
+	public void testJceksConversion() {
+
+		try {
+
+			File jceks = temporaryFolder.newFile("test.key");
+			List<KeyConfig> configs = new ArrayList<KeyConfig>();
+			for (int i = 0; i < 20; i++) {
+				configs.add(new KeyConfig(jceks, "TEST", 256, SupportedKeyGenAlgorithms.AES, "tenant-" + i));
+			}
+			KeystoreUtils.generateSecretKeys(configs);
+
+			File indexed = new File(temporaryFolder.getRoot(), "test.iks");
+			IndexedKeyStore.fromJceks(jceks, "TEST", indexed);
+
+			IndexedKeyStore store = IndexedKeyStore.open(indexed, "TEST");
+			assertTrue(store.size() == 20);
+			for (int i = 0; i < 20; i++) {
+				assertTrue(Arrays.equals(KeystoreUtils.getSecretKey(jceks, "tenant-" + i, "TEST").getEncoded(), store
+						.getSecretKey("tenant-" + i).getEncoded()));
+			}
+
+			File converted = new File(temporaryFolder.getRoot(), "converted.key");
+			IndexedKeyStore.toJceks(indexed, "TEST", converted);
+			for (int i = 0; i < 20; i++) {
+				assertTrue(Arrays.equals(KeystoreUtils.getSecretKey(jceks, "tenant-" + i, "TEST").getEncoded(),
+						KeystoreUtils.getSecretKey(converted, "tenant-" + i, "TEST").getEncoded()));
+			}
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test
+	public void testWritePermissions() {
+
+		try {
+
+			File file = new File(temporaryFolder.getRoot(), "test.iks");
+			Path path = file.toPath();
+			assumeTrue(Files.getFileStore(temporaryFolder.getRoot().toPath()).supportsFileAttributeView(
+					PosixFileAttributeView.class));
+			Map<String, SecretKey> keys = new HashMap<String, SecretKey>();
+			keys.put("aes-key", new SecretKeySpec(new byte[32], "AES"));
+
+			// A new store is readable by its owner only.
+			IndexedKeyStore.write(file, "TEST", keys);
+			assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(path)));
+
+			// A rewritten store keeps its permissions.
+			Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-r-----"));
+			keys.put("des-key", new SecretKeySpec(new byte[24], "DESede"));
+			IndexedKeyStore.write(file, "TEST", keys);
+			assertEquals("rw-r-----", PosixFilePermissions.toString(Files.getPosixFilePermissions(path)));
+
+			IndexedKeyStore store = IndexedKeyStore.open(file, "TEST");
+			assertTrue(store.size() == 2);
+			store.close();
+			assertEquals(1, temporaryFolder.getRoot().list().length);
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test(expected = KeyStoreException.class)
+	public void testWrongPassword() throws Exception {
+		File file = new File(temporaryFolder.getRoot(), "test.iks");
+		Map<String, SecretKey> keys = new HashMap<String, SecretKey>();
+		keys.put("aes-key", new SecretKeySpec(new byte[32], "AES"));
+		IndexedKeyStore.write(file, "TEST", keys);
+		IndexedKeyStore.open(file, "WRONG");
+	}
+
+	@Test
+	public void testDamagedEntry() {
+
+		try {
+
+			File file = new File(temporaryFolder.getRoot(), "test.iks");
+			Map<String, SecretKey> keys = new HashMap<String, SecretKey>();
+			keys.put("aes-key", new SecretKeySpec(new byte[32], "AES"));
+			IndexedKeyStore.write(file, "TEST", keys);
+
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			raf.seek(raf.length() - 1);
+			int last = raf.read();
+			raf.seek(raf.length() - 1);
+			raf.write(last ^ 1);
+			raf.close();
+
+			IndexedKeyStore store = IndexedKeyStore.open(file, "TEST");
+			try {
+				store.getSecretKey("aes-key");
+				fail();
+			} catch (KeyStoreException e) {
+				// Expected, the entry no longer authenticates.
+			}
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	@Test
+	public void testDamagedIndex() {
+
+		try {
+
+			File file = new File(temporaryFolder.getRoot(), "test.iks");
+			Map<String, SecretKey> keys = new HashMap<String, SecretKey>();
+			keys.put("aes-key", new SecretKeySpec(new byte[32], "AES"));
+			IndexedKeyStore.write(file, "TEST", keys);
+			byte[] original = FileUtils.readFileToByteArray(file);
+
+			// The hash table follows the 64 byte header, two slots for one key.
+			for (int slot = 0; slot < 2; slot++) {
+
+				// Emptying the used slot would hide the key.
+				byte[] damaged = original.clone();
+				Arrays.fill(damaged, 64 + slot * 16, 64 + slot * 16 + 16, (byte) 0);
+				if (!Arrays.equals(damaged, original)) {
+					assertIndexRejected(file, damaged);
+				}
+
+				// Pointing the slot into the header or past the end of the file.
+				damaged = original.clone();
+				damaged[64 + slot * 16 + 15] = 10;
+				assertIndexRejected(file, damaged);
+				damaged = original.clone();
+				damaged[64 + slot * 16 + 12] = 0x7f;
+				assertIndexRejected(file, damaged);
+
+			}
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	private void assertIndexRejected(File file, byte[] contents) throws Exception {
+		FileUtils.writeByteArrayToFile(file, contents);
+		try {
+			IndexedKeyStore.open(file, "TEST");
+			fail();
+		} catch (KeyStoreException e) {
+			// Expected, the table no longer authenticates.
+		}
+	}
+
+	@Test(expected = KeyStoreException.class)
+	public void testNotIndexedKeyStore() throws Exception {
+		File jceks = temporaryFolder.newFile("test.key");
+		KeystoreUtils.generateSecretKey(new KeyConfig(jceks, "TEST", 256, SupportedKeyGenAlgorithms.AES, "aes-key"));
+		IndexedKeyStore.open(jceks, "TEST");
+	}
+
+}
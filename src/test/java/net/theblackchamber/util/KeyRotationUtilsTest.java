@@ -0,0 +1,250 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Seamus Minogue
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.theblackchamber.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.security.KeyStoreException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.theblackchamber.crypto.constants.Constants;
+import net.theblackchamber.crypto.constants.SupportedKeyGenAlgorithms;
+import net.theblackchamber.crypto.implementations.SecureProperties;
+import net.theblackchamber.crypto.model.FileEncryptionResult;
+import net.theblackchamber.crypto.model.KeyConfig;
+import net.theblackchamber.crypto.util.KeyRotationUtils;
+import net.theblackchamber.crypto.util.KeystoreUtils;
+import net.theblackchamber.crypto.util.SecurePropertiesUtils;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class KeyRotationUtilsTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private File keyfile;
+
+	private List<File> files;
+
+	@Before
+	public void init() {
+		try {
+			keyfile = temporaryFolder.newFile("test.key");
+
+			KeyConfig config = new KeyConfig(keyfile, "TEST", null,
+					SupportedKeyGenAlgorithms.AES, "aes-key");
+			KeystoreUtils.generateSecretKey(config);
+			config = new KeyConfig(keyfile, "TEST", 128,
+					SupportedKeyGenAlgorithms.AES, "aes-key-2");
+			KeystoreUtils.generateSecretKey(config);
+
+			files = new ArrayList<File>();
+			for (int i = 0; i < 6; i++) {
+				File propertiesFile = temporaryFolder.newFile("test" + i + ".properties");
+				String contents = "# comment\n" + (i == 0 ? "entry-name=aes-key\n" : "")
+						+ "plain=PLAIN\n"
+						+ "test-unencrypted=TESTY" + i + "\n"
+						+ "other-unencrypted=OTHER\n";
+				FileUtils.writeStringToFile(propertiesFile, contents);
+				assertEquals(2, SecurePropertiesUtils.encryptPropertiesFileInPlace(propertiesFile, keyfile.getPath(), "TEST", "aes-key"));
+				files.add(propertiesFile);
+			}
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testRotateKey() {
+		try {
+
+			List<FileEncryptionResult> results = KeyRotationUtils.rotateKey(files, null, keyfile.getPath(), "TEST", "aes-key", "aes-key-2");
+			assertEquals(files.size(), results.size());
+
+			for (int i = 0; i < files.size(); i++) {
+				assertTrue(results.get(i).isSuccess());
+
+				File file = files.get(i);
+				assertTrue(FileUtils.readFileToString(file).startsWith("# comment\n"));
+
+				SecureProperties sProperties = new SecureProperties(file, keyfile.getPath(), "aes-key-2", "TEST");
+				assertTrue(StringUtils.equals(sProperties.getProperty("plain"), "PLAIN"));
+				assertTrue(StringUtils.equals(sProperties.getProperty("test-encrypted"), "TESTY" + i));
+				assertTrue(StringUtils.equals(sProperties.getProperty("other-encrypted"), "OTHER"));
+			}
+
+			assertTrue(FileUtils.readFileToString(files.get(0)).contains(Constants.ENTRY_NAME_PROPERTY_KEY + "=aes-key-2\n"));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testRotateKeyResumeFromCheckpoint() {
+		try {
+
+			File checkpoint = new File(temporaryFolder.getRoot(), "rotation.checkpoint");
+
+			// Simulate an earlier run which completed the first two files.
+			List<FileEncryptionResult> results = KeyRotationUtils.rotateKey(files.subList(0, 2), checkpoint, keyfile.getPath(), "TEST", "aes-key", "aes-key-2");
+			assertEquals(2, results.size());
+			String firstRotation = FileUtils.readFileToString(files.get(0));
+
+			results = KeyRotationUtils.rotateKey(files, checkpoint, keyfile.getPath(), "TEST", "aes-key", "aes-key-2");
+			assertEquals(files.size() - 2, results.size());
+			for (FileEncryptionResult result : results) {
+				assertTrue(result.isSuccess());
+				assertFalse(files.subList(0, 2).contains(result.getFile()));
+			}
+
+			// Completed files were not rotated a second time.
+			assertTrue(StringUtils.equals(FileUtils.readFileToString(files.get(0)), firstRotation));
+			assertEquals(files.size(), FileUtils.readLines(checkpoint).size());
+
+			for (int i = 0; i < files.size(); i++) {
+				SecureProperties sProperties = new SecureProperties(files.get(i), keyfile.getPath(), "aes-key-2", "TEST");
+				assertTrue(StringUtils.equals(sProperties.getProperty("test-encrypted"), "TESTY" + i));
+			}
+
+			// Everything is complete so nothing is done.
+			results = KeyRotationUtils.rotateKey(files, checkpoint, keyfile.getPath(), "TEST", "aes-key", "aes-key-2");
+			assertTrue(results.isEmpty());
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testRotateKeyAgainWithoutCheckpoint() {
+		try {
+
+			// An earlier run without a checkpoint rotated some of the files.
+			List<FileEncryptionResult> results = KeyRotationUtils.rotateKey(files.subList(0, 3), null, keyfile.getPath(), "TEST", "aes-key", "aes-key-2");
+			for (FileEncryptionResult result : results) {
+				assertTrue(result.isSuccess());
+			}
+			List<String> rotated = new ArrayList<String>();
+			for (int i = 0; i < 3; i++) {
+				rotated.add(FileUtils.readFileToString(files.get(i)));
+			}
+
+			// Running again, repeatedly, must never re-encrypt rotated values.
+			for (int run = 0; run < 10; run++) {
+				results = KeyRotationUtils.rotateKey(files, null, keyfile.getPath(), "TEST", "aes-key", "aes-key-2");
+				assertEquals(files.size(), results.size());
+				for (FileEncryptionResult result : results) {
+					assertTrue(result.isSuccess());
+				}
+				for (int i = 0; i < 3; i++) {
+					assertEquals(rotated.get(i), FileUtils.readFileToString(files.get(i)));
+				}
+			}
+
+			for (int i = 0; i < files.size(); i++) {
+				SecureProperties sProperties = new SecureProperties(files.get(i), keyfile.getPath(), "aes-key-2", "TEST");
+				assertTrue(StringUtils.equals(sProperties.getProperty("test-encrypted"), "TESTY" + i));
+				assertTrue(StringUtils.equals(sProperties.getProperty("other-encrypted"), "OTHER"));
+			}
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testRotateKeyNothingEncrypted() {
+		try {
+
+			File file = temporaryFolder.newFile("plain.properties");
+			String contents = "# comment\nplain=PLAIN\nother=OTHER\n";
+			FileUtils.writeStringToFile(file, contents);
+
+			List<File> all = new ArrayList<File>(files);
+			all.add(file);
+			List<FileEncryptionResult> results = KeyRotationUtils.rotateKey(all, null, keyfile.getPath(), "TEST", "aes-key", "aes-key-2");
+			assertEquals(all.size(), results.size());
+			for (FileEncryptionResult result : results) {
+				assertTrue(result.isSuccess());
+			}
+			assertEquals(contents, FileUtils.readFileToString(file));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testRotateKeyMixedKeysFails() {
+		try {
+
+			File file = files.get(1);
+			String contents = FileUtils.readFileToString(file);
+			KeyRotationUtils.rotateKey(files.subList(1, 2), null, keyfile.getPath(), "TEST", "aes-key", "aes-key-2");
+
+			// One value under each key: the file can not be rotated safely.
+			String rotated = FileUtils.readFileToString(file);
+			String mixed = rotated.substring(0, rotated.indexOf("other-encrypted")) + contents.substring(contents.indexOf("other-encrypted"));
+			FileUtils.writeStringToFile(file, mixed);
+
+			List<FileEncryptionResult> results = KeyRotationUtils.rotateKey(files.subList(1, 2), null, keyfile.getPath(), "TEST", "aes-key", "aes-key-2");
+			assertEquals(1, results.size());
+			assertFalse(results.get(0).isSuccess());
+			assertEquals(mixed, FileUtils.readFileToString(file));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testRotateKeyMissingParameters() {
+		try {
+			KeyRotationUtils.rotateKey(files, null, keyfile.getPath(), "TEST", "aes-key", null);
+			fail();
+		} catch (KeyStoreException e) {
+			// Expected
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+}
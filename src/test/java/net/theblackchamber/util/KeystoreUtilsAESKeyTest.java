@@ -27,7 +27,16 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.security.KeyStoreException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import javax.crypto.SecretKey;
 
@@ -43,6 +52,7 @@ import org.junit.Rule;
 import org.junit.Test;
 
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
 
 import org.junit.rules.TemporaryFolder;
 
@@ -219,6 +229,29 @@ public class KeystoreUtilsAESKeyTest {
 	}
 	
 	
+	@Test
+	public void testgenerateSecretKeyKeepsPermissions(){
+		
+		try {
+			File file = temporaryFolder.newFile("test.key");
+			Path path = file.toPath();
+			assumeTrue(Files.getFileStore(path).supportsFileAttributeView(PosixFileAttributeView.class));
+			Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-------"));
+			
+			KeystoreUtils.generateSecretKey(new KeyConfig(file, "TEST", null, SupportedKeyGenAlgorithms.AES, "aes-key"));
+			KeystoreUtils.generateSecretKey(new KeyConfig(file, "TEST", null, SupportedKeyGenAlgorithms.AES, "aes-key-2"));
+			
+			assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(path)));
+			assertNotNull(KeystoreUtils.getSecretKey(file, "aes-key", "TEST"));
+			assertEquals(1, file.getParentFile().list().length);
+			
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail();
+		}
+		
+	}
+	
 	@Test
 	public void testLoadAESSecretKey(){
 		try {
@@ -335,4 +368,58 @@ public class KeystoreUtilsAESKeyTest {
 		}
 	}
 	
+	@Test
+	public void testGenerateSecretKeys(){
+		try {
+			File file = temporaryFolder.newFile("test.key");
+			KeystoreUtils.generateSecretKey(new KeyConfig(file, "TEST", 256, SupportedKeyGenAlgorithms.AES, "existing-key"));
+			SecretKey existing = KeystoreUtils.getSecretKey(file, "existing-key", "TEST");
+			
+			List<KeyConfig> configs = new ArrayList<KeyConfig>();
+			for (int i = 0; i < 50; i++) {
+				configs.add(new KeyConfig(file, "TEST", 256, SupportedKeyGenAlgorithms.AES, "tenant-" + i));
+			}
+			configs.add(new KeyConfig(file, "TEST", 192, SupportedKeyGenAlgorithms.DES, "des-key"));
+			KeystoreUtils.generateSecretKeys(configs);
+			
+			assertTrue(Arrays.equals(existing.getEncoded(), KeystoreUtils.getSecretKey(file, "existing-key", "TEST").getEncoded()));
+			
+			Set<String> keys = new HashSet<String>();
+			for (int i = 0; i < 50; i++) {
+				SecretKey key = KeystoreUtils.getSecretKey(file, "tenant-" + i, "TEST");
+				assertTrue(key.getEncoded().length == 32);
+				keys.add(Hex.toHexString(key.getEncoded()));
+			}
+			assertTrue(keys.size() == 50);
+			assertTrue(KeystoreUtils.getSecretKey(file, "des-key", "TEST").getEncoded().length == 24);
+			
+			assertTrue(file.getParentFile().listFiles().length == 1);
+			
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+	
+	@Test
+	public void testGenerateSecretKeysMixedKeystores(){
+		try {
+			File file = temporaryFolder.newFile("test.key");
+			List<KeyConfig> configs = new ArrayList<KeyConfig>();
+			configs.add(new KeyConfig(file, "TEST", 256, SupportedKeyGenAlgorithms.AES, "aes-key"));
+			configs.add(new KeyConfig(file, "OTHER", 256, SupportedKeyGenAlgorithms.AES, "aes-key-2"));
+			
+			try {
+				KeystoreUtils.generateSecretKeys(configs);
+				fail();
+			} catch (KeyStoreException e) {
+				assertTrue(FileUtils.sizeOf(file) == 0);
+			}
+			
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+	
 }
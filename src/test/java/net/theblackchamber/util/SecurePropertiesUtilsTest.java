@@ -24,6 +24,7 @@
 package net.theblackchamber.util;
 
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -31,13 +32,20 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.FileNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.security.KeyStoreException;
+import java.util.List;
 import java.util.Properties;
 
 import net.theblackchamber.crypto.constants.Constants;
 import net.theblackchamber.crypto.constants.SupportedKeyGenAlgorithms;
 import net.theblackchamber.crypto.exceptions.RuntimeCryptoException;
 import net.theblackchamber.crypto.implementations.SecureProperties;
+import net.theblackchamber.crypto.model.FileEncryptionResult;
 import net.theblackchamber.crypto.model.KeyConfig;
 import net.theblackchamber.crypto.util.KeystoreUtils;
 import net.theblackchamber.crypto.util.SecurePropertiesUtils;
@@ -236,6 +244,211 @@ public class SecurePropertiesUtilsTest {
 		}
 	}
 
+	//Test encrypting a directory tree of properties files with a single shared key
+	@Test
+	public void testEncryptPropertiesFiles() {
+		try {
+			File keyfile = new File(temporaryFolder.getRoot().getPath()
+					+ File.separator + "test.key");
+
+			File root = tempPropertiesFolder.newFolder("config");
+			File nested = new File(root, "nested");
+			assertTrue(nested.mkdirs());
+
+			for (int i = 0; i < 10; i++) {
+				writeBulkTestFile(new File(i % 2 == 0 ? root : nested, "test" + i + ".properties"), i);
+			}
+			File other = new File(root, "test.txt");
+			FileUtils.writeStringToFile(other, "test-unencrypted=TESTY");
+
+			List<FileEncryptionResult> results = SecurePropertiesUtils.encryptPropertiesFiles(root, keyfile.getPath(), "TEST", "aes-key");
+			assertEquals(10, results.size());
+
+			for (FileEncryptionResult result : results) {
+				assertTrue(result.isSuccess());
+				assertNull(result.getError());
+
+				SecureProperties sProperties = new SecureProperties(result.getFile(), keyfile.getPath(), "aes-key", "TEST");
+				assertFalse(sProperties.containsKey(Constants.KEY_PATH_PROPERTY_KEY));
+				assertTrue(sProperties.getProperty("test-unencrypted") == null);
+				assertTrue(StringUtils.equals(sProperties.getProperty("plain"), "PLAIN"));
+				assertTrue(StringUtils.equals(sProperties.getProperty("test-encrypted"), "TESTY" + result.getFile().getName()));
+			}
+
+			assertTrue(StringUtils.equals(FileUtils.readFileToString(other), "test-unencrypted=TESTY"));
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	//Test bulk encryption retaining the crypto configuration in each file
+	@Test
+	public void testEncryptPropertiesFilesKeepConfig() {
+		try {
+			File keyfile = new File(temporaryFolder.getRoot().getPath()
+					+ File.separator + "test.key");
+
+			File root = tempPropertiesFolder.newFolder("config");
+			for (int i = 0; i < 3; i++) {
+				writeBulkTestFile(new File(root, "test" + i + ".properties"), i);
+			}
+
+			List<FileEncryptionResult> results = SecurePropertiesUtils.encryptPropertiesFiles(root, new String[] { "properties" }, keyfile.getPath(), "TEST", "aes-key", true, 2);
+			assertEquals(3, results.size());
+
+			for (FileEncryptionResult result : results) {
+				assertTrue(result.isSuccess());
+
+				SecureProperties sProperties = new SecureProperties(result.getFile());
+				assertTrue(sProperties.containsKey(Constants.KEY_PATH_PROPERTY_KEY));
+				assertTrue(StringUtils.equals(sProperties.getProperty("test-encrypted"), "TESTY" + result.getFile().getName()));
+			}
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testEncryptPropertiesFilesBadParameters() {
+
+		File keyfile = new File(temporaryFolder.getRoot().getPath()
+				+ File.separator + "test.key");
+
+		try {
+			SecurePropertiesUtils.encryptPropertiesFiles(new File(tempPropertiesFolder.getRoot(), "missing"), keyfile.getPath(), "TEST", "aes-key");
+			fail();
+		} catch (FileNotFoundException e) {
+			// Expected
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+		try {
+			SecurePropertiesUtils.encryptPropertiesFiles(tempPropertiesFolder.getRoot(), keyfile.getPath(), null, "aes-key");
+			fail();
+		} catch (KeyStoreException e) {
+			// Expected
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+
+	}
+
+	//Test encrypting a properties file in place keeping comments, ordering and already encrypted values
+	@Test
+	public void testEncryptPropertiesFileInPlace() {
+		try {
+			File keyfile = new File(temporaryFolder.getRoot().getPath()
+					+ File.separator + "test.key");
+
+			File propertiesFile = tempPropertiesFolder.newFile("test.properties");
+			String contents = "# Header comment\n"
+					+ "entry-name=aes-key\n"
+					+ "keystore-password : TEST\n"
+					+ "key-path=" + keyfile.getPath().replace("\\", "\\\\") + "\n"
+					+ "\n"
+					+ "! bang comment ending in a backslash \\\n"
+					+ "plain = PLAIN\n"
+					+ "  test-unencrypted = TESTY\r\n"
+					+ "multi-unencrypted=line one \\\n"
+					+ "     line two\n"
+					+ "last-unencrypted LAST";
+			FileUtils.writeStringToFile(propertiesFile, contents);
+
+			int encrypted = SecurePropertiesUtils.encryptPropertiesFileInPlace(propertiesFile);
+			assertEquals(3, encrypted);
+
+			String rewritten = FileUtils.readFileToString(propertiesFile);
+			String[] lines = rewritten.split("\n", -1);
+			assertEquals(10, lines.length);
+			assertTrue(StringUtils.equals(lines[0], "# Header comment"));
+			assertTrue(StringUtils.equals(lines[2], "keystore-password : TEST"));
+			assertTrue(StringUtils.equals(lines[4], ""));
+			assertTrue(StringUtils.equals(lines[5], "! bang comment ending in a backslash \\"));
+			assertTrue(StringUtils.equals(lines[6], "plain = PLAIN"));
+			assertTrue(lines[7].startsWith("  test-encrypted = "));
+			assertTrue(lines[7].endsWith("\r"));
+			assertTrue(lines[8].startsWith("multi-encrypted="));
+			assertTrue(lines[9].startsWith("last-encrypted "));
+			assertFalse(rewritten.contains("TESTY"));
+
+			SecureProperties sProperties = new SecureProperties(propertiesFile);
+			assertTrue(StringUtils.equals(sProperties.getProperty("plain"), "PLAIN"));
+			assertTrue(StringUtils.equals(sProperties.getProperty("test-encrypted"), "TESTY"));
+			assertTrue(StringUtils.equals(sProperties.getProperty("multi-encrypted"), "line one line two"));
+			assertTrue(StringUtils.equals(sProperties.getProperty("last-encrypted"), "LAST"));
+
+			// Nothing left to encrypt so the file should not change.
+			assertEquals(0, SecurePropertiesUtils.encryptPropertiesFileInPlace(propertiesFile, keyfile.getPath(), "TEST", "aes-key"));
+			assertTrue(StringUtils.equals(FileUtils.readFileToString(propertiesFile), rewritten));
+
+			// Adding a new value only encrypts the new value.
+			FileUtils.writeStringToFile(propertiesFile, rewritten + "\nnew-unencrypted=NEW", true);
+			assertEquals(1, SecurePropertiesUtils.encryptPropertiesFileInPlace(propertiesFile, sProperties.getEncryptionProvider()));
+			assertTrue(FileUtils.readFileToString(propertiesFile).startsWith(rewritten));
+
+			sProperties = new SecureProperties(propertiesFile);
+			assertTrue(StringUtils.equals(sProperties.getProperty("new-encrypted"), "NEW"));
+			assertTrue(StringUtils.equals(sProperties.getProperty("test-encrypted"), "TESTY"));
+
+			assertEquals(1, tempPropertiesFolder.getRoot().listFiles().length);
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testEncryptPropertiesFileInPlaceKeepsPermissions() {
+		try {
+			File propertiesFile = writeTestFile(new File(temporaryFolder.getRoot().getPath()
+					+ File.separator + "test.key"), true, true, true);
+			Path path = propertiesFile.toPath();
+			assumeTrue(Files.getFileStore(path).supportsFileAttributeView(PosixFileAttributeView.class));
+			Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-r-----"));
+
+			assertEquals(1, SecurePropertiesUtils.encryptPropertiesFileInPlace(propertiesFile));
+
+			assertEquals("rw-r-----", PosixFilePermissions.toString(Files.getPosixFilePermissions(path)));
+			assertFalse(FileUtils.readFileToString(propertiesFile).contains("TESTY"));
+			assertEquals(1, tempPropertiesFolder.getRoot().listFiles().length);
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testEncryptPropertiesFileInPlaceMissingParams() {
+		try {
+			File propertiesFile = writeTestFile(new File(temporaryFolder.getRoot().getPath()
+					+ File.separator + "test.key"), true, false, true);
+			SecurePropertiesUtils.encryptPropertiesFileInPlace(propertiesFile);
+			fail();
+		} catch (KeyStoreException e) {
+			// Expected
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail();
+		}
+	}
+
+	private void writeBulkTestFile(File propertiesFile, int index) throws IOException {
+		Properties clearProperties = new Properties();
+		clearProperties.setProperty("plain", "PLAIN");
+		clearProperties.setProperty("test-unencrypted", "TESTY" + propertiesFile.getName());
+		OutputStream stream = new FileOutputStream(propertiesFile);
+		clearProperties.store(stream, "comment " + index);
+		stream.close();
+	}
+
 	private File writeTestFile(File keyfile, boolean pass, boolean entryname,
 			boolean keypath) throws IOException {
 		Properties clearProperties = new Properties();